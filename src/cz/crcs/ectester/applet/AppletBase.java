@@ -34,6 +34,9 @@ public abstract class AppletBase extends Applet {
     public static final byte INS_SET_DRY_RUN_MODE = (byte) 0x79;
     public static final byte INS_BUFFER = (byte) 0x7a;
     public static final byte INS_PERFORM = (byte) 0x7b;
+    public static final byte INS_BATCH = (byte) 0x7c;
+    public static final byte INS_REPEAT = (byte) 0x7d;
+    public static final byte INS_GET_RESPONSE = (byte) 0xc0;
 
     // PARAMETERS for P1 and P2
     public static final byte KEYPAIR_LOCAL = (byte) 0x01;
@@ -45,6 +48,9 @@ public abstract class AppletBase extends Applet {
     public static final byte EXPORT_FALSE = (byte) 0x00;
     public static final byte MODE_NORMAL = (byte) 0xaa;
     public static final byte MODE_DRY_RUN = (byte) 0xbb;
+    public static final byte BATCH_NONE = (byte) 0x00;
+    public static final byte BATCH_ECDH = (byte) 0x01;
+    public static final byte BATCH_ECDSA = (byte) 0x02;
 
     // STATUS WORDS
     public static final short SW_SIG_VERIFY_FAIL = (short) 0x0ee1;
@@ -79,6 +85,8 @@ public abstract class AppletBase extends Applet {
 
     public static final short ARRAY_LENGTH = 0x100;
     public static final short APDU_MAX_LENGTH = 1024;//512
+    public static final short CHAIN_LENGTH = 0x100;
+    public static final short BATCH_MARGIN = 16;
 
     // TEMPORARRY ARRAY IN RAM
     byte[] ramArray = null;
@@ -86,6 +94,9 @@ public abstract class AppletBase extends Applet {
     byte[] apduArray = null;
     short apduEnd = 0;
     short cdata = 0;
+    // Part of apduArray left to be sent in chained responses
+    short responseOffset = 0;
+    short responseEnd = 0;
 
     RandomData randomData = null;
 
@@ -171,6 +182,13 @@ public abstract class AppletBase extends Applet {
             return;
         }
 
+        if (ins == INS_GET_RESPONSE && responseOffset < responseEnd) {
+            sendChained(apdu);
+            return;
+        }
+        responseOffset = 0;
+        responseEnd = 0;
+
         if (cla == CLA_ECTESTERAPPLET) {
             try {
                 if (ins == INS_BUFFER) {
@@ -245,6 +263,12 @@ public abstract class AppletBase extends Applet {
                     case INS_SET_DRY_RUN_MODE:
                         length = insSetDryRunMode(apdu);
                         break;
+                    case INS_BATCH:
+                        insBatch(apdu);
+                        return;
+                    case INS_REPEAT:
+                        length = insRepeat(apdu);
+                        break;
                     default:
                         // The INS code is not supported by the dispatcher
                         ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
@@ -317,6 +341,31 @@ public abstract class AppletBase extends Applet {
         return written;
     }
 
+    /**
+     * Sends the next part of the response left in apduArray, if more of it remains,
+     * signals it with SW 61xx, so that the rest is fetched by GET RESPONSE.
+     *
+     * @param apdu
+     */
+    private void sendChained(APDU apdu) {
+        byte[] apduBuffer = apdu.getBuffer();
+        short length = (short) (responseEnd - responseOffset);
+        if (length > CHAIN_LENGTH) {
+            length = CHAIN_LENGTH;
+        }
+        if (length > (short) apduBuffer.length) {
+            length = (short) apduBuffer.length;
+        }
+        Util.arrayCopyNonAtomic(apduArray, responseOffset, apduBuffer, (short) 0, length);
+        responseOffset += length;
+        apdu.setOutgoingAndSend((short) 0, length);
+
+        short remaining = (short) (responseEnd - responseOffset);
+        if (remaining > 0) {
+            ISOException.throwIt((short) (ISO7816.SW_BYTES_REMAINING_00 | (remaining > 0xff ? 0 : remaining)));
+        }
+    }
+
     abstract short getOffsetCdata(APDU apdu);
 
     abstract short getIncomingLength(APDU apdu);
@@ -658,6 +707,149 @@ public abstract class AppletBase extends Applet {
         return len;
     }
 
+    /**
+     * Runs rounds of operations on-card, each round generates keyPairs, exports keys from them and performs
+     * ECDH or ECDSA, so that data can be collected without a round trip per operation.
+     * returns SW, short rounds, and for every round the response of every operation (as INS_GENERATE,
+     * INS_EXPORT of local, INS_EXPORT of remote and INS_ECDH/INS_ECDSA would respond), each as short length, byte[] response.
+     * Runs less rounds if another one might not fit, the response is sent in chained responses (61xx, GET RESPONSE).
+     *
+     * @param apdu P1   = byte rounds
+     *             P2   = byte operation (BATCH_NONE || BATCH_ECDH || BATCH_ECDSA)
+     *             DATA = byte generate (KEYPAIR_* | ...), 0 = none
+     *             byte localKey (EC_Consts.KEY_* | ...), 0 = none
+     *             short localParams (EC_Consts.PARAMETER_* | ...)
+     *             byte remoteKey (EC_Consts.KEY_* | ...), 0 = none
+     *             short remoteParams (EC_Consts.PARAMETER_* | ...)
+     *             byte type (EC_Consts.KA_* for ECDH, signature type for ECDSA)
+     *             byte keyPair (KEYPAIR_*), privkey for ECDH with the pubkey of the other keyPair, or keyPair for ECDSA
+     *             short dataLength (00 = random data generated, !00 = data length)
+     *             byte[] data
+     */
+    private void insBatch(APDU apdu) {
+        short rounds = (short) (apduArray[ISO7816.OFFSET_P1] & 0xff);
+        byte operation = apduArray[ISO7816.OFFSET_P2];
+        byte generate = apduArray[cdata];
+        byte localKey = apduArray[(short) (cdata + 1)];
+        short localParams = Util.getShort(apduArray, (short) (cdata + 2));
+        byte remoteKey = apduArray[(short) (cdata + 4)];
+        short remoteParams = Util.getShort(apduArray, (short) (cdata + 5));
+        byte type = apduArray[(short) (cdata + 7)];
+        byte keyPair = apduArray[(short) (cdata + 8)];
+        short dataOffset = (short) (cdata + 9);
+
+        KeyPair priv = ((keyPair & KEYPAIR_LOCAL) != 0) ? localKeypair : remoteKeypair;
+        byte pubkey = ((keyPair & KEYPAIR_LOCAL) != 0) ? KEYPAIR_REMOTE : KEYPAIR_LOCAL;
+
+        // The response is written after the data, which is needed for every round.
+        short start = (short) (dataOffset + 2 + Util.getShort(apduArray, dataOffset));
+        short offset = (short) (start + 4);
+        short done = 0;
+        short roundLength = 0;
+        while (done < rounds && (short) (offset + roundLength + BATCH_MARGIN) <= (short) apduArray.length) {
+            short roundStart = offset;
+            short length;
+            if (generate != 0) {
+                length = 0;
+                if ((generate & KEYPAIR_LOCAL) != 0) {
+                    length += generate(localKeypair, apduArray, (short) (offset + 2));
+                }
+                if ((generate & KEYPAIR_REMOTE) != 0) {
+                    length += generate(remoteKeypair, apduArray, (short) (offset + 2 + length));
+                }
+                Util.setShort(apduArray, offset, length);
+                offset += (short) (2 + length);
+            }
+            if (localKey != 0) {
+                length = (short) (2 + export(localKeypair, localKey, localParams, apduArray, (short) (offset + 2), (short) (offset + 4)));
+                Util.setShort(apduArray, offset, length);
+                offset += (short) (2 + length);
+            }
+            if (remoteKey != 0) {
+                length = (short) (2 + export(remoteKeypair, remoteKey, remoteParams, apduArray, (short) (offset + 2), (short) (offset + 4)));
+                Util.setShort(apduArray, offset, length);
+                offset += (short) (2 + length);
+            }
+            if (operation == BATCH_ECDH) {
+                length = ecdh(pubkey, keyPair, EXPORT_TRUE, EC_Consts.TRANSFORMATION_NONE, type, apduArray, (short) (offset + 2));
+                Util.setShort(apduArray, offset, length);
+                offset += (short) (2 + length);
+            } else if (operation == BATCH_ECDSA) {
+                length = ecdsa(priv, type, EXPORT_TRUE, apduArray, dataOffset, apduArray, (short) (offset + 2));
+                Util.setShort(apduArray, offset, length);
+                offset += (short) (2 + length);
+            }
+            roundLength = (short) (offset - roundStart);
+            done++;
+        }
+        Util.setShort(apduArray, start, ISO7816.SW_NO_ERROR);
+        Util.setShort(apduArray, (short) (start + 2), done);
+
+        responseOffset = start;
+        responseEnd = offset;
+        sendChained(apdu);
+    }
+
+    /**
+     * Repeats an instruction on-card, so that the duration of one operation can be measured without the
+     * transport overhead of an APDU per operation. Stops at the first round that fails, the dry run mode
+     * is respected by every round.
+     * returns SW of the last round, short rounds (how many rounds succeeded)
+     *
+     * @param apdu DATA = short count
+     *             byte ins (INS_GENERATE || INS_ECDH || INS_ECDSA_SIGN || INS_ECDSA_VERIFY)
+     *             byte p1
+     *             byte p2
+     *             byte[] data, P1, P2 and DATA as the instruction takes them, the output of every round is discarded
+     * @return length of response
+     */
+    private short insRepeat(APDU apdu) {
+        byte[] apdubuf = apdu.getBuffer();
+        short count = Util.getShort(apduArray, cdata);
+        byte ins = apduArray[(short) (cdata + 2)];
+        byte p1 = apduArray[(short) (cdata + 3)];
+        byte p2 = apduArray[(short) (cdata + 4)];
+        short data = (short) (cdata + 5);
+
+        KeyPair keyPair = ((p1 & KEYPAIR_LOCAL) != 0) ? localKeypair : remoteKeypair;
+        short sw = ISO7816.SW_NO_ERROR;
+        short done = 0;
+        while (done < count && sw == ISO7816.SW_NO_ERROR) {
+            switch (ins) {
+                case INS_GENERATE:
+                    if ((p1 & KEYPAIR_LOCAL) != 0) {
+                        generate(localKeypair, apdubuf, (short) 4);
+                        sw = Util.getShort(apdubuf, (short) 4);
+                    }
+                    if ((p1 & KEYPAIR_REMOTE) != 0 && sw == ISO7816.SW_NO_ERROR) {
+                        generate(remoteKeypair, apdubuf, (short) 4);
+                        sw = Util.getShort(apdubuf, (short) 4);
+                    }
+                    break;
+                case INS_ECDH:
+                    ecdh(p1, p2, EXPORT_FALSE, Util.getShort(apduArray, (short) (data + 1)), apduArray[(short) (data + 3)], apdubuf, (short) 4);
+                    sw = Util.getShort(apdubuf, (short) 4);
+                    break;
+                case INS_ECDSA_SIGN:
+                    ecdsa_sign(keyPair, apduArray[data], EXPORT_FALSE, apduArray, (short) (data + 1), apdubuf, (short) 4);
+                    sw = Util.getShort(apdubuf, (short) 4);
+                    break;
+                case INS_ECDSA_VERIFY:
+                    ecdsa_verify(keyPair, p2, apduArray, data, apdubuf, (short) 4);
+                    sw = Util.getShort(apdubuf, (short) 4);
+                    break;
+                default:
+                    ISOException.throwIt(ISO7816.SW_INS_NOT_SUPPORTED);
+            }
+            if (sw == ISO7816.SW_NO_ERROR) {
+                done++;
+            }
+        }
+        Util.setShort(apdubuf, (short) 0, sw);
+        Util.setShort(apdubuf, (short) 2, done);
+        return 4;
+    }
+
     /**
      * @param keyPair   which keyPair to use, local/remote (KEYPAIR_* | ...)
      * @param build     whether to use KeyBuilder or Keypair alloc
@@ -16,6 +16,29 @@ import java.util.Map;
  */
 public class CLITools {
 
+    /**
+     * Parse a test suite shard selection.
+     *
+     * @param shard The shard, as <code>i/n</code> with 0 &lt;= i &lt; n.
+     * @return The shard index and the number of shards, or null if invalid.
+     */
+    public static int[] parseShard(String shard) {
+        String[] parts = shard.split("/");
+        if (parts.length != 2) {
+            return null;
+        }
+        try {
+            int i = Integer.parseInt(parts[0]);
+            int n = Integer.parseInt(parts[1]);
+            if (n < 1 || i < 0 || i >= n) {
+                return null;
+            }
+            return new int[]{i, n};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     /**
      * Print help.
      */
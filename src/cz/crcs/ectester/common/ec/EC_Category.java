@@ -3,11 +3,14 @@ package cz.crcs.ectester.common.ec;
 import cz.crcs.ectester.common.cli.Colors;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
  * A category of EC_Data objects, has a name, description and represents a directory in
- * the cz.crcs.ectester.data package.
+ * the cz.crcs.ectester.data package. The objects can be loaded lazily, on first access.
+ * Once loaded, the objects and their per-class views are immutable and safe to share between threads.
  *
  * @author Jan Jancar johny@neuromancer.sk
  */
@@ -17,7 +20,9 @@ public class EC_Category {
     private String directory;
     private String desc;
 
-    private Map<String, EC_Data> objects;
+    private volatile Map<String, EC_Data> objects;
+    private Supplier<Map<String, EC_Data>> loader;
+    private final Map<Class<?>, Map<String, ? extends EC_Data>> byClass = new ConcurrentHashMap<>();
 
 
     public EC_Category(String name, String directory) {
@@ -32,7 +37,27 @@ public class EC_Category {
 
     public EC_Category(String name, String directory, String desc, Map<String, EC_Data> objects) {
         this(name, directory, desc);
-        this.objects = objects;
+        this.objects = Collections.unmodifiableMap(new TreeMap<>(objects));
+    }
+
+    public EC_Category(String name, String directory, String desc, Supplier<Map<String, EC_Data>> loader) {
+        this(name, directory, desc);
+        this.loader = loader;
+    }
+
+    private Map<String, EC_Data> objects() {
+        Map<String, EC_Data> result = objects;
+        if (result == null) {
+            synchronized (this) {
+                result = objects;
+                if (result == null) {
+                    result = Collections.unmodifiableMap(loader != null ? new TreeMap<>(loader.get()) : new TreeMap<>());
+                    loader = null;
+                    objects = result;
+                }
+            }
+        }
+        return result;
     }
 
     public String getName() {
@@ -48,21 +73,24 @@ public class EC_Category {
     }
 
     public Map<String, EC_Data> getObjects() {
-        return Collections.unmodifiableMap(objects);
+        return objects();
     }
 
+    @SuppressWarnings("unchecked")
     public <T extends EC_Data> Map<String, T> getObjects(Class<T> cls) {
-        Map<String, T> objs = new TreeMap<>();
-        for (Map.Entry<String, EC_Data> entry : objects.entrySet()) {
-            if (cls.isInstance(entry.getValue())) {
-                objs.put(entry.getKey(), cls.cast(entry.getValue()));
+        return (Map<String, T>) byClass.computeIfAbsent(cls, (c) -> {
+            Map<String, T> objs = new TreeMap<>();
+            for (Map.Entry<String, EC_Data> entry : objects().entrySet()) {
+                if (cls.isInstance(entry.getValue())) {
+                    objs.put(entry.getKey(), cls.cast(entry.getValue()));
+                }
             }
-        }
-        return Collections.unmodifiableMap(objs);
+            return Collections.unmodifiableMap(objs);
+        });
     }
 
     public <T extends EC_Data> T getObject(Class<T> cls, String id) {
-        EC_Data obj = objects.get(id);
+        EC_Data obj = objects().get(id);
         if (cls.isInstance(obj)) {
             return cls.cast(obj);
         } else {
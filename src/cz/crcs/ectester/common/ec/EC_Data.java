@@ -4,12 +4,13 @@ import cz.crcs.ectester.common.util.ByteUtil;
 
 import java.io.*;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.function.Supplier;
 
 /**
  * A list of byte arrays for holding EC data.
  * <p>
- * The data can be read from a byte array via <code>readBytes()</code>, from a CSV via <code>readCSV()</code>.
+ * The data can be read from a byte array via <code>readBytes()</code>, from a CSV via <code>readCSV()</code>,
+ * or from a CSV on first access via <code>readCSVLazily()</code>.
  * The data can be exported to a byte array via <code>flatten()</code> or to a string array via <code>expand()</code>.
  *
  * @author Jan Jancar johny@neuromancer.sk
@@ -18,8 +19,7 @@ public abstract class EC_Data implements Comparable<EC_Data> {
     String id;
     int count;
     byte[][] data;
-
-    private static final Pattern HEX = Pattern.compile("(0x|0X)?[a-fA-F\\d]+");
+    private volatile Supplier<InputStream> source;
 
     EC_Data() {
     }
@@ -53,18 +53,47 @@ public abstract class EC_Data implements Comparable<EC_Data> {
     }
 
     public byte[][] getData() {
+        load();
         return data;
     }
 
     public byte[] getData(int index) {
+        load();
         return data[index];
     }
 
     public boolean hasData() {
+        load();
         return data != null;
     }
 
+    /**
+     * Read the data from the CSV, if it is to be read lazily and was not read yet.
+     * The data is read at most once, even if accessed concurrently.
+     */
+    void load() {
+        if (source == null) {
+            return;
+        }
+        synchronized (this) {
+            Supplier<InputStream> src = source;
+            if (src == null) {
+                return;
+            }
+            try (InputStream in = src.get()) {
+                if (in == null || !parseCSV(in)) {
+                    throw new IllegalStateException("Invalid CSV data. " + id);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                source = null;
+            }
+        }
+    }
+
     public byte[] flatten() {
+        load();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         for (byte[] param : data) {
             byte[] length = new byte[2];
@@ -78,6 +107,7 @@ public abstract class EC_Data implements Comparable<EC_Data> {
     }
 
     public String[] expand() {
+        load();
         List<String> out = new ArrayList<>(count);
         for (byte[] param : data) {
             out.add(ByteUtil.bytesToHex(param, false));
@@ -109,42 +139,96 @@ public abstract class EC_Data implements Comparable<EC_Data> {
         return data;
     }
 
-    private boolean readHex(String[] hex) {
-        if (hex.length != count) {
+    public boolean readCSV(InputStream in) {
+        source = null;
+        return parseCSV(in);
+    }
+
+    /**
+     * Parse comma or semicolon separated hex values, ignoring whitespace, in one pass over the input.
+     */
+    private boolean parseCSV(InputStream in) {
+        char[] csv = new char[4096];
+        int length = 0;
+        try {
+            Reader reader = new InputStreamReader(in);
+            int read;
+            while ((read = reader.read(csv, length, csv.length - length)) != -1) {
+                length += read;
+                if (length == csv.length) {
+                    csv = Arrays.copyOf(csv, csv.length * 2);
+                }
+            }
+        } catch (IOException e) {
             return false;
         }
 
-        for (int i = 0; i < count; ++i) {
-            this.data[i] = parse(hex[i]);
+        byte[][] params = new byte[count][];
+        int n = 0;
+        int w = 0;
+        boolean any = false;
+        for (int i = 0; i <= length; ++i) {
+            char c = i < length ? csv[i] : ',';
+            if (c == ',' || c == ';') {
+                if (i == length && !any) {
+                    break;
+                }
+                if (n == count) {
+                    return false;
+                }
+                byte[] param = parseHex(csv, w);
+                if (param == null) {
+                    return false;
+                }
+                params[n++] = param;
+                w = 0;
+                any = false;
+            } else {
+                any = true;
+                if (c != ' ' && c != '\t' && c != '\n' && c != '\r' && c != '\f' && c != '\u000b') {
+                    /* Compact the field in place, the write position never passes the read position. */
+                    csv[w++] = c;
+                }
+            }
+        }
+
+        if (n == 0 || n != count) {
+            return false;
         }
+        System.arraycopy(params, 0, this.data, 0, count);
         return true;
     }
 
-    public boolean readCSV(InputStream in) {
-        Scanner s = new Scanner(in);
-
-        s.useDelimiter("[,;]");
-        List<String> data = new LinkedList<>();
-        while (s.hasNext()) {
-            String field = s.next();
-            data.add(field.replaceAll("\\s+", ""));
+    /**
+     * @param chars
+     * @param len
+     * @return the parsed hex value in <code>chars[0:len]</code>, optionally prefixed by 0x, or null if it is not valid
+     */
+    private static byte[] parseHex(char[] chars, int len) {
+        int offset = 0;
+        if (len > 2 && chars[0] == '0' && (chars[1] == 'x' || chars[1] == 'X')) {
+            offset = 2;
         }
-
-        if (data.isEmpty()) {
-            return false;
+        if (len - offset == 0) {
+            return null;
         }
-        for (String param : data) {
-            if (!HEX.matcher(param).matches()) {
-                return false;
+        for (int i = offset; i < len; ++i) {
+            if (ByteUtil.hexValue(chars[i]) < 0) {
+                return null;
             }
         }
-        return readHex(data.toArray(new String[data.size()]));
+        byte[] data = ByteUtil.hexToBytes(chars, offset, len - offset);
+        if (data.length < 2) {
+            return pad(data);
+        }
+        return data;
     }
 
     public boolean readBytes(byte[] bytes) {
         if (bytes == null) {
             return false;
         }
+        source = null;
 
         int offset = 0;
         for (int i = 0; i < count; i++) {
@@ -167,6 +251,7 @@ public abstract class EC_Data implements Comparable<EC_Data> {
         if (bytes == null || count != bytes.length) {
             return false;
         }
+        source = null;
 
         for (int i = 0; i < count; ++i) {
             data[i] = new byte[bytes[i].length];
@@ -175,6 +260,15 @@ public abstract class EC_Data implements Comparable<EC_Data> {
         return true;
     }
 
+    /**
+     * Read the data from a CSV only when it is first accessed.
+     *
+     * @param source supplies the stream with the CSV data, which is closed after reading
+     */
+    public void readCSVLazily(Supplier<InputStream> source) {
+        this.source = source;
+    }
+
     public void writeCSV(OutputStream out) throws IOException {
         Writer w = new OutputStreamWriter(out);
         w.write(String.join(",", expand()));
@@ -196,6 +290,8 @@ public abstract class EC_Data implements Comparable<EC_Data> {
 
             if (this.count != other.count)
                 return false;
+            this.load();
+            other.load();
             for (int i = 0; i < this.count; ++i) {
                 if (!Arrays.equals(this.data[i], other.data[i])) {
                     return false;
@@ -212,30 +308,67 @@ public abstract class EC_Data implements Comparable<EC_Data> {
         if (this.id != null) {
             return this.id.hashCode();
         }
+        load();
         return Arrays.deepHashCode(this.data);
     }
 
-    @Override
-    public int compareTo(EC_Data o) {
-        if (o == this) return 0;
-        if (this.id != null && o.id != null) {
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
 
-            int minLength = Math.min(this.id.length(), o.id.length());
-            for (int i = 0; i < minLength; i++) {
-                if (this.id.charAt(i) != o.id.charAt(i)) {
-                    String thisEnd = this.id.substring(i);
-                    String oEnd = o.id.substring(i);
-                    try {
-                        int thisIndex = Integer.parseInt(thisEnd);
-                        int oIndex = Integer.parseInt(oEnd);
-                        return Integer.compare(thisIndex, oIndex);
-                    } catch (NumberFormatException ignored) {
-                        break;
+    /**
+     * Compare ids so that runs of digits are compared by their numeric value, as in <code>b163/9</code>
+     * and <code>b163/10</code>.
+     */
+    private static int compareIds(String a, String b) {
+        int i = 0;
+        int j = 0;
+        while (i < a.length() && j < b.length()) {
+            char ca = a.charAt(i);
+            char cb = b.charAt(j);
+            if (isDigit(ca) && isDigit(cb)) {
+                while (i < a.length() - 1 && a.charAt(i) == '0' && isDigit(a.charAt(i + 1))) {
+                    i++;
+                }
+                while (j < b.length() - 1 && b.charAt(j) == '0' && isDigit(b.charAt(j + 1))) {
+                    j++;
+                }
+                int ea = i;
+                int eb = j;
+                while (ea < a.length() && isDigit(a.charAt(ea))) {
+                    ea++;
+                }
+                while (eb < b.length() && isDigit(b.charAt(eb))) {
+                    eb++;
+                }
+                if (ea - i != eb - j) {
+                    return Integer.compare(ea - i, eb - j);
+                }
+                for (; i < ea; ++i, ++j) {
+                    if (a.charAt(i) != b.charAt(j)) {
+                        return Character.compare(a.charAt(i), b.charAt(j));
                     }
                 }
+            } else {
+                if (ca != cb) {
+                    return Character.compare(ca, cb);
+                }
+                i++;
+                j++;
             }
-            return this.id.compareTo(o.id);
+        }
+        return Integer.compare(a.length() - i, b.length() - j);
+    }
+
+    @Override
+    public int compareTo(EC_Data o) {
+        if (o == this) return 0;
+        if (this.id != null && o.id != null) {
+            int cmp = compareIds(this.id, o.id);
+            return cmp != 0 ? cmp : this.id.compareTo(o.id);
         } else if (this.id == null && o.id == null) {
+            this.load();
+            o.load();
             if (Arrays.equals(this.data, o.data)) {
                 return 0;
             } else {
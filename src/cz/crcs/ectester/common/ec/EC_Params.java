@@ -52,6 +52,7 @@ public class EC_Params extends EC_Data {
         if (Integer.bitCount(param) != 1) {
             return null;
         }
+        load();
         short paramMask = EC_Consts.PARAMETER_FP;
         byte[][] result = null;
         int i = 0;
@@ -116,6 +117,7 @@ public class EC_Params extends EC_Data {
     }
 
     public byte[] flatten(short params) {
+        load();
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         short paramMask = EC_Consts.PARAMETER_FP;
         int i = 0;
@@ -166,6 +168,7 @@ public class EC_Params extends EC_Data {
 
     @Override
     public String[] expand() {
+        load();
         List<String> out = new ArrayList<>();
 
         short paramMask = EC_Consts.PARAMETER_FP;
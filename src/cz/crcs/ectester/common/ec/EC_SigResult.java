@@ -55,6 +55,10 @@ public class EC_SigResult extends EC_Data {
         return verifyKey;
     }
 
+    public String getRawData() {
+        return data;
+    }
+
     public byte[] getSigData() {
         if (data == null) {
             return null;
@@ -0,0 +1,340 @@
+package cz.crcs.ectester.common.output;
+
+import cz.crcs.ectester.common.test.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+
+/**
+ * Writes the results of a test suite as JSON Lines, one compact JSON object per line, flushed as it is written.
+ * <pre>
+ * {"suite":{"name":..,"desc":..,"date":..},"device":{..}}
+ * {"index":0,"type":..,..,"desc":..,"result":{"ok":..,"value":..,"cause":..},"time":{"wall":..,"cpu":..}}
+ * ...
+ * {"summary":{"tests":..,"ok":..,"errors":..}}
+ * </pre>
+ * Compound tests contain their started sub-tests in a <code>tests</code> array, an error ending the suite is
+ * written as the test it happened in with an added <code>error</code> field. The wall-clock and CPU times of the
+ * tests are in nanoseconds, -1 if not measured. The JSON is encoded directly
+ * into the buffered output.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public abstract class BaseJSONLTestWriter implements TestWriter {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Writer output;
+    private boolean[] hasValue = new boolean[16];
+    private int depth = 0;
+    private boolean afterName = false;
+    private char[] digits = new char[20];
+
+    private int tests;
+    private int ok;
+    private int errors;
+
+    public BaseJSONLTestWriter(OutputStream output) {
+        this.output = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8), 1 << 16);
+    }
+
+    @Override
+    public void begin(TestSuite suite) {
+        tests = 0;
+        ok = 0;
+        errors = 0;
+        try {
+            beginObject();
+            name("suite");
+            beginObject();
+            field("name", suite.getName());
+            field("desc", suite.getTextDescription());
+            DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+            field("date", dateFormat.format(new Date()));
+            endObject();
+            name("device");
+            writeDevice(suite);
+            endObject();
+            endLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the type and the other fields of the testable, into the object of its test.
+     */
+    protected abstract void writeTestable(Testable t) throws IOException;
+
+    /**
+     * Write the value describing the device the suite tests, an object or null.
+     */
+    protected abstract void writeDevice(TestSuite suite) throws IOException;
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+        } else if (depth > 0) {
+            if (hasValue[depth - 1]) {
+                output.write(',');
+            }
+            hasValue[depth - 1] = true;
+        }
+    }
+
+    private void open(char c) throws IOException {
+        separate();
+        output.write(c);
+        if (depth == hasValue.length) {
+            hasValue = Arrays.copyOf(hasValue, depth * 2);
+        }
+        hasValue[depth++] = false;
+    }
+
+    protected void beginObject() throws IOException {
+        open('{');
+    }
+
+    protected void endObject() throws IOException {
+        depth--;
+        output.write('}');
+    }
+
+    protected void beginArray() throws IOException {
+        open('[');
+    }
+
+    protected void endArray() throws IOException {
+        depth--;
+        output.write(']');
+    }
+
+    protected void name(String name) throws IOException {
+        separate();
+        string(name);
+        output.write(':');
+        afterName = true;
+    }
+
+    protected void nullValue() throws IOException {
+        separate();
+        output.write("null");
+    }
+
+    protected void value(String value) throws IOException {
+        if (value == null) {
+            nullValue();
+        } else {
+            separate();
+            string(value);
+        }
+    }
+
+    protected void value(long value) throws IOException {
+        separate();
+        if (value == Long.MIN_VALUE) {
+            output.write(Long.toString(value));
+            return;
+        }
+        if (value < 0) {
+            output.write('-');
+            value = -value;
+        }
+        int i = digits.length;
+        do {
+            digits[--i] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        output.write(digits, i, digits.length - i);
+    }
+
+    protected void value(double value) throws IOException {
+        separate();
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            output.write("null");
+        } else {
+            output.write(Double.toString(value));
+        }
+    }
+
+    protected void value(boolean value) throws IOException {
+        separate();
+        output.write(value ? "true" : "false");
+    }
+
+    protected void field(String name, String value) throws IOException {
+        name(name);
+        value(value);
+    }
+
+    protected void field(String name, long value) throws IOException {
+        name(name);
+        value(value);
+    }
+
+    protected void field(String name, double value) throws IOException {
+        name(name);
+        value(value);
+    }
+
+    protected void field(String name, boolean value) throws IOException {
+        name(name);
+        value(value);
+    }
+
+    private void string(String s) throws IOException {
+        output.write('"');
+        int start = 0;
+        int len = s.length();
+        for (int i = 0; i < len; ++i) {
+            char c = s.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            output.write(s, start, i - start);
+            start = i + 1;
+            switch (c) {
+                case '"':
+                    output.write("\\\"");
+                    break;
+                case '\\':
+                    output.write("\\\\");
+                    break;
+                case '\n':
+                    output.write("\\n");
+                    break;
+                case '\r':
+                    output.write("\\r");
+                    break;
+                case '\t':
+                    output.write("\\t");
+                    break;
+                default:
+                    output.write("\\u00");
+                    output.write(HEX[c >> 4]);
+                    output.write(HEX[c & 0xf]);
+            }
+        }
+        output.write(s, start, len - start);
+        output.write('"');
+    }
+
+    private void endLine() throws IOException {
+        output.write('\n');
+        output.flush();
+        depth = 0;
+        afterName = false;
+    }
+
+    private String causeString(Object cause) {
+        if (cause == null) {
+            return null;
+        } else if (cause instanceof Throwable) {
+            StringBuilder sb = new StringBuilder();
+            for (Throwable t = (Throwable) cause; t != null; t = t.getCause()) {
+                sb.append(t.toString());
+                sb.append(System.lineSeparator());
+            }
+            return sb.toString();
+        } else {
+            return cause.toString();
+        }
+    }
+
+    private void writeResult(Result result) throws IOException {
+        name("result");
+        if (result == null) {
+            nullValue();
+            return;
+        }
+        beginObject();
+        field("ok", result.ok());
+        field("value", result.getValue().name());
+        field("cause", causeString(result.getCause()));
+        endObject();
+    }
+
+    private void writeTime(Test t) throws IOException {
+        name("time");
+        beginObject();
+        field("wall", t.getDuration());
+        field("cpu", t.getCpuTime());
+        endObject();
+    }
+
+    private void writeTestFields(Test t, int index) throws IOException {
+        if (index != -1) {
+            field("index", index);
+        }
+        if (t instanceof CompoundTest) {
+            CompoundTest test = (CompoundTest) t;
+            field("type", "compound");
+            name("tests");
+            beginArray();
+            for (Test innerTest : test.getStartedTests()) {
+                beginObject();
+                writeTestFields(innerTest, -1);
+                endObject();
+            }
+            endArray();
+        } else {
+            SimpleTest<? extends BaseTestable> test = (SimpleTest<? extends BaseTestable>) t;
+            writeTestable(test.getTestable());
+        }
+        field("desc", t.getDescription());
+        writeResult(t.getResult());
+        writeTime(t);
+    }
+
+    @Override
+    public void outputTest(Test t, int index) {
+        if (!t.hasRun())
+            return;
+        tests++;
+        if (t.ok()) {
+            ok++;
+        }
+        try {
+            beginObject();
+            writeTestFields(t, index);
+            endObject();
+            endLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void outputError(Test t, Throwable cause, int index) {
+        errors++;
+        try {
+            beginObject();
+            writeTestFields(t, index);
+            field("error", causeString(cause));
+            endObject();
+            endLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void end() {
+        try {
+            beginObject();
+            name("summary");
+            beginObject();
+            field("tests", tests);
+            field("ok", ok);
+            field("errors", errors);
+            endObject();
+            endObject();
+            endLine();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
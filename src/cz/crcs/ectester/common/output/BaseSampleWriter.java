@@ -0,0 +1,202 @@
+package cz.crcs.ectester.common.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * An abstract basis of a writer of measured samples. Rows of raw column values (<code>long</code>, <code>int</code>,
+ * <code>byte[]</code>, <code>String</code>, <code>boolean</code>) are put into a bounded ring buffer by the measuring
+ * thread, a background thread then formats them and flushes them to the output in batches, so that formatting and I/O
+ * do not happen inside the measuring loop. The queued rows are written out on {@link #close()}, or by a shutdown hook
+ * if the JVM exits before that, for example on an interrupt of an unbounded measurement.
+ * Requires the implementation of:
+ * <code>void writeHeader(String[] columns, Object[] first)</code>
+ * <code>void writeRow(Object[] row)</code>
+ * <code>void flushBatch()</code>
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public abstract class BaseSampleWriter implements Closeable {
+    private static final Object[] END = new Object[0];
+
+    protected OutputStream output;
+    protected String[] columns;
+    private BlockingQueue<Object[]> ring;
+    private int batchSize;
+    private Thread thread;
+    private Thread hook;
+    private volatile IOException failure;
+    private boolean headerWritten = false;
+    private boolean started = false;
+    private boolean closed = false;
+
+    private static final int DEFAULT_CAPACITY = 16384;
+    private static final int DEFAULT_BATCH = 1024;
+
+    public BaseSampleWriter(OutputStream output, String... columns) {
+        this(output, DEFAULT_CAPACITY, DEFAULT_BATCH, columns);
+    }
+
+    public BaseSampleWriter(OutputStream output, int capacity, int batchSize, String... columns) {
+        this.output = output;
+        this.columns = columns;
+        this.ring = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.thread = new Thread(this::drain, "sample-writer");
+        this.thread.setDaemon(true);
+        this.hook = new Thread(this::closeQuietly, "sample-writer-flush");
+    }
+
+    /**
+     * Create a sample writer for the given output format.
+     *
+     * @param format   one of <code>csv</code>, <code>bin</code>
+     * @param output   stream to write into
+     * @param metadata metadata to store in the header, if the format supports it
+     * @param columns  names of the columns
+     * @return the sample writer or null if the format is unknown
+     */
+    public static BaseSampleWriter create(String format, OutputStream output, Map<String, String> metadata, String... columns) {
+        switch (format.toLowerCase()) {
+            case "csv":
+                return new CSVSampleWriter(output, columns);
+            case "bin":
+                return new BinarySampleWriter(output, metadata, columns);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Queue a row for output, blocks if the ring buffer is full.
+     * The row and its contents must not be modified by the caller afterwards.
+     *
+     * @param row column values of the row
+     * @throws IOException if the background thread failed to write previous rows
+     */
+    public void write(Object... row) throws IOException {
+        check();
+        if (closed) {
+            throw new IOException("Sample writer closed.");
+        }
+        start();
+        try {
+            ring.put(row);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Write out all queued rows and stop the background thread. Does not close the underlying output stream.
+     *
+     * @throws IOException if the background thread failed to write some rows
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        start();
+        try {
+            if (failure == null) {
+                ring.put(END);
+            }
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+        if (Thread.currentThread() != hook) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException ignored) {
+                // The JVM is already shutting down, the hook waits for this close.
+            }
+        }
+        check();
+    }
+
+    private void closeQuietly() {
+        try {
+            close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private synchronized void start() {
+        if (!started) {
+            Runtime.getRuntime().addShutdownHook(hook);
+            thread.start();
+            started = true;
+        }
+    }
+
+    private void check() throws IOException {
+        IOException e = failure;
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private void drain() {
+        List<Object[]> batch = new ArrayList<>(batchSize);
+        try {
+            while (true) {
+                batch.add(ring.take());
+                ring.drainTo(batch, batchSize - 1);
+                for (Object[] row : batch) {
+                    if (!headerWritten) {
+                        writeHeader(columns, row == END ? null : row);
+                        headerWritten = true;
+                    }
+                    if (row == END) {
+                        flushBatch();
+                        return;
+                    }
+                    writeRow(row);
+                }
+                batch.clear();
+                flushBatch();
+            }
+        } catch (IOException e) {
+            failure = e;
+            ring.clear();
+        } catch (InterruptedException e) {
+            failure = new InterruptedIOException();
+        }
+    }
+
+    /**
+     * Write the header into the output, called on the background thread before the first row.
+     *
+     * @param columns names of the columns
+     * @param first   the first row, or null if there are no rows
+     * @throws IOException
+     */
+    protected abstract void writeHeader(String[] columns, Object[] first) throws IOException;
+
+    /**
+     * Format a row into the output, called on the background thread.
+     *
+     * @param row column values of the row
+     * @throws IOException
+     */
+    protected abstract void writeRow(Object[] row) throws IOException;
+
+    /**
+     * Flush the output after a batch of rows was written, called on the background thread.
+     *
+     * @throws IOException
+     */
+    protected abstract void flushBatch() throws IOException;
+}
@@ -49,6 +49,16 @@ public abstract class BaseTextTestWriter implements TestWriter {
      */
     protected abstract String deviceString(TestSuite suite);
 
+    private String durationString(long duration) {
+        if (duration < 0) {
+            return String.format("%9s", "");
+        } else if (duration < 1000000000L) {
+            return String.format("%6.1f ms", duration / 1e6);
+        } else {
+            return String.format("%7.2f s", duration / 1e9);
+        }
+    }
+
     private String testString(Test t, String prefix, int index) {
         boolean compound = t instanceof CompoundTest;
 
@@ -56,13 +66,14 @@ public abstract class BaseTextTestWriter implements TestWriter {
 
         String line = "";
         if (prefix.equals("")) {
-            char[] charLine = new char[BASE_WIDTH + 24];
-            new String(new char[BASE_WIDTH + 24]).replace("\0", "━").getChars(0, charLine.length - 1, charLine, 0);
+            char[] charLine = new char[BASE_WIDTH + 36];
+            new String(new char[BASE_WIDTH + 36]).replace("\0", "━").getChars(0, charLine.length - 1, charLine, 0);
             charLine[0] = '■';
             charLine[4] = '┳';
             charLine[BASE_WIDTH + 1] = '┳';
             charLine[BASE_WIDTH + 13] = '┳';
-            charLine[BASE_WIDTH + 23] = '┓';
+            charLine[BASE_WIDTH + 25] = '┳';
+            charLine[BASE_WIDTH + 35] = '┓';
             line = new String(charLine) + System.lineSeparator();
         }
 
@@ -84,6 +95,8 @@ public abstract class BaseTextTestWriter implements TestWriter {
         }
         out.append(Colors.colored(String.format("%-9s", result.getValue().name()), Colors.Attribute.BOLD, valueColor));
         out.append(" ┃ ");
+        out.append(durationString(t.getDuration()));
+        out.append(" ┃ ");
 
         if (compound) {
             CompoundTest test = (CompoundTest) t;
@@ -1,59 +1,195 @@
 package cz.crcs.ectester.common.output;
 
 import cz.crcs.ectester.common.test.*;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import java.io.OutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
 import java.util.Date;
+import java.util.Deque;
 
 /**
+ * Streams the results of a test suite as an indented XML document. Every test is written and flushed as soon as
+ * it is output, so memory use does not grow with the number of tests and a partial document remains if the run
+ * is interrupted.
+ *
  * @author Jan Jancar johny@neuromancer.sk
  */
 public abstract class BaseXMLTestWriter implements TestWriter {
-    private OutputStream output;
-    private DocumentBuilder db;
-    protected Document doc;
-    private Node root;
-    private Node tests;
+    private static final String INDENT = "  ";
+    /**
+     * A private use character that marks the character after it to be written as a character reference,
+     * see {@link #mark(String, boolean)}.
+     */
+    private static final char MARK = '\uE000';
+
+    private Writer output;
+    private XMLStreamWriter writer;
+    private Deque<Boolean> children = new ArrayDeque<>();
 
-    public BaseXMLTestWriter(OutputStream output) throws ParserConfigurationException {
-        this.output = output;
-        this.db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+    public BaseXMLTestWriter(OutputStream output) throws XMLStreamException {
+        this.output = new CharacterReferences(new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8)));
+        this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(this.output);
     }
 
     @Override
     public void begin(TestSuite suite) {
-        doc = db.newDocument();
-        Element rootElem = doc.createElement("testSuite");
-        rootElem.setAttribute("name", suite.getName());
-        rootElem.setAttribute("desc", suite.getTextDescription());
-        DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
-        Date date = new Date();
-        rootElem.setAttribute("date", dateFormat.format(date));
+        try {
+            writer.writeStartDocument("UTF-8", "1.0");
+            startElement("testSuite");
+            attribute("name", suite.getName());
+            attribute("desc", suite.getTextDescription());
+            DateFormat dateFormat = new SimpleDateFormat("yyyy.MM.dd HH:mm:ss");
+            Date date = new Date();
+            attribute("date", dateFormat.format(date));
+
+            writeDevice(suite);
+            startElement("tests");
+            flush();
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the type attribute and contents of the <code>test</code> element of the testable.
+     */
+    protected abstract void writeTestable(Testable t) throws XMLStreamException;
+
+    /**
+     * Write the <code>device</code> element describing what the suite tests.
+     */
+    protected abstract void writeDevice(TestSuite suite) throws XMLStreamException;
+
+    protected void startElement(String name) throws XMLStreamException {
+        if (!children.isEmpty()) {
+            children.pop();
+            children.push(true);
+        }
+        newline();
+        writer.writeStartElement(name);
+        children.push(false);
+    }
+
+    protected void endElement() throws XMLStreamException {
+        if (children.pop()) {
+            newline();
+        }
+        writer.writeEndElement();
+    }
 
-        root = rootElem;
-        doc.appendChild(root);
-        root.appendChild(deviceElement(suite));
-        tests = doc.createElement("tests");
-        root.appendChild(tests);
+    protected void attribute(String name, String value) throws XMLStreamException {
+        writer.writeAttribute(name, mark(value, true));
     }
 
-    protected abstract Element testableElement(Testable t);
+    protected void text(String text) throws XMLStreamException {
+        if (text != null) {
+            writer.writeCharacters(mark(text, false));
+        }
+    }
+
+    /**
+     * The stream writer keeps line breaks and tabs in attribute values, and carriage returns in text, as they are,
+     * which a parser then normalizes, and it can not write a character reference. Mark them, so that
+     * {@link CharacterReferences} writes them as character references under the stream writer.
+     */
+    private static String mark(String value, boolean attribute) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c == MARK) {
+                sb.append(MARK).append(MARK);
+            } else if (c == '\r') {
+                sb.append(MARK).append('r');
+            } else if (attribute && c == '\n') {
+                sb.append(MARK).append('n');
+            } else if (attribute && c == '\t') {
+                sb.append(MARK).append('t');
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
 
-    protected abstract Element deviceElement(TestSuite suite);
+    /**
+     * Write an element with only text content.
+     */
+    protected void element(String name, String text) throws XMLStreamException {
+        startElement(name);
+        text(text);
+        endElement();
+    }
+
+    private void newline() throws XMLStreamException {
+        writer.writeCharacters(System.lineSeparator());
+        for (int i = 0; i < children.size(); ++i) {
+            writer.writeCharacters(INDENT);
+        }
+    }
+
+    /**
+     * Writes the characters marked by {@link #mark(String, boolean)} as character references.
+     */
+    private static class CharacterReferences extends FilterWriter {
+        private boolean marked;
+
+        private CharacterReferences(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            if (marked) {
+                marked = false;
+                switch (c) {
+                    case 'n':
+                        out.write("&#10;");
+                        break;
+                    case 'r':
+                        out.write("&#13;");
+                        break;
+                    case 't':
+                        out.write("&#9;");
+                        break;
+                    default:
+                        out.write(c);
+                }
+            } else if (c == MARK) {
+                marked = true;
+            } else {
+                out.write(c);
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            for (int i = off; i < off + len; ++i) {
+                write(cbuf[i]);
+            }
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            for (int i = off; i < off + len; ++i) {
+                write(str.charAt(i));
+            }
+        }
+    }
+
+    private void flush() throws XMLStreamException {
+        writer.flush();
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new XMLStreamException(e);
+        }
+    }
 
     private String causeString(Object cause) {
         if (cause == null) {
@@ -70,74 +206,75 @@ public abstract class BaseXMLTestWriter implements TestWriter {
         }
     }
 
-    private Element resultElement(Result result) {
-        Element resultElem = doc.createElement("result");
-
-        Element ok = doc.createElement("ok");
-        ok.setTextContent(String.valueOf(result.ok()));
-        Element value = doc.createElement("value");
-        value.setTextContent(result.getValue().name());
-        Element cause = doc.createElement("cause");
-        cause.setTextContent(causeString(result.getCause()));
-
-        resultElem.appendChild(ok);
-        resultElem.appendChild(value);
-        resultElem.appendChild(cause);
+    private void writeResult(Result result) throws XMLStreamException {
+        startElement("result");
+        element("ok", String.valueOf(result.ok()));
+        element("value", result.getValue().name());
+        element("cause", causeString(result.getCause()));
+        endElement();
+    }
 
-        return resultElem;
+    private void writeTime(Test t) throws XMLStreamException {
+        startElement("time");
+        element("wall", String.valueOf(t.getDuration()));
+        element("cpu", String.valueOf(t.getCpuTime()));
+        endElement();
     }
 
-    private Element testElement(Test t, int index) {
-        Element testElem;
+    private void writeTest(Test t, int index) throws XMLStreamException {
+        startElement("test");
+        if (index != -1) {
+            attribute("index", String.valueOf(index));
+        }
         if (t instanceof CompoundTest) {
             CompoundTest test = (CompoundTest) t;
-            testElem = doc.createElement("test");
-            testElem.setAttribute("type", "compound");
+            attribute("type", "compound");
             for (Test innerTest : test.getStartedTests()) {
-                testElem.appendChild(testElement(innerTest, -1));
+                writeTest(innerTest, -1);
             }
         } else {
             SimpleTest<? extends BaseTestable> test = (SimpleTest<? extends BaseTestable>) t;
-            testElem = testableElement(test.getTestable());
-        }
-
-        Element description = doc.createElement("desc");
-        description.setTextContent(t.getDescription());
-        testElem.appendChild(description);
-
-        Element result = resultElement(t.getResult());
-        testElem.appendChild(result);
-
-        if (index != -1) {
-            testElem.setAttribute("index", String.valueOf(index));
+            writeTestable(test.getTestable());
         }
 
-        return testElem;
+        element("desc", t.getDescription());
+        writeResult(t.getResult());
+        writeTime(t);
+        endElement();
     }
 
     @Override
     public void outputTest(Test t, int index) {
         if (!t.hasRun())
             return;
-        tests.appendChild(testElement(t, index));
+        try {
+            writeTest(t, index);
+            flush();
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void outputError(Test t, Throwable cause, int index) {
-        tests.appendChild(testElement(t, index));
+        try {
+            writeTest(t, index);
+            flush();
+        } catch (XMLStreamException e) {
+            e.printStackTrace();
+        }
     }
 
     @Override
     public void end() {
         try {
-            DOMSource domSource = new DOMSource(doc);
-            StreamResult result = new StreamResult(output);
-            TransformerFactory tf = TransformerFactory.newInstance();
-            Transformer transformer = tf.newTransformer();
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-            transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
-            transformer.transform(domSource, result);
-        } catch (TransformerException e) {
+            while (!children.isEmpty()) {
+                endElement();
+            }
+            writer.writeCharacters(System.lineSeparator());
+            writer.writeEndDocument();
+            flush();
+        } catch (XMLStreamException e) {
             e.printStackTrace();
         }
     }
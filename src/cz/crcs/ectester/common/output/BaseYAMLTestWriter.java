@@ -10,24 +10,32 @@ import java.text.SimpleDateFormat;
 import java.util.*;
 
 /**
+ * Writes the results of a test suite as a YAML document, incrementally. The header of the <code>testRun</code>
+ * mapping is written in <code>begin</code>, every test is then written as an item of its <code>tests</code>
+ * sequence as soon as it is output, so that the document loads the same as if it was dumped at once.
+ *
  * @author Jan Jancar johny@neuromancer.sk
  */
 public abstract class BaseYAMLTestWriter implements TestWriter {
+    private static final String INDENT = "  ";
+
     private PrintStream output;
-    private Map<String, Object> testRun;
-    private Map<String, String> testSuite;
-    protected List<Object> tests;
+    private Yaml yaml;
+    private int tests;
 
     public BaseYAMLTestWriter(PrintStream output) {
         this.output = output;
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        options.setPrettyFlow(true);
+        this.yaml = new Yaml(options);
     }
 
     @Override
     public void begin(TestSuite suite) {
         output.println("---");
-        testRun = new LinkedHashMap<>();
-        testSuite = new LinkedHashMap<>();
-        tests = new LinkedList<>();
+        Map<String, Object> testRun = new LinkedHashMap<>();
+        Map<String, String> testSuite = new LinkedHashMap<>();
         testSuite.put("name", suite.getName());
         testSuite.put("desc", suite.getTextDescription());
 
@@ -36,7 +44,12 @@ public abstract class BaseYAMLTestWriter implements TestWriter {
         testRun.put("date", dateFormat.format(date));
         testRun.put("suite", testSuite);
         testRun.put("device", deviceObject(suite));
-        testRun.put("tests", tests);
+        tests = 0;
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("testRun", testRun);
+        output.print(yaml.dump(result));
+        output.flush();
     }
 
     abstract protected Map<String, Object> testableObject(Testable t);
@@ -66,6 +79,13 @@ public abstract class BaseYAMLTestWriter implements TestWriter {
         return resultObject;
     }
 
+    private Map<String, Object> timeObject(Test t) {
+        Map<String, Object> timeObject = new LinkedHashMap<>();
+        timeObject.put("wall", t.getDuration());
+        timeObject.put("cpu", t.getCpuTime());
+        return timeObject;
+    }
+
     private Map<String, Object> testObject(Test t, int index) {
         Map<String, Object> testObj;
         if (t instanceof CompoundTest) {
@@ -80,10 +100,14 @@ public abstract class BaseYAMLTestWriter implements TestWriter {
         } else {
             SimpleTest<? extends BaseTestable> test = (SimpleTest<? extends BaseTestable>) t;
             testObj = testableObject(test.getTestable());
+            if (testObj == null) {
+                testObj = new HashMap<>();
+            }
         }
 
         testObj.put("desc", t.getDescription());
         testObj.put("result", resultObject(t.getResult()));
+        testObj.put("time", timeObject(t));
         if (index != -1) {
             testObj.put("index", index);
         }
@@ -91,30 +115,43 @@ public abstract class BaseYAMLTestWriter implements TestWriter {
         return testObj;
     }
 
+    /**
+     * Write the test as an item of the <code>tests</code> sequence, indented under <code>testRun</code>.
+     */
+    private void writeTest(Map<String, Object> test) {
+        if (tests++ == 0) {
+            output.println(INDENT + "tests:");
+        }
+        String item = yaml.dump(Collections.singletonList(test));
+        StringBuilder sb = new StringBuilder(item.length() + 256);
+        int start = 0;
+        int end;
+        while ((end = item.indexOf('\n', start)) != -1) {
+            sb.append(INDENT).append(item, start, end + 1);
+            start = end + 1;
+        }
+        output.print(sb);
+        output.flush();
+    }
+
     @Override
     public void outputTest(Test t, int index) {
         if (!t.hasRun())
             return;
-        tests.add(testObject(t, index));
+        writeTest(testObject(t, index));
     }
 
     @Override
     public void outputError(Test t, Throwable cause, int index) {
-        tests.add(testObject(t, index));
+        writeTest(testObject(t, index));
     }
 
     @Override
     public void end() {
-        DumperOptions options = new DumperOptions();
-        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
-        options.setPrettyFlow(true);
-        Yaml yaml = new Yaml(options);
-
-        Map<String, Object> result = new LinkedHashMap<>();
-        result.put("testRun", testRun);
-        String out = yaml.dump(result);
-
-        output.println(out);
+        if (tests == 0) {
+            output.println(INDENT + "tests: []");
+        }
+        output.println();
         output.println("---");
     }
 }
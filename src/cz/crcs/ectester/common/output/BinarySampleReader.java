@@ -0,0 +1,160 @@
+package cz.crcs.ectester.common.output;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reads samples written by the {@link BinarySampleWriter}, and converts them back to CSV.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class BinarySampleReader implements Closeable {
+    private DataInputStream input;
+    private Map<String, String> metadata = new LinkedHashMap<>();
+    private String[] columns;
+    private byte[] types;
+
+    private int rows;
+    private int row;
+    private long[][] longs;
+    private byte[][][] blobs;
+
+    public BinarySampleReader(InputStream input) throws IOException {
+        this.input = new DataInputStream(new BufferedInputStream(input, 1 << 16));
+        readHeader();
+    }
+
+    private void readHeader() throws IOException {
+        byte[] magic = new byte[BinarySampleWriter.MAGIC.length];
+        input.readFully(magic);
+        if (!Arrays.equals(magic, BinarySampleWriter.MAGIC)) {
+            throw new IOException("Not an ECTester binary sample file.");
+        }
+        int version = input.readUnsignedByte();
+        if (version != BinarySampleWriter.VERSION) {
+            throw new IOException("Unsupported binary sample file version: " + version);
+        }
+        int entries = readInt();
+        for (int i = 0; i < entries; ++i) {
+            String key = readString();
+            metadata.put(key, readString());
+        }
+        int count = readInt();
+        columns = new String[count];
+        types = new byte[count];
+        for (int i = 0; i < count; ++i) {
+            types[i] = input.readByte();
+            if (types[i] != BinarySampleWriter.TYPE_LONG && types[i] != BinarySampleWriter.TYPE_BYTES) {
+                throw new IOException("Unknown column type: " + types[i]);
+            }
+            columns[i] = readString();
+        }
+        longs = new long[count][];
+        blobs = new byte[count][][];
+    }
+
+    private boolean readBlock() throws IOException {
+        byte[] first = new byte[4];
+        int read = input.read(first);
+        if (read <= 0) {
+            return false;
+        }
+        input.readFully(first, read, 4 - read);
+        int n = ByteBuffer.wrap(first).order(ByteOrder.LITTLE_ENDIAN).getInt();
+        for (int i = 0; i < columns.length; ++i) {
+            if (types[i] == BinarySampleWriter.TYPE_LONG) {
+                longs[i] = new long[n];
+                readBuffer(n * 8).asLongBuffer().get(longs[i]);
+            } else {
+                int[] lengths = new int[n];
+                readBuffer(n * 4).asIntBuffer().get(lengths);
+                blobs[i] = new byte[n][];
+                for (int j = 0; j < n; ++j) {
+                    blobs[i][j] = new byte[lengths[j]];
+                    input.readFully(blobs[i][j]);
+                }
+            }
+        }
+        rows = n;
+        row = 0;
+        return true;
+    }
+
+    /**
+     * @return the next row, with a Long for every LONG column and a byte[] for every BYTES column,
+     * or null at the end of the file
+     * @throws IOException
+     */
+    public Object[] readRow() throws IOException {
+        while (row == rows) {
+            if (!readBlock()) {
+                return null;
+            }
+        }
+        Object[] result = new Object[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            if (types[i] == BinarySampleWriter.TYPE_LONG) {
+                result[i] = longs[i][row];
+            } else {
+                result[i] = blobs[i][row];
+            }
+        }
+        row++;
+        return result;
+    }
+
+    public Map<String, String> getMetadata() {
+        return Collections.unmodifiableMap(metadata);
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public byte[] getTypes() {
+        return types.clone();
+    }
+
+    /**
+     * Convert the rest of the file into the CSV format written by the {@link CSVSampleWriter}.
+     *
+     * @param output stream to write the CSV into, it is not closed
+     * @throws IOException
+     */
+    public void toCSV(OutputStream output) throws IOException {
+        CSVSampleWriter writer = new CSVSampleWriter(output, columns);
+        Object[] next;
+        while ((next = readRow()) != null) {
+            writer.write(next);
+        }
+        writer.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    private ByteBuffer readBuffer(int length) throws IOException {
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private int readInt() throws IOException {
+        return readBuffer(4).getInt();
+    }
+
+    private String readString() throws IOException {
+        int length = readInt();
+        byte[] data = new byte[length];
+        input.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
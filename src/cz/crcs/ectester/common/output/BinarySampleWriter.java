@@ -0,0 +1,165 @@
+package cz.crcs.ectester.common.output;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Writes samples in a compact, self-describing, columnar binary format. All numbers are little-endian.
+ * <pre>
+ * header: "ECTB" | u8 version | i32 metadata count | (string key, string value)* | i32 column count | (u8 type, string name)*
+ * block:  i32 row count n | for each column: n * i64 (LONG) or n * i32 lengths followed by the data (BYTES)
+ * string: i32 length | UTF-8 bytes
+ * </pre>
+ * The header is followed by blocks until the end of the file. Integers and booleans are stored in LONG columns,
+ * byte arrays and strings in BYTES columns.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class BinarySampleWriter extends BaseSampleWriter {
+    public static final byte[] MAGIC = "ECTB".getBytes(StandardCharsets.US_ASCII);
+    public static final byte VERSION = 1;
+    public static final byte TYPE_LONG = 0;
+    public static final byte TYPE_BYTES = 1;
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private Map<String, String> metadata;
+    private byte[] types;
+    private int rows;
+    private int capacity = INITIAL_CAPACITY;
+    private long[][] longs;
+    private int[][] lengths;
+    private ByteArrayOutputStream[] blobs;
+
+    public BinarySampleWriter(OutputStream output, Map<String, String> metadata, String... columns) {
+        super(output, columns);
+        this.metadata = metadata != null ? metadata : Collections.emptyMap();
+    }
+
+    @Override
+    protected void writeHeader(String[] columns, Object[] first) throws IOException {
+        types = new byte[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            Object value = first != null ? first[i] : null;
+            types[i] = (value instanceof byte[] || value instanceof String) ? TYPE_BYTES : TYPE_LONG;
+        }
+        longs = new long[columns.length][];
+        lengths = new int[columns.length][];
+        blobs = new ByteArrayOutputStream[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            if (types[i] == TYPE_LONG) {
+                longs[i] = new long[capacity];
+            } else {
+                lengths[i] = new int[capacity];
+                blobs[i] = new ByteArrayOutputStream();
+            }
+        }
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream();
+        header.write(MAGIC);
+        header.write(VERSION);
+        writeInt(header, metadata.size());
+        for (Map.Entry<String, String> entry : metadata.entrySet()) {
+            writeString(header, entry.getKey());
+            writeString(header, entry.getValue());
+        }
+        writeInt(header, columns.length);
+        for (int i = 0; i < columns.length; ++i) {
+            header.write(types[i]);
+            writeString(header, columns[i]);
+        }
+        header.writeTo(output);
+    }
+
+    @Override
+    protected void writeRow(Object[] row) throws IOException {
+        if (row.length != types.length) {
+            throw new IOException("Row has " + row.length + " columns, expected " + types.length + ".");
+        }
+        if (rows == capacity) {
+            grow();
+        }
+        for (int i = 0; i < row.length; ++i) {
+            Object value = row[i];
+            if (types[i] == TYPE_LONG) {
+                long v;
+                if (value instanceof Number) {
+                    v = ((Number) value).longValue();
+                } else if (value instanceof Boolean) {
+                    v = (Boolean) value ? 1 : 0;
+                } else {
+                    throw new IOException("Column " + columns[i] + " expects a number.");
+                }
+                longs[i][rows] = v;
+            } else {
+                byte[] v;
+                if (value instanceof byte[]) {
+                    v = (byte[]) value;
+                } else if (value instanceof String) {
+                    v = ((String) value).getBytes(StandardCharsets.UTF_8);
+                } else {
+                    throw new IOException("Column " + columns[i] + " expects bytes.");
+                }
+                lengths[i][rows] = v.length;
+                blobs[i].write(v);
+            }
+        }
+        rows++;
+    }
+
+    @Override
+    protected void flushBatch() throws IOException {
+        if (rows != 0) {
+            int size = 4;
+            for (int i = 0; i < types.length; ++i) {
+                size += types[i] == TYPE_LONG ? rows * 8 : rows * 4 + blobs[i].size();
+            }
+            ByteBuffer block = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            block.putInt(rows);
+            for (int i = 0; i < types.length; ++i) {
+                if (types[i] == TYPE_LONG) {
+                    block.asLongBuffer().put(longs[i], 0, rows);
+                    block.position(block.position() + rows * 8);
+                } else {
+                    block.asIntBuffer().put(lengths[i], 0, rows);
+                    block.position(block.position() + rows * 4);
+                    block.put(blobs[i].toByteArray());
+                    blobs[i].reset();
+                }
+            }
+            output.write(block.array());
+            rows = 0;
+        }
+        output.flush();
+    }
+
+    private void grow() {
+        capacity *= 2;
+        for (int i = 0; i < types.length; ++i) {
+            if (types[i] == TYPE_LONG) {
+                longs[i] = Arrays.copyOf(longs[i], capacity);
+            } else {
+                lengths[i] = Arrays.copyOf(lengths[i], capacity);
+            }
+        }
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(value);
+        out.write(value >>> 8);
+        out.write(value >>> 16);
+        out.write(value >>> 24);
+    }
+
+    private static void writeString(OutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(out, bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,51 @@
+package cz.crcs.ectester.common.output;
+
+import cz.crcs.ectester.common.util.ByteUtil;
+
+import java.io.*;
+
+/**
+ * Writes samples as lines of semicolon separated values. Byte arrays are output as hex strings,
+ * booleans as <code>1</code>/<code>0</code>.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class CSVSampleWriter extends BaseSampleWriter {
+    private Writer writer;
+    private StringBuilder line = new StringBuilder();
+
+    public CSVSampleWriter(OutputStream output, String... columns) {
+        super(output, columns);
+        this.writer = new BufferedWriter(new OutputStreamWriter(output), 1 << 16);
+    }
+
+    @Override
+    protected void writeHeader(String[] columns, Object[] first) throws IOException {
+        writeRow(columns);
+    }
+
+    @Override
+    protected void writeRow(Object[] row) throws IOException {
+        line.setLength(0);
+        for (int i = 0; i < row.length; ++i) {
+            if (i != 0) {
+                line.append(';');
+            }
+            Object value = row[i];
+            if (value instanceof byte[]) {
+                ByteUtil.appendHex(line, (byte[]) value);
+            } else if (value instanceof Boolean) {
+                line.append((Boolean) value ? '1' : '0');
+            } else if (value != null) {
+                line.append(value);
+            }
+        }
+        line.append(System.lineSeparator());
+        writer.append(line);
+    }
+
+    @Override
+    protected void flushBatch() throws IOException {
+        writer.flush();
+    }
+}
@@ -0,0 +1,254 @@
+package cz.crcs.ectester.common.output;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Streams the numeric columns of a CSV or binary sample file (as written by {@link CSVSampleWriter} and
+ * {@link BinarySampleWriter}) through memory-mapped windows of the file, without loading it into the heap.
+ * In a CSV file, the numeric columns are the timing columns and the verification result, in a binary file
+ * all integer columns except the index.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class MappedSampleReader implements Closeable {
+    private static final int WINDOW = 1 << 28;
+
+    private FileChannel channel;
+    private long size;
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    private boolean binary;
+    private Map<String, String> metadata = new LinkedHashMap<>();
+    private String[] columns;
+    private byte[] types;
+    private boolean[] numeric;
+    private long dataStart;
+
+    public MappedSampleReader(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.size = channel.size();
+        byte[] magic = BinarySampleWriter.MAGIC;
+        if (size >= magic.length) {
+            byte[] start = new byte[magic.length];
+            at(0, magic.length).get(start);
+            binary = Arrays.equals(start, magic);
+        }
+        if (binary) {
+            readBinaryHeader();
+        } else {
+            readCSVHeader();
+        }
+    }
+
+    /**
+     * Called for every value of every numeric column, the values of a column are visited in order,
+     * but the values of different columns may be interleaved in blocks.
+     */
+    @FunctionalInterface
+    public interface ColumnVisitor {
+        void visit(int column, long value);
+    }
+
+    public boolean isBinary() {
+        return binary;
+    }
+
+    public Map<String, String> getMetadata() {
+        return Collections.unmodifiableMap(metadata);
+    }
+
+    public String[] getColumns() {
+        return columns.clone();
+    }
+
+    public boolean isNumeric(int column) {
+        return numeric[column];
+    }
+
+    /**
+     * Stream through the whole file.
+     *
+     * @param visitor
+     * @return the number of rows
+     * @throws IOException
+     */
+    public long scan(ColumnVisitor visitor) throws IOException {
+        return binary ? scanBinary(visitor) : scanCSV(visitor);
+    }
+
+    /**
+     * Map a window of the file covering the given range.
+     */
+    private MappedByteBuffer at(long offset, int length) throws IOException {
+        if (offset + length > size) {
+            throw new IOException("Unexpected end of file.");
+        }
+        if (window == null || offset < windowStart || offset + length > windowStart + window.capacity()) {
+            long mapSize = Math.min(Math.max(WINDOW, length), size - offset);
+            window = channel.map(FileChannel.MapMode.READ_ONLY, offset, mapSize);
+            window.order(ByteOrder.LITTLE_ENDIAN);
+            windowStart = offset;
+        }
+        window.position((int) (offset - windowStart));
+        return window;
+    }
+
+    private String readString(long offset, int length) throws IOException {
+        byte[] data = new byte[length];
+        at(offset, length).get(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    private void readBinaryHeader() throws IOException {
+        long offset = BinarySampleWriter.MAGIC.length;
+        int version = at(offset, 1).get() & 0xff;
+        if (version != BinarySampleWriter.VERSION) {
+            throw new IOException("Unsupported binary sample file version: " + version);
+        }
+        offset += 1;
+        int entries = at(offset, 4).getInt();
+        offset += 4;
+        for (int i = 0; i < entries; ++i) {
+            String[] entry = new String[2];
+            for (int j = 0; j < 2; ++j) {
+                int length = at(offset, 4).getInt();
+                entry[j] = readString(offset + 4, length);
+                offset += 4 + length;
+            }
+            metadata.put(entry[0], entry[1]);
+        }
+        int count = at(offset, 4).getInt();
+        offset += 4;
+        columns = new String[count];
+        types = new byte[count];
+        numeric = new boolean[count];
+        for (int i = 0; i < count; ++i) {
+            types[i] = at(offset, 1).get();
+            int length = at(offset + 1, 4).getInt();
+            columns[i] = readString(offset + 5, length);
+            offset += 5 + length;
+            numeric[i] = types[i] == BinarySampleWriter.TYPE_LONG && !columns[i].equals("index");
+        }
+        dataStart = offset;
+    }
+
+    private long scanBinary(ColumnVisitor visitor) throws IOException {
+        long rows = 0;
+        long offset = dataStart;
+        while (offset < size) {
+            int n = at(offset, 4).getInt();
+            offset += 4;
+            for (int i = 0; i < columns.length; ++i) {
+                if (types[i] == BinarySampleWriter.TYPE_LONG) {
+                    if (numeric[i]) {
+                        MappedByteBuffer buf = at(offset, n * 8);
+                        for (int j = 0; j < n; ++j) {
+                            visitor.visit(i, buf.getLong());
+                        }
+                    }
+                    offset += (long) n * 8;
+                } else {
+                    MappedByteBuffer buf = at(offset, n * 4);
+                    long total = 0;
+                    for (int j = 0; j < n; ++j) {
+                        total += buf.getInt();
+                    }
+                    offset += (long) n * 4 + total;
+                }
+            }
+            rows += n;
+        }
+        return rows;
+    }
+
+    private void readCSVHeader() throws IOException {
+        int length = (int) Math.min(size, 1 << 16);
+        MappedByteBuffer buf = at(0, length);
+        int end = 0;
+        while (end < length && buf.get(end) != '\n') {
+            end++;
+        }
+        String header = readString(0, end).trim();
+        columns = header.isEmpty() ? new String[0] : header.split(";");
+        numeric = new boolean[columns.length];
+        for (int i = 0; i < columns.length; ++i) {
+            String name = columns[i].toLowerCase();
+            numeric[i] = name.contains("time") || name.equals("verified") || name.equals("valid");
+        }
+        dataStart = Math.min(size, end + 1);
+    }
+
+    private long scanCSV(ColumnVisitor visitor) throws IOException {
+        long rows = 0;
+        int column = 0;
+        long value = 0;
+        boolean negative = false;
+        boolean digits = false;
+        boolean valid = true;
+        boolean empty = true;
+
+        long offset = dataStart;
+        while (offset < size) {
+            int length = (int) Math.min(WINDOW, size - offset);
+            MappedByteBuffer buf = at(offset, length);
+            for (int i = 0; i < length; ++i) {
+                byte b = buf.get();
+                if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                    digits = true;
+                    empty = false;
+                } else if (b == ';' || b == '\n') {
+                    if (column < numeric.length && numeric[column] && digits && valid) {
+                        visitor.visit(column, negative ? -value : value);
+                    }
+                    if (b == '\n') {
+                        if (!empty || column != 0) {
+                            rows++;
+                        }
+                        column = 0;
+                        empty = true;
+                    } else {
+                        column++;
+                        empty = false;
+                    }
+                    value = 0;
+                    negative = false;
+                    digits = false;
+                    valid = true;
+                } else if (b == '-' && !digits && !negative) {
+                    negative = true;
+                    empty = false;
+                } else if (b != '\r') {
+                    valid = false;
+                    empty = false;
+                }
+            }
+            offset += length;
+        }
+        if (!empty || column != 0) {
+            if (column < numeric.length && numeric[column] && digits && valid) {
+                visitor.visit(column, negative ? -value : value);
+            }
+            rows++;
+        }
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+}
@@ -0,0 +1,55 @@
+package cz.crcs.ectester.common.output;
+
+import cz.crcs.ectester.common.test.Test;
+import cz.crcs.ectester.common.test.TestSuite;
+
+/**
+ * A <code>TestWriter</code> which writes nothing, it only counts the output tests and their results,
+ * to summarize a run.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class SummaryTestWriter implements TestWriter {
+    private int tests;
+    private int ok;
+    private int errors;
+
+    @Override
+    public void begin(TestSuite suite) {
+        tests = 0;
+        ok = 0;
+        errors = 0;
+    }
+
+    @Override
+    public void outputTest(Test t, int index) {
+        if (!t.hasRun()) {
+            return;
+        }
+        tests++;
+        if (t.ok()) {
+            ok++;
+        }
+    }
+
+    @Override
+    public void outputError(Test t, Throwable cause, int index) {
+        errors++;
+    }
+
+    @Override
+    public void end() {
+    }
+
+    public int getTests() {
+        return tests;
+    }
+
+    public int getOk() {
+        return ok;
+    }
+
+    public int getErrors() {
+        return errors;
+    }
+}
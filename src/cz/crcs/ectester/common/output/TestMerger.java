@@ -0,0 +1,247 @@
+package cz.crcs.ectester.common.output;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+import org.yaml.snakeyaml.DumperOptions;
+import org.yaml.snakeyaml.Yaml;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Merges the outputs of several runs of parts of one test suite, such as its shards, into one output with the
+ * tests ordered by their index. The header (suite, date, device) is taken from the first output.
+ * Supports the yaml, xml and jsonl formats of the <code>TestWriter</code>s, the text format can not be merged.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class TestMerger {
+    public static final String[] FORMATS = new String[]{"yaml", "yml", "xml", "jsonl"};
+
+    private static final Pattern JSONL_INDEX = Pattern.compile("^\\{\"index\":(\\d+),");
+    private static final Pattern JSONL_SUMMARY = Pattern.compile("^\\{\"summary\":\\{\"tests\":(\\d+),\"ok\":(\\d+),\"errors\":(\\d+)}}$");
+
+    private TestMerger() {
+    }
+
+    /**
+     * @param fileName
+     * @return The format of the output file, by its extension, or null if it is not known.
+     */
+    public static String formatOf(String fileName) {
+        String lower = fileName.toLowerCase();
+        for (String format : FORMATS) {
+            if (lower.endsWith("." + format)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param format One of {@link #FORMATS}.
+     * @param inputs The outputs to merge.
+     * @param output Where to write the merged output.
+     * @throws IOException If an input can not be read or is not a valid output in the format.
+     */
+    public static void merge(String format, List<File> inputs, OutputStream output) throws IOException {
+        switch (format.toLowerCase()) {
+            case "yaml":
+            case "yml":
+                mergeYAML(inputs, output);
+                break;
+            case "xml":
+                mergeXML(inputs, output);
+                break;
+            case "jsonl":
+                mergeJSONL(inputs, output);
+                break;
+            default:
+                throw new IOException("Can not merge the " + format + " format.");
+        }
+    }
+
+    private static void mergeJSONL(List<File> inputs, OutputStream output) throws IOException {
+        String header = null;
+        SortedMap<Integer, List<String>> tests = new TreeMap<>();
+        int[] summary = new int[3];
+        for (File input : inputs) {
+            List<String> lines = Files.readAllLines(input.toPath(), StandardCharsets.UTF_8);
+            for (int i = 0; i < lines.size(); ++i) {
+                String line = lines.get(i);
+                Matcher index = JSONL_INDEX.matcher(line);
+                Matcher sum = JSONL_SUMMARY.matcher(line);
+                if (i == 0) {
+                    if (!line.startsWith("{\"suite\":")) {
+                        throw new IOException(input + " is not a jsonl test output.");
+                    }
+                    if (header == null) {
+                        header = line;
+                    }
+                } else if (index.find()) {
+                    tests.computeIfAbsent(Integer.parseInt(index.group(1)), k -> new LinkedList<>()).add(line);
+                } else if (sum.matches()) {
+                    for (int j = 0; j < summary.length; ++j) {
+                        summary[j] += Integer.parseInt(sum.group(j + 1));
+                    }
+                }
+            }
+        }
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        if (header != null) {
+            writer.write(header);
+            writer.write('\n');
+        }
+        for (List<String> lines : tests.values()) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        }
+        writer.write(String.format("{\"summary\":{\"tests\":%d,\"ok\":%d,\"errors\":%d}}\n", summary[0], summary[1], summary[2]));
+        writer.flush();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void mergeYAML(List<File> inputs, OutputStream output) throws IOException {
+        DumperOptions options = new DumperOptions();
+        options.setDefaultFlowStyle(DumperOptions.FlowStyle.BLOCK);
+        options.setPrettyFlow(true);
+        Yaml yaml = new Yaml(options);
+
+        Map<String, Object> merged = null;
+        List<Map<String, Object>> tests = new ArrayList<>();
+        for (File input : inputs) {
+            Map<String, Object> testRun = null;
+            try (InputStream in = new FileInputStream(input)) {
+                for (Object document : yaml.loadAll(in)) {
+                    if (document instanceof Map && ((Map) document).get("testRun") instanceof Map) {
+                        testRun = (Map<String, Object>) ((Map) document).get("testRun");
+                        break;
+                    }
+                }
+            } catch (RuntimeException e) {
+                throw new IOException(input + " is not a valid yaml test output.", e);
+            }
+            if (testRun == null) {
+                throw new IOException(input + " is not a yaml test output.");
+            }
+            if (merged == null) {
+                merged = testRun;
+            }
+            Object inputTests = testRun.get("tests");
+            if (inputTests instanceof List) {
+                tests.addAll((List<Map<String, Object>>) inputTests);
+            }
+        }
+        tests.sort(Comparator.comparingInt(TestMerger::indexOf));
+
+        Map<String, Object> result = new LinkedHashMap<>();
+        if (merged != null) {
+            merged.put("tests", tests);
+            result.put("testRun", merged);
+        }
+        PrintStream out = new PrintStream(output, false, "UTF-8");
+        out.println("---");
+        out.print(yaml.dump(result));
+        out.println();
+        out.println("---");
+        out.flush();
+    }
+
+    private static int indexOf(Map<String, Object> test) {
+        Object index = test.get("index");
+        return index instanceof Number ? ((Number) index).intValue() : Integer.MAX_VALUE;
+    }
+
+    private static void mergeXML(List<File> inputs, OutputStream output) throws IOException {
+        try {
+            DocumentBuilder db = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            Document merged = null;
+            Element mergedTests = null;
+            List<Element> tests = new ArrayList<>();
+            for (File input : inputs) {
+                Document doc = db.parse(input);
+                stripWhitespace(doc.getDocumentElement());
+                Element testsElement = null;
+                NodeList children = doc.getDocumentElement().getChildNodes();
+                for (int i = 0; i < children.getLength(); ++i) {
+                    Node child = children.item(i);
+                    if (child instanceof Element && child.getNodeName().equals("tests")) {
+                        testsElement = (Element) child;
+                    }
+                }
+                if (testsElement == null) {
+                    throw new IOException(input + " is not a xml test output.");
+                }
+                if (merged == null) {
+                    merged = doc;
+                    mergedTests = testsElement;
+                }
+                NodeList inputTests = testsElement.getChildNodes();
+                for (int i = 0; i < inputTests.getLength(); ++i) {
+                    Node test = inputTests.item(i);
+                    if (test instanceof Element) {
+                        tests.add((Element) (doc == merged ? test : merged.importNode(test, true)));
+                    }
+                }
+            }
+            if (merged == null) {
+                return;
+            }
+            while (mergedTests.getFirstChild() != null) {
+                mergedTests.removeChild(mergedTests.getFirstChild());
+            }
+            tests.sort(Comparator.comparingInt(TestMerger::indexOf));
+            for (Element test : tests) {
+                mergedTests.appendChild(test);
+            }
+
+            Transformer tf = TransformerFactory.newInstance().newTransformer();
+            tf.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            tf.setOutputProperty(OutputKeys.INDENT, "yes");
+            tf.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
+            tf.transform(new DOMSource(merged), new StreamResult(output));
+        } catch (ParserConfigurationException | SAXException | TransformerException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static int indexOf(Element test) {
+        try {
+            return Integer.parseInt(test.getAttribute("index"));
+        } catch (NumberFormatException e) {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static void stripWhitespace(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child.getNodeType() == Node.TEXT_NODE && child.getTextContent().trim().isEmpty()) {
+                node.removeChild(child);
+            } else {
+                stripWhitespace(child);
+            }
+            child = next;
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package cz.crcs.ectester.common.test;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+
+/**
+ * A journal of the tests a <code>TestSuite</code> completed, so that a run which was killed can be resumed.
+ * <p>
+ * The journal is a text file, its header names the suite on the first line and then lists the identity of the run,
+ * the device or library tested and the options that change what the tests do, one <code>key: value</code> per line.
+ * A journal is only resumed by a run with the same header. Every other line holds the index and the serialized
+ * result of one completed top-level test, appended and flushed as soon as the test is output.
+ * Only the results are kept (the result value and cause, the description, the timing and the same of the
+ * sub-tests of compound tests), so the replayed tests are output without the details of their testables.
+ * <p>
+ * A line that was not completely written, as the run was killed while writing it, is discarded on resume.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class Checkpoint implements Closeable {
+    private static final String HEADER = "# ";
+
+    private File file;
+    private boolean resume;
+    private Map<String, String> identity;
+    private Map<Integer, String[]> completed = new HashMap<>();
+    private Writer output;
+
+    /**
+     * @param file     The journal file.
+     * @param resume   Whether to resume from the tests completed in the journal, or start it anew.
+     * @param identity The device or library tested and the options of the run, in order.
+     */
+    public Checkpoint(File file, boolean resume, Map<String, String> identity) {
+        this.file = file;
+        this.resume = resume;
+        this.identity = new LinkedHashMap<>(identity);
+    }
+
+    /**
+     * Open the journal for the suite, reading the completed tests if resuming.
+     *
+     * @param suite
+     * @throws IOException If the journal can not be read or written, or belongs to another suite or run.
+     */
+    void open(TestSuite suite) throws IOException {
+        close();
+        completed.clear();
+        List<String> header = new ArrayList<>();
+        header.add(HEADER + suite.getName());
+        for (Map.Entry<String, String> entry : identity.entrySet()) {
+            header.add(HEADER + entry.getKey() + ": " + escape(entry.getValue()));
+        }
+        long length = 0;
+        if (resume && file.exists()) {
+            byte[] data = Files.readAllBytes(file.toPath());
+            int start = 0;
+            int end;
+            int lines = 0;
+            while ((end = indexOf(data, (byte) '\n', start)) != -1) {
+                String line = new String(data, start, end - start, StandardCharsets.UTF_8);
+                if (lines == 0) {
+                    if (!line.equals(header.get(0))) {
+                        throw new IOException("Checkpoint " + file + " is not of the " + suite.getName() + " suite.");
+                    }
+                } else if (lines < header.size()) {
+                    if (!line.equals(header.get(lines))) {
+                        throw new IOException("Checkpoint " + file + " is of another run, it has \"" + line + "\" instead of \"" + header.get(lines) + "\".");
+                    }
+                } else {
+                    String[] record = line.split("\t", -1);
+                    try {
+                        new Parser(record).test();
+                        completed.put(Integer.parseInt(record[0]), record);
+                    } catch (RuntimeException e) {
+                        break;
+                    }
+                }
+                start = end + 1;
+                ++lines;
+            }
+            // A header that was not completely written holds no tests, the journal is started anew.
+            length = lines < header.size() ? 0 : start;
+        }
+        if (length == 0) {
+            output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, false), StandardCharsets.UTF_8));
+            for (String line : header) {
+                output.write(line);
+                output.write('\n');
+            }
+            output.flush();
+        } else {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(length);
+            }
+            output = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int indexOf(byte[] data, byte b, int from) {
+        for (int i = from; i < data.length; ++i) {
+            if (data[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Restore the result of the completed test at the index into the test <code>t</code>, and return
+     * the recorded test, which is to be output in its place.
+     *
+     * @param index
+     * @param t
+     * @return The recorded test, or null if the test at index was not completed.
+     */
+    Test replay(int index, Test t) {
+        String[] record = completed.get(index);
+        if (record == null) {
+            return null;
+        }
+        Parser parser = new Parser(record);
+        Test recorded = parser.test();
+        t.restore(recorded.getResult(), recorded.getDuration(), recorded.getCpuTime());
+        return recorded;
+    }
+
+    /**
+     * Append the completed test to the journal.
+     *
+     * @param t
+     * @param index
+     * @throws IOException
+     */
+    void record(Test t, int index) throws IOException {
+        if (output == null || !t.hasRun()) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append(index);
+        serialize(t, sb);
+        sb.append('\n');
+        output.write(sb.toString());
+        output.flush();
+    }
+
+    private static void serialize(Test t, StringBuilder sb) {
+        boolean compound = t instanceof CompoundTest;
+        sb.append('\t').append(compound ? 'C' : 'S').append(t.hasRun() ? '1' : '0');
+        Result result = t.getResult();
+        field(sb, result == null ? null : result.getValue().name());
+        field(sb, result == null || result.getCause() == null ? null : result.getCause().toString());
+        field(sb, t.getDescription());
+        sb.append('\t').append(t.getDuration());
+        sb.append('\t').append(t.getCpuTime());
+        if (compound) {
+            Test[] tests = ((CompoundTest) t).getStartedTests();
+            sb.append('\t').append(tests.length);
+            for (Test test : tests) {
+                serialize(test, sb);
+            }
+        }
+    }
+
+    private static void field(StringBuilder sb, String value) {
+        sb.append('\t');
+        if (value == null) {
+            sb.append("\\0");
+            return;
+        }
+        escape(sb, value);
+    }
+
+    private static String escape(String value) {
+        String text = String.valueOf(value);
+        StringBuilder sb = new StringBuilder(text.length());
+        escape(sb, text);
+        return sb.toString();
+    }
+
+    private static void escape(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                default:
+                    sb.append(c);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (output != null) {
+            output.close();
+            output = null;
+        }
+    }
+
+    /**
+     * Parses the fields of one journal line back into tests.
+     */
+    private static class Parser {
+        private String[] fields;
+        private int i = 1;
+
+        private Parser(String[] fields) {
+            this.fields = fields;
+        }
+
+        private String next() {
+            return fields[i++];
+        }
+
+        private String string() {
+            String value = next();
+            if (value.equals("\\0")) {
+                return null;
+            }
+            StringBuilder sb = new StringBuilder(value.length());
+            for (int j = 0; j < value.length(); ++j) {
+                char c = value.charAt(j);
+                if (c == '\\' && j + 1 < value.length()) {
+                    char e = value.charAt(++j);
+                    switch (e) {
+                        case 't':
+                            sb.append('\t');
+                            break;
+                        case 'n':
+                            sb.append('\n');
+                            break;
+                        case 'r':
+                            sb.append('\r');
+                            break;
+                        default:
+                            sb.append(e);
+                    }
+                } else {
+                    sb.append(c);
+                }
+            }
+            return sb.toString();
+        }
+
+        private Test test() {
+            String kind = next();
+            String value = string();
+            String cause = string();
+            String desc = string();
+            long duration = Long.parseLong(next());
+            long cpuTime = Long.parseLong(next());
+            Result result = value == null ? null : new Result(Result.Value.valueOf(value), cause);
+
+            Test test;
+            if (kind.charAt(0) == 'C') {
+                int count = Integer.parseInt(next());
+                List<Test> tests = new ArrayList<>(count);
+                for (int j = 0; j < count; ++j) {
+                    tests.add(test());
+                }
+                test = CompoundTest.function((t) -> result, (t) -> {
+                }, desc, tests.toArray(new Test[0]));
+            } else {
+                test = new RecordedTest(desc, result);
+            }
+            test.restore(result, duration, cpuTime);
+            test.hasRun = kind.charAt(1) == '1';
+            return test;
+        }
+    }
+
+    /**
+     * A test replayed from the journal, it has no details of its testable.
+     */
+    private static class RecordedTest extends SimpleTest<RecordedTestable> {
+        private String description;
+
+        private RecordedTest(String description, Result result) {
+            super(new RecordedTestable(), new TestCallback<RecordedTestable>() {
+                @Override
+                public Result apply(RecordedTestable recordedTestable) {
+                    return result;
+                }
+            });
+            this.description = description;
+        }
+
+        @Override
+        public String getDescription() {
+            return description;
+        }
+    }
+
+    private static class RecordedTestable extends BaseTestable {
+        @Override
+        public void run() {
+            hasRun = true;
+        }
+    }
+}
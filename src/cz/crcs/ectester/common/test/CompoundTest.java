@@ -2,11 +2,18 @@ package cz.crcs.ectester.common.test;
 
 import java.util.Arrays;
 import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
 /**
  * A compound test that runs many Tests and has a Result dependent on all/some of their Results.
+ * <p>
+ * The <code>parallel</code> variants run the sub-tests concurrently in the common fork/join pool, they are
+ * only usable with sub-tests that do not share any mutable state, so not with tests of a card
+ * which all go through one <code>CardMngr</code>.
  *
  * @author Jan Jancar johny@neuromancer.sk
  */
@@ -40,6 +47,66 @@ public class CompoundTest extends Test implements Cloneable {
         }
     };
 
+    private final static Consumer<Test[]> RUN_PARALLEL_ALL = tests -> {
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[tests.length];
+        for (int i = 0; i < tests.length; ++i) {
+            tasks[i] = ForkJoinTask.adapt(tests[i]::run).fork();
+        }
+        joinAll(tasks);
+    };
+
+    private final static Consumer<Test[]> RUN_PARALLEL_GREEDY_ANY = tests -> {
+        // A task is claimed either by itself when it starts, then it runs to completion, or by the first ok
+        // sub-test, then it is cancelled and never runs its sub-test.
+        AtomicBoolean[] started = new AtomicBoolean[tests.length];
+        ForkJoinTask<?>[] tasks = new ForkJoinTask<?>[tests.length];
+        for (int i = 0; i < tests.length; ++i) {
+            started[i] = new AtomicBoolean(false);
+        }
+        for (int i = 0; i < tests.length; ++i) {
+            Test t = tests[i];
+            AtomicBoolean self = started[i];
+            tasks[i] = ForkJoinTask.adapt(() -> {
+                if (!self.compareAndSet(false, true)) {
+                    return;
+                }
+                t.run();
+                if (t.ok()) {
+                    for (int j = 0; j < tasks.length; ++j) {
+                        if (started[j].compareAndSet(false, true)) {
+                            tasks[j].cancel(false);
+                        }
+                    }
+                }
+            });
+        }
+        for (ForkJoinTask<?> task : tasks) {
+            task.fork();
+        }
+        joinAll(tasks);
+    };
+
+    /**
+     * Wait for all of the tasks, so that no sub-test is running once the compound result is computed.
+     * Rethrows the first exception of a task, after all of them are done.
+     */
+    private static void joinAll(ForkJoinTask<?>[] tasks) {
+        RuntimeException failure = null;
+        for (ForkJoinTask<?> task : tasks) {
+            try {
+                task.join();
+            } catch (CancellationException ignored) {
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
     private CompoundTest(Function<Test[], Result> resultCallback, Consumer<Test[]> runCallback, Test... tests) {
         this.resultCallback = resultCallback;
         this.runCallback = runCallback;
@@ -88,6 +155,16 @@ public class CompoundTest extends Test implements Cloneable {
         return result;
     }
 
+    public static CompoundTest parallelAll(Result.ExpectedValue what, Test... all) {
+        return expectAll(what, RUN_PARALLEL_ALL, all);
+    }
+
+    public static CompoundTest parallelAll(Result.ExpectedValue what, String description, Test... all) {
+        CompoundTest result = CompoundTest.parallelAll(what, all);
+        result.setDescription(description);
+        return result;
+    }
+
     public static CompoundTest greedyAll(Result.ExpectedValue what, Test... all) {
         return expectAll(what, RUN_GREEDY_ALL, all);
     }
@@ -149,6 +226,31 @@ public class CompoundTest extends Test implements Cloneable {
         return result;
     }
 
+    /**
+     * Like {@link #greedyAny(Result.ExpectedValue, Test...)}, but runs the sub-tests concurrently. Once one of them
+     * has the expected result, the sub-tests which have not started yet are skipped, which ones those are is
+     * not deterministic. The sub-tests which have started are waited for.
+     */
+    public static CompoundTest parallelGreedyAny(Result.ExpectedValue what, Test... any) {
+        return expectAny(what, RUN_PARALLEL_GREEDY_ANY, any);
+    }
+
+    public static CompoundTest parallelGreedyAny(Result.ExpectedValue what, String description, Test... any) {
+        CompoundTest result = CompoundTest.parallelGreedyAny(what, any);
+        result.setDescription(description);
+        return result;
+    }
+
+    public static CompoundTest parallelAny(Result.ExpectedValue what, Test... any) {
+        return expectAny(what, RUN_PARALLEL_ALL, any);
+    }
+
+    public static CompoundTest parallelAny(Result.ExpectedValue what, String description, Test... any) {
+        CompoundTest result = CompoundTest.parallelAny(what, any);
+        result.setDescription(description);
+        return result;
+    }
+
     public static CompoundTest any(Result.ExpectedValue what, Test... any) {
         return expectAny(what, RUN_ALL, any);
     }
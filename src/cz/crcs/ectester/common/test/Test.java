@@ -1,5 +1,8 @@
 package cz.crcs.ectester.common.test;
 
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
 import static cz.crcs.ectester.common.test.Result.Value;
 
 /**
@@ -10,7 +13,15 @@ import static cz.crcs.ectester.common.test.Result.Value;
 public abstract class Test implements Testable, Cloneable {
     protected boolean hasRun;
     protected boolean hasStarted;
+    protected boolean hasFinished;
     protected Result result;
+    protected boolean independent;
+    protected long startTime;
+    protected long endTime;
+    protected long startCpuTime = -1;
+    protected long endCpuTime = -1;
+
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
 
     public Result getResult() {
         return result;
@@ -48,11 +59,92 @@ public abstract class Test implements Testable, Cloneable {
         return hasStarted;
     }
 
+    /**
+     * @return Whether the test stopped running, successfully or not, so its end time and duration are valid.
+     */
+    public boolean hasFinished() {
+        return hasFinished;
+    }
+
+    /**
+     * @return The value of <code>System.nanoTime()</code> when the test started running.
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * @return The value of <code>System.nanoTime()</code> when the test stopped running, successfully or not.
+     */
+    public long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * @return The wall-clock time the test ran for, in nanoseconds, or -1 if it did not finish running.
+     */
+    public long getDuration() {
+        if (!hasFinished) {
+            return -1;
+        }
+        return endTime - startTime;
+    }
+
+    /**
+     * @return The CPU time of the thread that ran the test spent running it, in nanoseconds, or -1 if it did not
+     * finish running or the JVM does not measure thread CPU time. Children of a compound test run on other
+     * threads are not included.
+     */
+    public long getCpuTime() {
+        if (startCpuTime == -1 || endCpuTime == -1) {
+            return -1;
+        }
+        return endCpuTime - startCpuTime;
+    }
+
+    /**
+     * Restore the state of a test that has run, as recorded by a {@link Checkpoint}.
+     */
+    void restore(Result result, long duration, long cpuTime) {
+        this.hasStarted = true;
+        this.hasRun = true;
+        this.hasFinished = true;
+        this.result = result;
+        this.endTime = System.nanoTime();
+        this.startTime = endTime - duration;
+        this.startCpuTime = cpuTime == -1 ? -1 : 0;
+        this.endCpuTime = cpuTime;
+    }
+
+    private static long cpuTime() {
+        if (!THREADS.isCurrentThreadCpuTimeSupported() || !THREADS.isThreadCpuTimeEnabled()) {
+            return -1;
+        }
+        return THREADS.getCurrentThreadCpuTime();
+    }
+
     @Override
     public void reset() {
         hasRun = false;
         hasStarted = false;
+        hasFinished = false;
         result = null;
+        startTime = 0;
+        endTime = 0;
+        startCpuTime = -1;
+        endCpuTime = -1;
+    }
+
+    /**
+     * @return Whether this test is independent of the tests run before and after it, and may run concurrently
+     * with them. This means it does not share any mutable state (primitive instances, a card) with other tests.
+     */
+    public boolean isIndependent() {
+        return independent;
+    }
+
+    public void setIndependent(boolean independent) {
+        this.independent = independent;
     }
 
     public abstract String getDescription();
@@ -66,6 +158,8 @@ public abstract class Test implements Testable, Cloneable {
     public void run() {
         if (hasRun)
             return;
+        startCpuTime = cpuTime();
+        startTime = System.nanoTime();
         try {
             hasStarted = true;
             runSelf();
@@ -76,6 +170,10 @@ public abstract class Test implements Testable, Cloneable {
         } catch (Exception e) {
             result = new Result(Value.ERROR, e);
             throw new TestException(e);
+        } finally {
+            endTime = System.nanoTime();
+            endCpuTime = startCpuTime == -1 ? -1 : cpuTime();
+            hasFinished = true;
         }
     }
 
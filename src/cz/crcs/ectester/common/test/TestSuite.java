@@ -2,7 +2,28 @@ package cz.crcs.ectester.common.test;
 
 import cz.crcs.ectester.common.output.TestWriter;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
 /**
+ * A suite of tests, run in order and output to a <code>TestWriter</code>.
+ * <p>
+ * With more than one thread set, tests which declare themselves independent ({@link Test#isIndependent()})
+ * are run concurrently on a pool of workers, tests which are not wait for all of the previous tests to finish.
+ * The tests are always output in index order.
+ * <p>
+ * With a {@link Checkpoint} set, every test output is also appended to its journal, and skippable tests
+ * ({@link #isSkippable(Test)}) completed in a resumed run are not run again, only their recorded results are output.
+ * <p>
+ * With a shard set, only the tests with <code>index % shards == shard</code> are output, the skippable tests of
+ * other shards are not run at all, the rest is run without output as later tests might depend on them.
+ *
  * @author Jan Jancar johny@neuromancer.sk
  */
 public abstract class TestSuite {
@@ -14,6 +35,15 @@ public abstract class TestSuite {
     private int runFrom = 0;
     private int runTo = -1;
 
+    private int threads = 1;
+    private ExecutorService executor;
+    private Deque<Scheduled> scheduled = new ArrayDeque<>();
+    private int failed = -1;
+
+    private Checkpoint checkpoint;
+    private int shard = 0;
+    private int shards = 1;
+
     public TestSuite(TestWriter writer, String name, String... description) {
         this.writer = writer;
         this.name = name;
@@ -34,18 +64,89 @@ public abstract class TestSuite {
     public void run(int from, int to) {
         this.runFrom = from;
         this.runTo = to;
+        if (checkpoint != null) {
+            try {
+                checkpoint.open(this);
+            } catch (IOException e) {
+                throw new TestSuiteException(e);
+            }
+        }
         writer.begin(this);
+        if (threads > 1) {
+            executor = Executors.newFixedThreadPool(threads, (r) -> {
+                Thread worker = new Thread(r, "test-" + name);
+                worker.setDaemon(true);
+                return worker;
+            });
+        }
         try {
             runTests();
+            finishScheduled();
         } catch (TestException e) {
-            writer.outputError(running, e, ran);
+            writer.outputError(running, e, failed >= 0 ? failed : ran);
         } catch (Exception e) {
             writer.end();
             throw new TestSuiteException(e);
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+                executor = null;
+            }
+            scheduled.clear();
+            failed = -1;
+            if (checkpoint != null) {
+                try {
+                    checkpoint.close();
+                } catch (IOException ignored) {
+                }
+            }
         }
         writer.end();
     }
 
+    /**
+     * Set the number of threads to run independent tests on, 1 (the default) runs all tests sequentially.
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Set the checkpoint journal to record the output tests to and resume from.
+     *
+     * @param checkpoint
+     */
+    public void setCheckpoint(Checkpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Only run the tests of the given shard, out of the given number of shards.
+     *
+     * @param shard  The shard to run, from 0 to shards - 1.
+     * @param shards The number of shards.
+     */
+    public void setShard(int shard, int shards) {
+        this.shard = shard;
+        this.shards = shards;
+    }
+
+    /**
+     * @param t
+     * @return Whether the test can be skipped without running it, if it was completed in a resumed run or
+     * belongs to another shard. By default only independent tests can, as other tests might depend on
+     * their testables.
+     */
+    protected boolean isSkippable(Test t) {
+        return t.isIndependent();
+    }
+
     /**
      * Run the given test and return it back.
      *
@@ -54,6 +155,7 @@ public abstract class TestSuite {
      * @throws TestException
      */
     protected <T extends Test> T runTest(T t) {
+        finishScheduled();
         running = t;
         t.run();
         running = null;
@@ -61,21 +163,77 @@ public abstract class TestSuite {
     }
 
     /**
-     * Run the given test, output it and return it back.
+     * Run the given test, output it and return it back. If the test is independent and the suite runs
+     * on more than one thread, the test is only scheduled and might not have run yet when returned.
      *
      * @param t The test to run.
      * @return The test that was run.
      * @throws TestException
      */
     protected <T extends Test> T doTest(T t) {
-        if (ran >= runFrom && (runTo < 0 || ran <= runTo)) {
-            runTest(t);
-            writer.outputTest(t, ran);
+        boolean inRange = ran >= runFrom && (runTo < 0 || ran <= runTo);
+        if (inRange && ran % shards != shard) {
+            if (!isSkippable(t)) {
+                runTest(t);
+            }
+        } else if (inRange) {
+            Test replayed = checkpoint == null || !isSkippable(t) ? null : checkpoint.replay(ran, t);
+            if (replayed != null) {
+                finishScheduled();
+                writer.outputTest(replayed, ran);
+            } else if (executor != null && t.isIndependent()) {
+                if (scheduled.size() >= threads * 4) {
+                    finishScheduled(scheduled.peekFirst());
+                }
+                scheduled.addLast(new Scheduled(t, ran, executor.submit(t::run)));
+            } else {
+                finishScheduled();
+                runTest(t);
+                output(t, ran);
+            }
         }
         ran++;
         return t;
     }
 
+    /**
+     * Wait for all of the scheduled tests to finish and output them.
+     *
+     * @throws TestException
+     */
+    private void finishScheduled() {
+        while (!scheduled.isEmpty()) {
+            finishScheduled(scheduled.peekFirst());
+        }
+    }
+
+    private void finishScheduled(Scheduled s) {
+        try {
+            s.future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TestException(e);
+        } catch (ExecutionException e) {
+            running = s.test;
+            failed = s.index;
+            Throwable cause = e.getCause();
+            throw cause instanceof TestException ? (TestException) cause : new TestException(cause);
+        }
+        scheduled.removeFirst();
+        output(s.test, s.index);
+    }
+
+    private void output(Test t, int index) {
+        writer.outputTest(t, index);
+        if (checkpoint != null) {
+            try {
+                checkpoint.record(t, index);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
     /**
      *
      */
@@ -97,4 +255,16 @@ public abstract class TestSuite {
         return null;
     }
 
+    private static class Scheduled {
+        private Test test;
+        private int index;
+        private Future<?> future;
+
+        private Scheduled(Test test, int index, Future<?> future) {
+            this.test = test;
+            this.index = index;
+            this.future = future;
+        }
+    }
+
 }
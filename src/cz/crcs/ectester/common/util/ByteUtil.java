@@ -1,5 +1,7 @@
 package cz.crcs.ectester.common.util;
 
+import java.util.Arrays;
+
 /**
  * Utility class, some byte/hex manipulation, convenient byte[] methods.
  *
@@ -78,6 +80,28 @@ public class ByteUtil {
         return result;
     }
 
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final byte[] HEX_VALUES = new byte[128];
+
+    static {
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for (int i = 0; i < 10; ++i) {
+            HEX_VALUES['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; ++i) {
+            HEX_VALUES['a' + i] = (byte) (10 + i);
+            HEX_VALUES['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    /**
+     * @param c
+     * @return the value of the hex digit, or -1 if <code>c</code> is not a hex digit
+     */
+    public static int hexValue(char c) {
+        return c < 128 ? HEX_VALUES[c] : -1;
+    }
+
     /**
      * Parse a hex string into a byte array, big-endian.
      *
@@ -89,46 +113,57 @@ public class ByteUtil {
     }
 
     /**
-     * Parse a hex string into a byte-array, specify endianity.
+     * Parse a hex string into a byte-array, specify endianity. Spaces are ignored.
      *
      * @param hex       The String to parse.
      * @param bigEndian Whether to parse as big-endian.
      * @return the byte array from the hex string.
      */
     public static byte[] hexToBytes(String hex, boolean bigEndian) {
-        hex = hex.replace(" ", "");
-        int len = hex.length();
-        StringBuilder sb = new StringBuilder();
-
-        if (len % 2 == 1) {
-            sb.append("0");
-            ++len;
+        char[] chars = new char[hex.length()];
+        int len = 0;
+        for (int i = 0; i < hex.length(); ++i) {
+            char c = hex.charAt(i);
+            if (c != ' ') {
+                chars[len++] = c;
+            }
         }
-
-        if (bigEndian) {
-            sb.append(hex);
-        } else {
-            for (int i = 0; i < len / 2; ++i) {
-                if (sb.length() >= 2) {
-                    sb.insert(sb.length() - 2, hex.substring(2 * i, 2 * i + 2));
-                } else {
-                    sb.append(hex.substring(2 * i, 2 * i + 2));
-                }
-
+        byte[] result = hexToBytes(chars, 0, len);
+        if (!bigEndian) {
+            for (int i = 0, j = result.length - 1; i < j; ++i, --j) {
+                byte tmp = result[i];
+                result[i] = result[j];
+                result[j] = tmp;
             }
         }
+        return result;
+    }
 
-        String data = sb.toString();
-        byte[] result = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            result[i / 2] = (byte) ((Character.digit(data.charAt(i), 16) << 4)
-                    + (Character.digit(data.charAt(i + 1), 16)));
+    /**
+     * Parse hex digits into a byte array, big-endian. An odd number of digits is padded by a leading zero.
+     *
+     * @param hex    The characters to parse.
+     * @param offset
+     * @param len    The number of hex digits.
+     * @return the byte array from the hex digits.
+     */
+    public static byte[] hexToBytes(char[] hex, int offset, int len) {
+        byte[] result = new byte[(len + 1) / 2];
+        int i = offset;
+        int end = offset + len;
+        int o = 0;
+        if (len % 2 == 1) {
+            result[o++] = (byte) hexValue(hex[i++]);
+        }
+        while (i < end) {
+            result[o++] = (byte) ((hexValue(hex[i]) << 4) + hexValue(hex[i + 1]));
+            i += 2;
         }
         return result;
     }
 
     public static String byteToHex(byte data) {
-        return String.format("%02x", data);
+        return new String(new char[]{HEX_DIGITS[(data >> 4) & 0xf], HEX_DIGITS[data & 0xf]});
     }
 
     public static String bytesToHex(byte[] data) {
@@ -147,17 +182,33 @@ public class ByteUtil {
     }
 
     public static String bytesToHex(byte[] data, int offset, int len, boolean addSpace) {
-        if (data == null) {
+        if (data == null || len <= 0) {
             return "";
         }
-        StringBuilder buf = new StringBuilder();
+        char[] out = new char[addSpace ? len * 3 - 1 : len * 2];
+        int o = 0;
         for (int i = offset; i < (offset + len); i++) {
-            buf.append(byteToHex(data[i]));
-            if (addSpace && i != (offset + len - 1)) {
-                buf.append(" ");
+            if (addSpace && i != offset) {
+                out[o++] = ' ';
             }
+            out[o++] = HEX_DIGITS[(data[i] >> 4) & 0xf];
+            out[o++] = HEX_DIGITS[data[i] & 0xf];
+        }
+        return new String(out);
+    }
+
+    /**
+     * Append the bytes as hex, without spaces, to <code>sb</code>.
+     */
+    public static StringBuilder appendHex(StringBuilder sb, byte[] data) {
+        if (data == null) {
+            return sb;
+        }
+        sb.ensureCapacity(sb.length() + data.length * 2);
+        for (byte b : data) {
+            sb.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
         }
-        return (buf.toString());
+        return sb;
     }
 
     public static byte[] concatenate(byte[]... arrays) {
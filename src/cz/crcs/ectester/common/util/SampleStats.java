@@ -0,0 +1,220 @@
+package cz.crcs.ectester.common.util;
+
+import java.util.*;
+
+/**
+ * Incrementally computed statistics of a column of long values, in constant memory.
+ * <p>
+ * The first pass over the data (<code>add</code>) computes the count, minimum, maximum, mean and variance exactly,
+ * the median is estimated using the P² algorithm (Jain, Chlamtac 1985) and candidates for the mode are collected
+ * using the Misra-Gries frequent items summary. The optional second pass (<code>addSecond</code>) fills the histogram
+ * over the observed range and counts the mode candidates exactly.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class SampleStats {
+    private static final int MODE_CANDIDATES = 256;
+
+    private long count = 0;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private double mean = 0;
+    private double m2 = 0;
+
+    /* P² markers for the median. */
+    private double[] q = new double[5];
+    private long[] n = new long[5];
+    private double[] np = new double[5];
+    private static final double[] DN = {0, 0.25, 0.5, 0.75, 1};
+
+    private Map<Long, Long> candidates = new HashMap<>();
+
+    private long[] histogram;
+    private double binWidth;
+    private Map<Long, Long> modeCounts;
+
+    /**
+     * First pass.
+     *
+     * @param value
+     */
+    public void add(long value) {
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+        count++;
+        double delta = value - mean;
+        mean += delta / count;
+        m2 += delta * (value - mean);
+
+        addMedian(value);
+        addMode(value);
+    }
+
+    private void addMedian(long value) {
+        if (count <= 5) {
+            q[(int) count - 1] = value;
+            if (count == 5) {
+                Arrays.sort(q);
+                for (int i = 0; i < 5; ++i) {
+                    n[i] = i;
+                    np[i] = 4 * DN[i];
+                }
+            }
+            return;
+        }
+
+        int k;
+        if (value < q[0]) {
+            q[0] = value;
+            k = 0;
+        } else if (value >= q[4]) {
+            q[4] = Math.max(q[4], value);
+            k = 3;
+        } else {
+            k = 0;
+            while (k < 3 && value >= q[k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < 5; ++i) {
+            n[i]++;
+        }
+        for (int i = 0; i < 5; ++i) {
+            np[i] += DN[i];
+        }
+
+        for (int i = 1; i < 4; ++i) {
+            double d = np[i] - n[i];
+            if ((d >= 1 && n[i + 1] - n[i] > 1) || (d <= -1 && n[i - 1] - n[i] < -1)) {
+                int s = d >= 0 ? 1 : -1;
+                double qp = q[i] + (double) s / (n[i + 1] - n[i - 1]) *
+                        ((n[i] - n[i - 1] + s) * (q[i + 1] - q[i]) / (n[i + 1] - n[i]) +
+                                (n[i + 1] - n[i] - s) * (q[i] - q[i - 1]) / (n[i] - n[i - 1]));
+                if (q[i - 1] < qp && qp < q[i + 1]) {
+                    q[i] = qp;
+                } else {
+                    q[i] = q[i] + s * (q[i + s] - q[i]) / (n[i + s] - n[i]);
+                }
+                n[i] += s;
+            }
+        }
+    }
+
+    private void addMode(long value) {
+        Long c = candidates.get(value);
+        if (c != null) {
+            candidates.put(value, c + 1);
+        } else if (candidates.size() < MODE_CANDIDATES) {
+            candidates.put(value, 1L);
+        } else {
+            Iterator<Map.Entry<Long, Long>> it = candidates.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Long, Long> e = it.next();
+                if (e.getValue() == 1) {
+                    it.remove();
+                } else {
+                    e.setValue(e.getValue() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prepare the second pass.
+     *
+     * @param bins number of histogram bins
+     */
+    public void prepareSecond(int bins) {
+        double range = count == 0 ? 0 : (double) max - (double) min + 1;
+        histogram = new long[(int) Math.min(bins, range)];
+        binWidth = Math.max(1.0, range / bins);
+        modeCounts = new HashMap<>();
+        for (Long candidate : candidates.keySet()) {
+            modeCounts.put(candidate, 0L);
+        }
+    }
+
+    /**
+     * Second pass.
+     *
+     * @param value
+     */
+    public void addSecond(long value) {
+        int bin = (int) (((double) value - (double) min) / binWidth);
+        histogram[Math.min(Math.max(bin, 0), histogram.length - 1)]++;
+        Long c = modeCounts.get(value);
+        if (c != null) {
+            modeCounts.put(value, c + 1);
+        }
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMin() {
+        return min;
+    }
+
+    public long getMax() {
+        return max;
+    }
+
+    public double getMean() {
+        return mean;
+    }
+
+    public double getStdDev() {
+        return count > 1 ? Math.sqrt(m2 / (count - 1)) : 0;
+    }
+
+    /**
+     * @return the median, exact for less than 6 values, estimated otherwise
+     */
+    public double getMedian() {
+        if (count == 0) {
+            return Double.NaN;
+        }
+        if (count < 5) {
+            double[] values = Arrays.copyOf(q, (int) count);
+            Arrays.sort(values);
+            int mid = values.length / 2;
+            return values.length % 2 == 1 ? values[mid] : (values[mid - 1] + values[mid]) / 2;
+        }
+        return q[2];
+    }
+
+    /**
+     * @return the most frequent value with its count, the count is exact after the second pass,
+     * a lower bound otherwise, or null if there are no values
+     */
+    public Map.Entry<Long, Long> getMode() {
+        Map<Long, Long> counts = modeCounts != null ? modeCounts : candidates;
+        Map.Entry<Long, Long> best = null;
+        for (Map.Entry<Long, Long> e : counts.entrySet()) {
+            if (best == null || e.getValue() > best.getValue() || (e.getValue().equals(best.getValue()) && e.getKey() < best.getKey())) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * @return the histogram counts, filled in the second pass
+     */
+    public long[] getHistogram() {
+        return histogram;
+    }
+
+    /**
+     * @param bin
+     * @return the inclusive lower bound of the histogram bin
+     */
+    public long getBinStart(int bin) {
+        return min + (long) Math.ceil(bin * binWidth);
+    }
+}
@@ -0,0 +1,226 @@
+package cz.crcs.ectester.data;
+
+import cz.crcs.ectester.common.ec.*;
+import javacard.security.KeyPair;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+import org.xml.sax.ext.DefaultHandler2;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.validation.Schema;
+import javax.xml.validation.SchemaFactory;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A streaming parser of the <code>categories.xml</code>, <code>curves.xml</code>, <code>keys.xml</code> and
+ * <code>results.xml</code> files, validated against the schema as they are read. Only the element being parsed
+ * is kept in memory, the CSV data files of the objects are read lazily.
+ * <p>
+ * All paths, those of data files and external entities included, are relative to the root of the data,
+ * as resolved by the <code>locator</code>, which returns null for missing files.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+class EC_Parser {
+    private SAXParserFactory factory;
+    private Function<String, URL> locator;
+
+    EC_Parser(Function<String, URL> locator) throws SAXException {
+        SchemaFactory scf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        Schema sch = scf.newSchema(EC_Parser.class.getResource("/cz/crcs/ectester/data/schema.xsd"));
+        this.factory = SAXParserFactory.newInstance();
+        this.factory.setSchema(sch);
+        this.factory.setNamespaceAware(true);
+        this.locator = locator;
+    }
+
+    /**
+     * @param path
+     * @return the categories, as name, directory and description, or null if the file does not exist
+     * @throws IOException
+     * @throws SAXException
+     */
+    List<String[]> parseCategories(String path) throws IOException, SAXException {
+        List<String[]> categories = new LinkedList<>();
+        boolean found = parse(path, new Handler() {
+            @Override
+            void object(String tag, Map<String, String> fields) {
+                categories.add(new String[]{fields.get("name"), fields.get("directory"), fields.get("desc")});
+            }
+        });
+        return found ? categories : null;
+    }
+
+    /**
+     * @param dir
+     * @return the objects in the curves, keys and results files in the directory
+     * @throws IOException
+     * @throws SAXException
+     */
+    Map<String, EC_Data> parseCategory(String dir) throws IOException, SAXException {
+        Map<String, EC_Data> objects = new TreeMap<>();
+        Handler handler = new Handler() {
+            @Override
+            void object(String tag, Map<String, String> fields) throws SAXException {
+                EC_Data obj = build(dir, tag, fields);
+                objects.put(obj.getId(), obj);
+            }
+        };
+        parse(dir + "/curves.xml", handler);
+        parse(dir + "/keys.xml", handler);
+        parse(dir + "/results.xml", handler);
+        return objects;
+    }
+
+    private boolean parse(String path, Handler handler) throws IOException, SAXException {
+        URL url = locator.apply(path);
+        if (url == null) {
+            return false;
+        }
+        SAXParser parser;
+        try {
+            parser = factory.newSAXParser();
+        } catch (ParserConfigurationException e) {
+            throw new SAXException(e);
+        }
+        try (InputStream in = url.openStream()) {
+            InputSource source = new InputSource(in);
+            source.setSystemId(url.toString());
+            parser.parse(source, handler);
+        }
+        return true;
+    }
+
+    private EC_Data build(String dir, String tag, Map<String, String> fields) throws SAXException {
+        String id = fields.get("id");
+        String desc = fields.get("desc");
+        EC_Data result;
+        switch (tag) {
+            case "curve":
+                byte alg;
+                if (fields.get("field").equalsIgnoreCase("prime")) {
+                    alg = KeyPair.ALG_EC_FP;
+                } else {
+                    alg = KeyPair.ALG_EC_F2M;
+                }
+                result = new EC_Curve(id, Short.parseShort(fields.get("bits")), alg, desc);
+                break;
+            case "pubkey":
+                result = new EC_Key.Public(id, fields.get("curve"), desc);
+                break;
+            case "privkey":
+                result = new EC_Key.Private(id, fields.get("curve"), desc);
+                break;
+            case "keypair":
+                result = new EC_Keypair(id, fields.get("curve"), desc);
+                break;
+            case "kaResult":
+                result = new EC_KAResult(id, fields.get("ka"), fields.get("curve"), fields.get("onekey"), fields.get("otherkey"), desc);
+                break;
+            case "sigResult":
+                result = new EC_SigResult(id, fields.get("sig"), fields.get("curve"), fields.get("signkey"), fields.get("verifykey"), fields.get("raw"), desc);
+                break;
+            default:
+                throw new SAXException("?");
+        }
+        result.readCSVLazily(data(dir, fields));
+        return result;
+    }
+
+    private Supplier<InputStream> data(String dir, Map<String, String> fields) throws SAXException {
+        String file = fields.get("file");
+        String inline = fields.get("inline");
+        if (file != null) {
+            String path = dir + "/" + file;
+            URL url = locator.apply(path);
+            if (url == null) {
+                throw new SAXException("Missing data file: " + path);
+            }
+            return () -> {
+                try {
+                    return url.openStream();
+                } catch (IOException e) {
+                    return null;
+                }
+            };
+        } else if (inline != null) {
+            byte[] bytes = inline.getBytes();
+            return () -> new ByteArrayInputStream(bytes);
+        } else {
+            throw new SAXException("?");
+        }
+    }
+
+    /**
+     * Collects the text of the fields of every child of the document element and passes them on.
+     */
+    private abstract class Handler extends DefaultHandler2 {
+        private int depth = 0;
+        private Map<String, String> fields = new HashMap<>();
+        private StringBuilder text = new StringBuilder();
+
+        abstract void object(String tag, Map<String, String> fields) throws SAXException;
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            depth++;
+            text.setLength(0);
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (depth == 3) {
+                text.append(ch, start, length);
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) throws SAXException {
+            if (depth == 3) {
+                fields.put(localName, text.toString());
+            } else if (depth == 2) {
+                object(localName, fields);
+                fields = new HashMap<>();
+            }
+            depth--;
+        }
+
+        @Override
+        public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws IOException {
+            URL url = locator.apply(systemId);
+            if (url == null) {
+                return null;
+            }
+            InputSource is = new InputSource(url.openStream());
+            is.setSystemId(url.toString());
+            return is;
+        }
+
+        @Override
+        public void warning(SAXParseException exception) {
+            System.err.println("EC_Store | Warning : " + exception);
+        }
+
+        @Override
+        public void error(SAXParseException exception) {
+            System.err.println("EC_Store | Error : " + exception);
+        }
+
+        @Override
+        public void fatalError(SAXParseException exception) throws SAXException {
+            System.err.println("EC_Store | Fatal : " + exception);
+            throw new SAXException(exception);
+        }
+    }
+}
@@ -0,0 +1,306 @@
+package cz.crcs.ectester.data;
+
+import cz.crcs.ectester.common.ec.*;
+import cz.crcs.ectester.common.util.FileUtil;
+
+import java.io.*;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * A binary snapshot of the fully parsed contents of the {@link EC_Store}, cached in the app data directory.
+ * <pre>
+ * "ECTS" | i32 version | identity | i32 category count | (name | directory | desc | i32 length)* | block*
+ * block: i32 object count | (u8 type | fields | i32 data count | (i32 length | bytes)*)*
+ * </pre>
+ * The snapshot is keyed on the identity of the store resources: the path, size and modification time of the jar
+ * they are in, or a checksum of the sizes and modification times of the files under their directory when running
+ * from classes. Any other identity, older or newer, makes the snapshot stale. The categories are read from the header and the block of
+ * each is only deserialized on its first access.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+class EC_Snapshot {
+    private static final byte[] MAGIC = {'E', 'C', 'T', 'S'};
+    private static final int VERSION = 2;
+    private static final String DATA = "/cz/crcs/ectester/data/";
+    private static final String IDENTITY = identity();
+
+    private static final byte CURVE = 0;
+    private static final byte PUBKEY = 1;
+    private static final byte PRIVKEY = 2;
+    private static final byte KEYPAIR = 3;
+    private static final byte KA_RESULT = 4;
+    private static final byte SIG_RESULT = 5;
+
+    static Path getPath() {
+        return FileUtil.getAppData().resolve("ECTester").resolve("store.bin");
+    }
+
+    /**
+     * @return the identity of the store resources, or null if they are neither in a jar nor in a directory
+     */
+    private static String identity() {
+        URL url = EC_Snapshot.class.getResource(DATA + "categories.xml");
+        if (url == null) {
+            return null;
+        }
+        try {
+            if (url.getProtocol().equals("jar")) {
+                Path jar = Paths.get(((JarURLConnection) url.openConnection()).getJarFileURL().toURI());
+                return String.format("jar:%s:%d:%d", jar.toAbsolutePath(), Files.size(jar), Files.getLastModifiedTime(jar).toMillis());
+            } else if (url.getProtocol().equals("file")) {
+                Path dir = Paths.get(url.toURI()).getParent();
+                CRC32 crc = new CRC32();
+                try (Stream<Path> files = Files.walk(dir)) {
+                    files.filter(Files::isRegularFile).sorted().forEach((file) -> {
+                        File f = file.toFile();
+                        crc.update(String.format("%s:%d:%d;", dir.relativize(file), f.length(), f.lastModified()).getBytes(StandardCharsets.UTF_8));
+                    });
+                }
+                return String.format("dir:%s:%08x", dir.toAbsolutePath(), crc.getValue());
+            }
+        } catch (IOException | URISyntaxException | RuntimeException ignored) {
+        }
+        return null;
+    }
+
+    /**
+     * @param path
+     * @return the categories stored in the snapshot, loading their objects lazily, or null if it does not exist,
+     * is stale or unreadable
+     */
+    static Map<String, EC_Category> read(Path path) {
+        if (IDENTITY == null || !Files.isRegularFile(path)) {
+            return null;
+        }
+        try {
+            byte[] snapshot = Files.readAllBytes(path);
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            byte[] magic = new byte[MAGIC.length];
+            in.readFully(magic);
+            if (!Arrays.equals(magic, MAGIC) || in.readInt() != VERSION || !in.readUTF().equals(IDENTITY)) {
+                return null;
+            }
+
+            int count = in.readInt();
+            String[][] header = new String[count][];
+            int[] lengths = new int[count];
+            for (int i = 0; i < count; ++i) {
+                header[i] = new String[]{in.readUTF(), in.readUTF(), in.readUTF()};
+                lengths[i] = in.readInt();
+            }
+            int offset = snapshot.length - in.available();
+
+            Map<String, EC_Category> categories = new TreeMap<>();
+            for (int i = 0; i < count; ++i) {
+                String name = header[i][0];
+                int start = offset;
+                int length = lengths[i];
+                if (length < 0 || start + length > snapshot.length) {
+                    return null;
+                }
+                categories.put(name, new EC_Category(name, header[i][1], header[i][2], () -> readCategory(name, snapshot, start, length)));
+                offset += length;
+            }
+            return categories;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static Map<String, EC_Data> readCategory(String name, byte[] snapshot, int offset, int length) {
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot, offset, length));
+            Map<String, EC_Data> objects = new TreeMap<>();
+            int count = in.readInt();
+            for (int i = 0; i < count; ++i) {
+                EC_Data obj = readObject(in);
+                objects.put(obj.getId(), obj);
+            }
+            return objects;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the " + name + " category from the snapshot.", e);
+        }
+    }
+
+    /**
+     * Serialize the snapshot, this loads all of the categories and their data.
+     *
+     * @param categories
+     * @return the snapshot
+     * @throws IOException if the identity of the store resources is unknown
+     */
+    static byte[] serialize(Map<String, EC_Category> categories) throws IOException {
+        if (IDENTITY == null) {
+            throw new IOException("Unknown identity of the store resources.");
+        }
+        ByteArrayOutputStream blocks = new ByteArrayOutputStream();
+        int[] lengths = new int[categories.size()];
+        int i = 0;
+        for (EC_Category category : categories.values()) {
+            int before = blocks.size();
+            DataOutputStream block = new DataOutputStream(blocks);
+            Map<String, EC_Data> objects = category.getObjects();
+            block.writeInt(objects.size());
+            for (EC_Data obj : objects.values()) {
+                writeObject(block, obj);
+            }
+            block.flush();
+            lengths[i++] = blocks.size() - before;
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.write(MAGIC);
+        out.writeInt(VERSION);
+        out.writeUTF(IDENTITY);
+        out.writeInt(categories.size());
+        i = 0;
+        for (EC_Category category : categories.values()) {
+            out.writeUTF(category.getName());
+            out.writeUTF(category.getDirectory());
+            out.writeUTF(category.getDesc());
+            out.writeInt(lengths[i++]);
+        }
+        blocks.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param path the snapshot path
+     * @return whether a snapshot can be written to the path, serializing one loads every category of the store
+     */
+    static boolean isWritable(Path path) {
+        if (IDENTITY == null) {
+            return false;
+        }
+        try {
+            Files.createDirectories(path.getParent());
+        } catch (IOException | SecurityException e) {
+            return false;
+        }
+        return Files.isWritable(path.getParent()) && (!Files.exists(path) || Files.isWritable(path));
+    }
+
+    static void write(Path path, byte[] snapshot) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path tmp = Files.createTempFile(path.getParent(), "store", ".tmp");
+        try {
+            Files.write(tmp, snapshot);
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static EC_Data readObject(DataInputStream in) throws IOException {
+        byte type = in.readByte();
+        String id = in.readUTF();
+        EC_Data obj;
+        switch (type) {
+            case CURVE:
+                short bits = in.readShort();
+                byte field = in.readByte();
+                obj = new EC_Curve(id, bits, field, readNullable(in));
+                break;
+            case PUBKEY:
+                obj = new EC_Key.Public(id, in.readUTF(), readNullable(in));
+                break;
+            case PRIVKEY:
+                obj = new EC_Key.Private(id, in.readUTF(), readNullable(in));
+                break;
+            case KEYPAIR:
+                obj = new EC_Keypair(id, in.readUTF(), readNullable(in));
+                break;
+            case KA_RESULT:
+                obj = new EC_KAResult(id, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), readNullable(in));
+                break;
+            case SIG_RESULT:
+                obj = new EC_SigResult(id, in.readUTF(), in.readUTF(), in.readUTF(), in.readUTF(), readNullable(in), readNullable(in));
+                break;
+            default:
+                throw new IOException("Unknown object type: " + type);
+        }
+        byte[][] data = new byte[in.readInt()][];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = new byte[in.readInt()];
+            in.readFully(data[i]);
+        }
+        if (!obj.readByteArray(data)) {
+            throw new IOException("Invalid data. " + id);
+        }
+        return obj;
+    }
+
+    private static void writeObject(DataOutputStream out, EC_Data obj) throws IOException {
+        if (obj instanceof EC_Curve) {
+            EC_Curve curve = (EC_Curve) obj;
+            out.writeByte(CURVE);
+            out.writeUTF(curve.getId());
+            out.writeShort(curve.getBits());
+            out.writeByte(curve.getField());
+            writeNullable(out, curve.getDesc());
+        } else if (obj instanceof EC_Key) {
+            EC_Key key = (EC_Key) obj;
+            out.writeByte(key instanceof EC_Key.Public ? PUBKEY : PRIVKEY);
+            out.writeUTF(key.getId());
+            out.writeUTF(key.getCurve());
+            writeNullable(out, key.getDesc());
+        } else if (obj instanceof EC_Keypair) {
+            EC_Keypair keypair = (EC_Keypair) obj;
+            out.writeByte(KEYPAIR);
+            out.writeUTF(keypair.getId());
+            out.writeUTF(keypair.getCurve());
+            writeNullable(out, keypair.getDesc());
+        } else if (obj instanceof EC_KAResult) {
+            EC_KAResult result = (EC_KAResult) obj;
+            out.writeByte(KA_RESULT);
+            out.writeUTF(result.getId());
+            out.writeUTF(result.getKA());
+            out.writeUTF(result.getCurve());
+            out.writeUTF(result.getOneKey());
+            out.writeUTF(result.getOtherKey());
+            writeNullable(out, result.getDesc());
+        } else if (obj instanceof EC_SigResult) {
+            EC_SigResult result = (EC_SigResult) obj;
+            out.writeByte(SIG_RESULT);
+            out.writeUTF(result.getId());
+            out.writeUTF(result.getSig());
+            out.writeUTF(result.getCurve());
+            out.writeUTF(result.getSignKey());
+            out.writeUTF(result.getVerifyKey());
+            writeNullable(out, result.getRawData());
+            writeNullable(out, result.getDesc());
+        } else {
+            throw new IOException("Unknown object type: " + obj.getClass().getName());
+        }
+        byte[][] data = obj.getData();
+        out.writeInt(data.length);
+        for (byte[] param : data) {
+            out.writeInt(param.length);
+            out.write(param);
+        }
+    }
+
+    private static String readNullable(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullable(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
@@ -1,317 +1,137 @@
 package cz.crcs.ectester.data;
 
 import cz.crcs.ectester.common.ec.*;
-import javacard.security.KeyPair;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.ErrorHandler;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.SAXParseException;
-import org.xml.sax.ext.EntityResolver2;
-
-import javax.xml.XMLConstants;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.validation.Schema;
-import javax.xml.validation.SchemaFactory;
-import java.io.ByteArrayInputStream;
+
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 /**
+ * The store of curves, keys and results in the cz.crcs.ectester.data package. The parsed store is cached
+ * in a binary {@link EC_Snapshot}, which is used instead of the XML and CSV resources while it is up to date.
+ * <p>
+ * The store is created once, on first use of {@link #getInstance()}, and can be shared between threads,
+ * lookups do not lock.
+ *
  * @author Jan Jancar johny@neuromancer.sk
  */
 public class EC_Store {
-    private DocumentBuilder db;
-    private Map<String, EC_Category> categories;
-    private static EC_Store instance;
+    private static final String DATA = "/cz/crcs/ectester/data/";
+
+    private volatile Map<String, EC_Category> categories;
 
     private EC_Store() {
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        Path snapshot = EC_Snapshot.getPath();
+        Map<String, EC_Category> cached = EC_Snapshot.read(snapshot);
+        if (cached != null) {
+            this.categories = Collections.unmodifiableMap(cached);
+            return;
+        }
+        this.categories = Collections.emptyMap();
 
         try {
-            SchemaFactory scf = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            Schema sch = scf.newSchema(this.getClass().getResource("/cz/crcs/ectester/data/schema.xsd"));
-            dbf.setSchema(sch);
-            dbf.setNamespaceAware(true);
-            dbf.setIgnoringComments(true);
-            dbf.setXIncludeAware(true);
-            dbf.setIgnoringElementContentWhitespace(true);
-            db = dbf.newDocumentBuilder();
-            db.setErrorHandler(new ErrorHandler() {
-                @Override
-                public void warning(SAXParseException exception) throws SAXException {
-                    System.err.println("EC_Store | Warning : " + exception);
-                }
-
-                @Override
-                public void error(SAXParseException exception) throws SAXException {
-                    System.err.println("EC_Store | Error : " + exception);
-                }
-
-                @Override
-                public void fatalError(SAXParseException exception) throws SAXException {
-                    System.err.println("EC_Store | Fatal : " + exception);
-                    throw new SAXException(exception);
-                }
-            });
-            db.setEntityResolver(new EntityResolver2() {
-                @Override
-                public InputSource getExternalSubset(String name, String baseURI) throws SAXException, IOException {
-                    return null;
-                }
-
-                @Override
-                public InputSource resolveEntity(String name, String publicId, String baseURI, String systemId) throws SAXException, IOException {
-                    InputSource is = new InputSource();
-                    is.setSystemId(systemId);
-                    is.setByteStream(getClass().getClass().getResourceAsStream("/cz/crcs/ectester/data/" + systemId));
-                    return is;
-                }
-
-                @Override
-                public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
-                    return null;
-                }
-            });
-
-            parse();
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+            EC_Parser parser = new EC_Parser((path) -> EC_Store.class.getResource(DATA + path));
+            this.categories = Collections.unmodifiableMap(parse(parser, "categories.xml"));
+        } catch (SAXException | IOException e) {
             e.printStackTrace();
+            return;
         }
-    }
 
-    private void parse() throws SAXException, ParserConfigurationException, IOException {
-
-        InputStream categories = this.getClass().getResourceAsStream("/cz/crcs/ectester/data/categories.xml");
-        if (categories == null) {
-            throw new IOException();
+        if (!EC_Snapshot.isWritable(snapshot)) {
+            return;
         }
-        Document categoriesDoc = db.parse(categories);
-        categories.close();
-        categoriesDoc.normalize();
-
-        NodeList catList = categoriesDoc.getElementsByTagName("category");
-
-        this.categories = new TreeMap<>();
-        for (int i = 0; i < catList.getLength(); ++i) {
-            Node catNode = catList.item(i);
-            if (catNode instanceof Element) {
-                Element catElem = (Element) catNode;
-                Node name = catElem.getElementsByTagName("name").item(0);
-                Node dir = catElem.getElementsByTagName("directory").item(0);
-                Node desc = catElem.getElementsByTagName("desc").item(0);
-
-                EC_Category category = parseCategory(name.getTextContent(), dir.getTextContent(), desc.getTextContent());
-                this.categories.put(name.getTextContent(), category);
-            } else {
-                throw new SAXException("?");
-            }
+        try {
+            EC_Snapshot.write(snapshot, EC_Snapshot.serialize(categories));
+        } catch (IOException | RuntimeException ignored) {
+            // The snapshot is only a cache, the store is usable without it.
         }
     }
 
-    private EC_Category parseCategory(String name, String dir, String desc) throws ParserConfigurationException, IOException, SAXException {
-
-        Map<String, EC_Data> objMap = new TreeMap<>();
-
-        InputStream curves = this.getClass().getResourceAsStream("/cz/crcs/ectester/data/" + dir + "/curves.xml");
-        if (curves != null) {
-            Document curvesDoc = db.parse(curves);
-            curvesDoc.normalize();
-
-            NodeList curveList = curvesDoc.getElementsByTagName("curve");
-
-            for (int i = 0; i < curveList.getLength(); ++i) {
-                Node curveNode = curveList.item(i);
-                if (curveNode instanceof Element) {
-                    Element curveElem = (Element) curveNode;
-                    Node id = curveElem.getElementsByTagName("id").item(0);
-                    Node bits = curveElem.getElementsByTagName("bits").item(0);
-                    Node field = curveElem.getElementsByTagName("field").item(0);
-
-                    NodeList descc = curveElem.getElementsByTagName("desc");
-                    String descs = null;
-                    if (descc.getLength() != 0) {
-                        descs = descc.item(0).getTextContent();
-                    }
-
-                    byte alg;
-                    if (field.getTextContent().equalsIgnoreCase("prime")) {
-                        alg = KeyPair.ALG_EC_FP;
-                    } else {
-                        alg = KeyPair.ALG_EC_F2M;
-                    }
-                    short bitsize = Short.parseShort(bits.getTextContent());
-
-                    EC_Curve curve = new EC_Curve(id.getTextContent(), bitsize, alg, descs);
-
-                    InputStream csv = parseDataElement(dir, curveElem);
-                    if (!curve.readCSV(csv)) {
-                        throw new IOException("Invalid csv data." + id.getTextContent());
-                    }
-                    csv.close();
-
-                    objMap.put(id.getTextContent(), curve);
-                } else {
-                    throw new SAXException("?");
-                }
-            }
-            curves.close();
+    private Map<String, EC_Category> parse(EC_Parser parser, String path) throws SAXException, IOException {
+        List<String[]> categoryList = parser.parseCategories(path);
+        if (categoryList == null) {
+            throw new IOException("Missing " + path);
         }
 
-        InputStream keys = this.getClass().getResourceAsStream("/cz/crcs/ectester/data/" + dir + "/keys.xml");
-        if (keys != null) {
-            Document keysDoc = db.parse(keys);
-            keysDoc.normalize();
-
-            NodeList directs = keysDoc.getDocumentElement().getChildNodes();
-            for (int i = 0; i < directs.getLength(); ++i) {
-                Node direct = directs.item(i);
-                if (direct instanceof Element) {
-                    Element elem = (Element) direct;
-
-                    NodeList ids = elem.getElementsByTagName("id");
-                    if (ids.getLength() != 1) {
-                        throw new SAXException("key no id?");
-                    }
-                    String id = ids.item(0).getTextContent();
-
-                    EC_Params result = parseKeylike(dir, elem);
-
-                    objMap.put(id, result);
-                } else {
-                    throw new SAXException("?");
-                }
-            }
-            keys.close();
+        Map<String, EC_Category> categoryMap = new TreeMap<>();
+        for (String[] category : categoryList) {
+            String name = category[0];
+            String dir = category[1];
+            categoryMap.put(name, new EC_Category(name, dir, category[2], () -> loadCategory(parser, name, dir)));
         }
-
-        InputStream results = this.getClass().getResourceAsStream("/cz/crcs/ectester/data/" + dir + "/results.xml");
-        if (results != null) {
-            Document resultsDoc = db.parse(results);
-            resultsDoc.normalize();
-
-            NodeList directs = resultsDoc.getDocumentElement().getChildNodes();
-            for (int i = 0; i < directs.getLength(); ++i) {
-                Node direct = directs.item(i);
-                if (direct instanceof Element) {
-                    Element elem = (Element) direct;
-
-                    NodeList ids = elem.getElementsByTagName("id");
-                    if (ids.getLength() != 1) {
-                        throw new SAXException("result no id?");
-                    }
-                    String id = ids.item(0).getTextContent();
-
-                    EC_Data result = parseResultlike(dir, elem);
-
-                    objMap.put(id, result);
-                } else {
-                    throw new SAXException("?");
-                }
-            }
-            results.close();
-        }
-
-        return new EC_Category(name, dir, desc, objMap);
+        return categoryMap;
     }
 
-    private EC_Data parseResultlike(String dir, Element elem) throws SAXException, IOException {
-        String tag = elem.getTagName();
-        Node id = elem.getElementsByTagName("id").item(0);
-
-        NodeList descc = elem.getElementsByTagName("desc");
-        String descs = null;
-        if (descc.getLength() != 0) {
-            descs = descc.item(0).getTextContent();
-        }
-
-        Node curve = elem.getElementsByTagName("curve").item(0);
-
-        EC_Data result;
-        if (tag.equals("kaResult")) {
-            Node ka = elem.getElementsByTagName("ka").item(0);
-            Node onekey = elem.getElementsByTagName("onekey").item(0);
-            Node otherkey = elem.getElementsByTagName("otherkey").item(0);
-
-            result = new EC_KAResult(id.getTextContent(), ka.getTextContent(), curve.getTextContent(), onekey.getTextContent(), otherkey.getTextContent(), descs);
-        } else if (tag.equals("sigResult")) {
-            Node sig = elem.getElementsByTagName("sig").item(0);
-            Node signkey = elem.getElementsByTagName("signkey").item(0);
-            Node verifykey = elem.getElementsByTagName("verifykey").item(0);
-            NodeList datas = elem.getElementsByTagName("raw");
-            String data = null;
-            if (datas.getLength() != 0) {
-                data = datas.item(0).getTextContent();
-            }
-
-            result = new EC_SigResult(id.getTextContent(), sig.getTextContent(), curve.getTextContent(), signkey.getTextContent(), verifykey.getTextContent(), data, descs);
-        } else {
-            throw new SAXException("?");
-        }
-
-        InputStream csv = parseDataElement(dir, elem);
-        if (!result.readCSV(csv)) {
-            throw new IOException("Invalid csv data. " + id.getTextContent());
+    /**
+     * Parse the objects of a category, on its first access.
+     *
+     * @throws UncheckedIOException  if the files of the category cannot be read
+     * @throws IllegalStateException if the files of the category are invalid
+     */
+    private synchronized Map<String, EC_Data> loadCategory(EC_Parser parser, String name, String dir) {
+        try {
+            return parser.parseCategory(dir);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not load the " + name + " category.", e);
+        } catch (SAXException e) {
+            throw new IllegalStateException("Invalid data in the " + name + " category. " + e.getMessage(), e);
         }
-        csv.close();
-
-        return result;
     }
 
-    private EC_Params parseKeylike(String dir, Element elem) throws SAXException, IOException {
-        Node id = elem.getElementsByTagName("id").item(0);
-        Node curve = elem.getElementsByTagName("curve").item(0);
-
-        NodeList desc = elem.getElementsByTagName("desc");
-        String descs = null;
-        if (desc.getLength() != 0) {
-            descs = desc.item(0).getTextContent();
-        }
-
-        EC_Params result;
-        if (elem.getTagName().equals("pubkey")) {
-            result = new EC_Key.Public(id.getTextContent(), curve.getTextContent(), descs);
-        } else if (elem.getTagName().equals("privkey")) {
-            result = new EC_Key.Private(id.getTextContent(), curve.getTextContent(), descs);
-        } else if (elem.getTagName().equals("keypair")) {
-            result = new EC_Keypair(id.getTextContent(), curve.getTextContent(), descs);
-        } else {
-            throw new SAXException("?");
+    /**
+     * Add categories from a directory on disk, in the same format as the cz.crcs.ectester.data package.
+     * The directory is either the root of a pack with a <code>categories.xml</code> file listing its categories,
+     * or a single category directory with <code>curves.xml</code>, <code>keys.xml</code> or <code>results.xml</code>
+     * files, named after the directory. The files are parsed in a streaming fashion when a category is first accessed.
+     * Added categories replace built-in categories with the same name.
+     *
+     * @param directory
+     * @return the names of the added categories
+     * @throws IOException if the directory cannot be read or its categories file is invalid
+     */
+    public synchronized Set<String> addCategories(Path directory) throws IOException {
+        Path dir = directory.toAbsolutePath().normalize();
+        if (!Files.isDirectory(dir)) {
+            throw new IOException("Not a directory: " + directory);
         }
-
-        InputStream csv = parseDataElement(dir, elem);
-        if (!result.readCSV(csv)) {
-            throw new IOException("Invalid CSV data. " + id.getTextContent());
+        Path root = Files.isRegularFile(dir.resolve("categories.xml")) || dir.getParent() == null ? dir : dir.getParent();
+        EC_Parser external;
+        Map<String, EC_Category> added;
+        try {
+            external = new EC_Parser((path) -> {
+                Path file = root.resolve(path);
+                try {
+                    return Files.isRegularFile(file) ? file.toUri().toURL() : null;
+                } catch (MalformedURLException e) {
+                    return null;
+                }
+            });
+            if (root.equals(dir)) {
+                added = parse(external, "categories.xml");
+            } else {
+                String name = dir.getFileName().toString();
+                added = new TreeMap<>();
+                added.put(name, new EC_Category(name, name, "", () -> loadCategory(external, name, name)));
+            }
+        } catch (SAXException e) {
+            throw new IOException("Invalid categories in " + directory + ": " + e.getMessage(), e);
         }
-        csv.close();
 
-        return result;
-    }
-
-    private InputStream parseDataElement(String dir, Element elem) throws SAXException {
-        NodeList file = elem.getElementsByTagName("file");
-        NodeList inline = elem.getElementsByTagName("inline");
-
-        InputStream csv;
-        if (file.getLength() == 1) {
-            csv = this.getClass().getResourceAsStream("/cz/crcs/ectester/data/" + dir + "/" + file.item(0).getTextContent());
-        } else if (inline.getLength() == 1) {
-            csv = new ByteArrayInputStream(inline.item(0).getTextContent().getBytes());
-        } else {
-            throw new SAXException("?");
-        }
-        return csv;
+        Map<String, EC_Category> next = new TreeMap<>(categories);
+        next.putAll(added);
+        categories = Collections.unmodifiableMap(next);
+        indexes.keySet().removeIf((key) -> added.containsKey(key.substring(0, key.lastIndexOf('/'))));
+        return added.keySet();
     }
 
     public Map<String, EC_Category> getCategories() {
-        return Collections.unmodifiableMap(categories);
+        return categories;
     }
 
     public EC_Category getCategory(String category) {
@@ -350,13 +170,159 @@ public class EC_Store {
         return getObject(objClass, query.substring(0, split), query.substring(split + 1));
     }
 
+    /**
+     * Secondary indexes over the objects of one class in one category, built once on first query.
+     */
+    private static class Index<T extends EC_Data> {
+        private final Map<EC_Curve, List<T>> byCurve;
+        private final Map<String, List<T>> byCurveId;
+        private final Map<String, List<T>> byPrefix;
+        private final Map<Integer, List<T>> bySize;
+
+        private Index(Collection<T> data) {
+            Map<String, EC_Curve> resolved = new HashMap<>();
+            Map<EC_Curve, List<T>> curves = new TreeMap<>();
+            Map<String, List<T>> curveIds = new TreeMap<>();
+            Map<String, List<T>> prefixes = new TreeMap<>();
+            Map<Integer, List<T>> sizes = new TreeMap<>();
+            for (T item : data) {
+                String curveId = curveOf(item);
+                if (curveId != null) {
+                    EC_Curve curve = resolved.computeIfAbsent(curveId, (id) -> EC_Store.getInstance().getObject(EC_Curve.class, id));
+                    if (curve != null) {
+                        curves.computeIfAbsent(curve, (c) -> new ArrayList<>()).add(item);
+                    }
+                    curveIds.computeIfAbsent(curveId, (c) -> new ArrayList<>()).add(item);
+                }
+                prefixes.computeIfAbsent(prefixOf(item.getId()), (p) -> new ArrayList<>()).add(item);
+                if (item instanceof EC_Curve) {
+                    EC_Curve curve = (EC_Curve) item;
+                    sizes.computeIfAbsent(sizeKey(curve.getField(), curve.getBits()), (k) -> new ArrayList<>()).add(item);
+                }
+            }
+            this.byCurve = freeze(curves);
+            this.byCurveId = freeze(curveIds);
+            this.byPrefix = freeze(prefixes);
+            this.bySize = freeze(sizes);
+        }
+
+        private static <K, T extends EC_Data> Map<K, List<T>> freeze(Map<K, List<T>> map) {
+            for (Map.Entry<K, List<T>> entry : map.entrySet()) {
+                List<T> list = entry.getValue();
+                Collections.sort(list);
+                entry.setValue(Collections.unmodifiableList(list));
+            }
+            return Collections.unmodifiableMap(map);
+        }
+    }
+
+    private final Map<String, Index<?>> indexes = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private <T extends EC_Data> Index<T> getIndex(Class<T> objClass, String category) {
+        Map<String, T> objects = getObjects(objClass, category);
+        if (objects == null) {
+            return null;
+        }
+        return (Index<T>) indexes.computeIfAbsent(category + "/" + objClass.getName(), (k) -> new Index<>(objects.values()));
+    }
+
+    private static String curveOf(EC_Data item) {
+        if (item instanceof EC_Key) {
+            return ((EC_Key) item).getCurve();
+        } else if (item instanceof EC_Keypair) {
+            return ((EC_Keypair) item).getCurve();
+        } else if (item instanceof EC_KAResult) {
+            return ((EC_KAResult) item).getCurve();
+        } else if (item instanceof EC_SigResult) {
+            return ((EC_SigResult) item).getCurve();
+        }
+        return null;
+    }
+
+    private static String prefixOf(String id) {
+        int split = id.indexOf('/');
+        return split < 0 ? id : id.substring(0, split);
+    }
+
+    private static int sizeKey(byte field, short bits) {
+        return (field << 16) | (bits & 0xffff);
+    }
+
+    /**
+     * @param objClass
+     * @param category
+     * @return the objects of the given class in the category grouped by the curve they are on, with the lists sorted,
+     * or null if there is no such category
+     */
+    public <T extends EC_Data> Map<EC_Curve, List<T>> getObjectsByCurve(Class<T> objClass, String category) {
+        Index<T> index = getIndex(objClass, category);
+        return index == null ? null : index.byCurve;
+    }
+
+    /**
+     * @param objClass
+     * @param category
+     * @param curve    the id of the curve, including its category, as in <code>secg/secp256r1</code>
+     * @return the objects of the given class in the category that are on the curve
+     */
+    public <T extends EC_Data> List<T> getObjectsForCurve(Class<T> objClass, String category, String curve) {
+        Index<T> index = getIndex(objClass, category);
+        return index == null ? Collections.emptyList() : index.byCurveId.getOrDefault(curve, Collections.emptyList());
+    }
+
+    /**
+     * @param objClass
+     * @param category
+     * @return the objects of the given class in the category grouped by the prefix of their id, up to the first '/',
+     * with the lists sorted, or null if there is no such category
+     */
+    public <T extends EC_Data> Map<String, List<T>> getObjectsByPrefix(Class<T> objClass, String category) {
+        Index<T> index = getIndex(objClass, category);
+        return index == null ? null : index.byPrefix;
+    }
+
+    /**
+     * @param objClass
+     * @param category
+     * @param prefix
+     * @return the objects of the given class in the category with the given id prefix
+     */
+    public <T extends EC_Data> List<T> getObjectsWithPrefix(Class<T> objClass, String category, String prefix) {
+        Index<T> index = getIndex(objClass, category);
+        return index == null ? Collections.emptyList() : index.byPrefix.getOrDefault(prefix, Collections.emptyList());
+    }
+
+    /**
+     * @param category
+     * @param field    KeyPair.ALG_EC_FP or KeyPair.ALG_EC_F2M
+     * @param bits
+     * @return the curves in the category over the given field type with the given bit size
+     */
+    public List<EC_Curve> getCurves(String category, byte field, short bits) {
+        Index<EC_Curve> index = getIndex(EC_Curve.class, category);
+        return index == null ? Collections.emptyList() : index.bySize.getOrDefault(sizeKey(field, bits), Collections.emptyList());
+    }
+
+    /**
+     * @param field KeyPair.ALG_EC_FP or KeyPair.ALG_EC_F2M
+     * @param bits
+     * @return the curves in all categories over the given field type with the given bit size
+     */
+    public List<EC_Curve> getCurves(byte field, short bits) {
+        List<EC_Curve> curves = new ArrayList<>();
+        for (String category : categories.keySet()) {
+            curves.addAll(getCurves(category, field, bits));
+        }
+        return Collections.unmodifiableList(curves);
+    }
+
     private static <T extends EC_Data> Map<EC_Curve, List<T>> mapKeyToCurve(Collection<T> data, Function<T, String> getter) {
+        Map<String, EC_Curve> resolved = new HashMap<>();
         Map<EC_Curve, List<T>> curves = new TreeMap<>();
         for (T item : data) {
-            EC_Curve curve = EC_Store.getInstance().getObject(EC_Curve.class, getter.apply(item));
-            List<T> curveKeys = curves.getOrDefault(curve, new LinkedList<>());
-            curveKeys.add(item);
-            curves.putIfAbsent(curve, curveKeys);
+            EC_Curve curve = resolved.computeIfAbsent(getter.apply(item), (id) -> EC_Store.getInstance().getObject(EC_Curve.class, id));
+            curves.computeIfAbsent(curve, (c) -> new LinkedList<>()).add(item);
         }
         for (List<T> keyList : curves.values()) {
             Collections.sort(keyList);
@@ -375,10 +341,7 @@ public class EC_Store {
     public static <T extends EC_Data> Map<String, List<T>> mapToPrefix(Collection<T> data) {
         Map<String, List<T>> groups = new TreeMap<>();
         for (T item : data) {
-            String prefix = item.getId().split("/")[0];
-            List<T> group = groups.getOrDefault(prefix, new LinkedList<>());
-            group.add(item);
-            groups.putIfAbsent(prefix, group);
+            groups.computeIfAbsent(prefixOf(item.getId()), (p) -> new LinkedList<>()).add(item);
         }
         for (List<T> itemList : groups.values()) {
             Collections.sort(itemList);
@@ -386,11 +349,12 @@ public class EC_Store {
         return groups;
     }
 
+    private static class Holder {
+        private static final EC_Store INSTANCE = new EC_Store();
+    }
+
     public static EC_Store getInstance() {
-        if (instance == null) {
-            instance = new EC_Store();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
 }
@@ -1,5 +1,6 @@
 package cz.crcs.ectester.reader;
 
+import com.licel.jcardsim.base.SimulatorRuntime;
 import com.licel.jcardsim.io.JavaxSmartCardInterface;
 import cz.crcs.ectester.common.util.ByteUtil;
 import javacard.framework.AID;
@@ -7,6 +8,8 @@ import javacard.framework.Applet;
 import javacard.framework.ISO7816;
 
 import javax.smartcardio.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -40,6 +43,21 @@ public class CardMngr {
     public static final short DATA_RECORD_LENGTH = (short) 0x80; // 128B per record
     public static final short NUMBER_OF_RECORDS = (short) 0x0a; // 10 records
 
+    public static final int CHUNK_LENGTH = 0xff;
+    public static final int COMMAND_LENGTH = HEADER_LENGTH + 2 + 65535; // longest extended command, without Le
+    public static final int RESPONSE_LENGTH = 65536 + 2; // longest extended response + SW
+
+    // Buffers reused by every transmit, so that sending allocates nothing. They are cleared/flipped
+    // through Buffer, as the covariant overrides of ByteBuffer do not exist on Java 8.
+    private final ByteBuffer command = ByteBuffer.allocate(COMMAND_LENGTH);
+    private final ByteBuffer response = ByteBuffer.allocate(RESPONSE_LENGTH);
+    private final byte[] chunk = new byte[HEADER_LENGTH + CHUNK_LENGTH];
+    private final ByteBuffer chunkBuffer = ByteBuffer.wrap(chunk);
+    private final byte[] getResponse = {(byte) 0x00, (byte) 0xC0, (byte) 0x00, (byte) 0x00, (byte) 0x00};
+    private final ByteBuffer getResponseBuffer = ByteBuffer.wrap(getResponse);
+    // The simulator only takes a command as a whole array, one is kept for every length of a short APDU.
+    private final byte[][] simulatorCommands = new byte[HEADER_LENGTH + CHUNK_LENGTH + 1][];
+
     public CardMngr() {
     }
 
@@ -149,6 +167,32 @@ public class CardMngr {
         return true;
     }
 
+    /**
+     * Connect to the card in the given terminal, without any prompts.
+     *
+     * @param terminal
+     * @return Whether a card is present in the terminal and was connected to.
+     * @throws CardException
+     */
+    public boolean connectToTerminal(CardTerminal terminal) throws CardException {
+        if (simulate)
+            return true;
+        if (!terminal.isCardPresent()) {
+            return false;
+        }
+
+        this.terminal = terminal;
+        connectWithHighest();
+        if (verbose)
+            System.out.println("card: " + card);
+        channel = card.getBasicChannel();
+        return true;
+    }
+
+    public CardTerminal getTerminal() {
+        return terminal;
+    }
+
     public boolean reconnectToCard(byte[] selectAPDU) throws CardException {
         if (simulate)
             return true;
@@ -183,6 +227,10 @@ public class CardMngr {
         chunking = state;
     }
 
+    public boolean isChunking() {
+        return chunking;
+    }
+
     public String getProtocol() {
         if (simulate) {
             return simulator.getProtocol();
@@ -346,36 +394,117 @@ public class CardMngr {
     }
 
     private CommandAPDU chunk(CommandAPDU apdu) throws CardException {
+        chunk((byte) apdu.getCLA(), ByteBuffer.wrap(apdu.getBytes()));
+        return new CommandAPDU(apdu.getCLA(), 0x7b, 0, 0, 0xff);
+    }
+
+    /**
+     * Send the <code>data</code>, from its position to its limit, to the applet in chunks, encoded in place
+     * into one reused chunk APDU.
+     */
+    private void chunk(byte cla, ByteBuffer data) throws CardException {
         if (verbose) {
             System.out.print("Chunking:");
         }
-        byte[] data = apdu.getBytes();
-        int numChunks = (data.length + 254) / 255;
-        for (int i = 0; i < numChunks; ++i) {
-            int chunkStart = i * 255;
-            int chunkLength = 255;
-            if (chunkStart + chunkLength > data.length) {
-                chunkLength = data.length - chunkStart;
-            }
+        chunk[OFFSET_CLA] = cla;
+        chunk[OFFSET_INS] = 0x7a;
+        chunk[OFFSET_P1] = 0;
+        chunk[OFFSET_P2] = 0;
+        while (data.hasRemaining()) {
+            int chunkLength = Math.min(CHUNK_LENGTH, data.remaining());
             if (verbose) {
                 System.out.print(" " + chunkLength);
             }
-            byte[] chunk = new byte[chunkLength];
-            System.arraycopy(data, chunkStart, chunk, 0, chunkLength);
-            CommandAPDU cmd = new CommandAPDU(apdu.getCLA(), 0x7a, 0, 0, chunk);
-            ResponseAPDU resp;
-            if (simulate) {
-                resp = simulator.transmitCommand(cmd);
-            } else {
-                resp = channel.transmit(cmd);
-            }
-            if ((short) resp.getSW() != ISO7816.SW_NO_ERROR) {
+            chunk[OFFSET_LC] = (byte) chunkLength;
+            data.get(chunk, OFFSET_DATA, chunkLength);
+            ((Buffer) chunkBuffer).clear();
+            ((Buffer) chunkBuffer).limit(HEADER_LENGTH + chunkLength);
+            ByteBuffer resp = transmitRaw(chunkBuffer, 0);
+            if (resp.getShort(resp.limit() - 2) != ISO7816.SW_NO_ERROR) {
                 throw new CardException("Chunking failed!");
             }
         }
         if (verbose)
             System.out.println();
-        return new CommandAPDU(apdu.getCLA(), 0x7b, 0, 0, 0xff);
+    }
+
+    /**
+     * Transmit the APDU from the position to the limit of the <code>apdu</code> buffer, receiving the response
+     * into the reused response buffer, from the given offset.
+     */
+    private ByteBuffer transmitRaw(ByteBuffer apdu, int offset) throws CardException {
+        ((Buffer) response).clear();
+        ((Buffer) response).position(offset);
+        if (simulate) {
+            int length = apdu.remaining();
+            byte[] command = length < simulatorCommands.length ? simulatorCommands[length] : null;
+            if (command == null) {
+                command = new byte[length];
+                if (length < simulatorCommands.length) {
+                    simulatorCommands[length] = command;
+                }
+            }
+            apdu.get(command);
+            response.put(simulator.transmitCommand(command));
+        } else {
+            channel.transmit(apdu, response);
+        }
+        ((Buffer) response).flip();
+        return response;
+    }
+
+    /**
+     * @return The buffer to encode a command APDU into, for {@link #transmit(ByteBuffer)}, owned by this card manager
+     * and reused by every command sent through it.
+     */
+    public ByteBuffer getCommandBuffer() {
+        return command;
+    }
+
+    /**
+     * Transmit an encoded command APDU and receive its response, without wrapping either into a
+     * <code>CommandAPDU</code> or a <code>ResponseAPDU</code>, so that the host adds as little as possible
+     * to the time of the transmission. Chunks the command if needed and fetches the rest of the response
+     * on a 61xx status, same as {@link #send(CommandAPDU)}.
+     *
+     * @param apdu The encoded command APDU, from the position to the limit of the buffer.
+     * @return The response data and status words, in a buffer owned by this card manager,
+     * valid until the next transmit.
+     * @throws CardException
+     */
+    public ByteBuffer transmit(ByteBuffer apdu) throws CardException {
+        if (verbose) {
+            ResponseAPDU resp = send(new CommandAPDU(apdu));
+            ((Buffer) response).clear();
+            response.put(resp.getBytes());
+            ((Buffer) response).flip();
+            return response;
+        }
+
+        int nc = 0;
+        if (apdu.remaining() > HEADER_LENGTH) {
+            nc = apdu.get(apdu.position() + OFFSET_LC) & 0xff;
+            if (nc == 0 && apdu.remaining() > HEADER_LENGTH + 2) {
+                nc = apdu.getShort(apdu.position() + OFFSET_DATA) & 0xffff;
+            }
+        }
+        if (chunking && nc >= CHUNK_LENGTH) {
+            chunk(apdu.get(apdu.position() + OFFSET_CLA), apdu);
+            chunk[OFFSET_INS] = 0x7b;
+            chunk[OFFSET_LC] = (byte) 0xff;
+            ((Buffer) chunkBuffer).clear();
+            ((Buffer) chunkBuffer).limit(HEADER_LENGTH);
+            apdu = chunkBuffer;
+        }
+
+        ByteBuffer resp = transmitRaw(apdu, 0);
+        while (resp.limit() >= 2 && resp.get(resp.limit() - 2) == (byte) 0x61) {
+            getResponse[OFFSET_LC] = resp.get(resp.limit() - 1);
+            ((Buffer) getResponseBuffer).clear();
+            // The rest of the response is appended over the status words.
+            resp = transmitRaw(getResponseBuffer, resp.limit() - 2);
+        }
+        return resp;
     }
 
     public ResponseAPDU sendAPDU(CommandAPDU apdu) throws CardException {
@@ -402,12 +531,8 @@ public class CardMngr {
             System.out.println(ByteUtil.bytesToHex(responseAPDU.getBytes()));
         }
 
-        if (responseAPDU.getSW1() == (byte) 0x61) {
-            CommandAPDU apduToSend = new CommandAPDU((byte) 0x00,
-                    (byte) 0xC0, (byte) 0x00, (byte) 0x00,
-                    responseAPDU.getSW2());
-
-            responseAPDU = channel.transmit(apduToSend);
+        while (responseAPDU.getSW1() == (byte) 0x61) {
+            responseAPDU = chain(responseAPDU, channel.transmit(getResponse(responseAPDU)));
             if (verbose)
                 System.out.println(ByteUtil.bytesToHex(responseAPDU.getBytes()));
         }
@@ -420,13 +545,25 @@ public class CardMngr {
         return responseAPDU;
     }
 
+    private static CommandAPDU getResponse(ResponseAPDU response) {
+        return new CommandAPDU(0x00, 0xC0, 0x00, 0x00, response.getSW2() == 0 ? 256 : response.getSW2());
+    }
+
+    /**
+     * @return The data of the <code>first</code> part of a chained response followed by the <code>next</code> part.
+     */
+    private static ResponseAPDU chain(ResponseAPDU first, ResponseAPDU next) {
+        return new ResponseAPDU(ByteUtil.concatenate(first.getData(), next.getBytes()));
+    }
+
     public ResponseAPDU sendAPDU(byte[] apdu) throws CardException {
         CommandAPDU commandAPDU = new CommandAPDU(apdu);
         return sendAPDU(commandAPDU);
     }
 
     public boolean prepareLocalSimulatorApplet(byte[] appletAIDArray, byte[] installData, Class<? extends Applet> appletClass) {
-        simulator = new JavaxSmartCardInterface();
+        // Every simulated card needs its own runtime, the default one is shared.
+        simulator = new JavaxSmartCardInterface(new SimulatorRuntime());
         AID appletAID = new AID(appletAIDArray, (short) 0, (byte) appletAIDArray.length);
 
         simulator.installApplet(appletAID, appletClass, installData, (short) 0, (byte) installData.length);
@@ -445,6 +582,9 @@ public class CardMngr {
         }
 
         ResponseAPDU response = simulator.transmitCommand(apdu);
+        while (response.getSW1() == (byte) 0x61) {
+            response = chain(response, simulator.transmitCommand(getResponse(response)));
+        }
         byte[] responseBytes = response.getBytes();
 
         if (verbose) {
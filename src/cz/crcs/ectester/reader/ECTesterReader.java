@@ -24,12 +24,18 @@
 package cz.crcs.ectester.reader;
 
 import cz.crcs.ectester.applet.ECTesterApplet;
+import cz.crcs.ectester.applet.ECTesterAppletExtended;
 import cz.crcs.ectester.applet.EC_Consts;
 import cz.crcs.ectester.common.cli.CLITools;
 import cz.crcs.ectester.common.cli.Colors;
 import cz.crcs.ectester.common.ec.EC_Curve;
+import cz.crcs.ectester.common.output.BaseSampleWriter;
 import cz.crcs.ectester.common.output.OutputLogger;
+import cz.crcs.ectester.common.output.SummaryTestWriter;
+import cz.crcs.ectester.common.output.TeeTestWriter;
+import cz.crcs.ectester.common.output.TestMerger;
 import cz.crcs.ectester.common.output.TestWriter;
+import cz.crcs.ectester.common.test.Checkpoint;
 import cz.crcs.ectester.common.util.Util;
 import cz.crcs.ectester.common.util.*;
 import cz.crcs.ectester.data.EC_Store;
@@ -38,22 +44,28 @@ import cz.crcs.ectester.reader.output.FileTestWriter;
 import cz.crcs.ectester.reader.output.ResponseWriter;
 import cz.crcs.ectester.reader.response.Response;
 import cz.crcs.ectester.reader.test.*;
+import javacard.framework.Applet;
 import javacard.framework.ISO7816;
 import javacard.security.KeyPair;
 import org.apache.commons.cli.*;
 import org.bouncycastle.jce.provider.BouncyCastleProvider;
 
 import javax.smartcardio.CardException;
+import javax.smartcardio.CardTerminal;
+import javax.smartcardio.CommandAPDU;
 import javax.smartcardio.ResponseAPDU;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.*;
 import java.math.BigInteger;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
 import java.security.Security;
 import java.security.spec.ECParameterSpec;
 import java.util.*;
+import java.util.function.IntFunction;
 import java.util.jar.Manifest;
 
 import static cz.crcs.ectester.applet.EC_Consts.KeyAgreement_ALG_EC_SVDP_DH;
@@ -134,63 +146,27 @@ public class ECTesterReader {
                 return;
             }
 
-            //init CardManager
-            cardManager = new CardMngr(cfg.verbose, cfg.simulate);
+            if (cfg.cards < 0) {
+                //init CardManager
+                cardManager = new CardMngr(cfg.verbose, cfg.simulate);
 
-            //connect or simulate connection
-            if (cfg.simulate) {
-                if (!cardManager.prepareLocalSimulatorApplet(ByteUtil.concatenate(AID_PREFIX, AID_CURRENT_VERSION, AID_SUFFIX_221), INSTALL_DATA, ECTesterApplet.class)) {
-                    System.err.println(Colors.error("Failed to establish a simulator."));
-                    System.exit(1);
+                //connect or simulate connection
+                if (cfg.simulate) {
+                    if (!simulateCard(cardManager, false)) {
+                        System.err.println(Colors.error("Failed to establish a simulator."));
+                        System.exit(1);
+                    }
                 } else {
-                    cardManager.setChunking(true);
-                }
-            } else {
-                if (!cardManager.connectToCardSelect()) {
-                    System.err.println(Colors.error("Failed to connect to card."));
-                    System.exit(1);
-                }
-                //Try the highest known version first
-                byte[] versionByte = AID_CURRENT_VERSION.clone();
-                boolean selected = false;
-                for (int i = 0; i < TRY_VERSIONS; ++i) {
-                    byte[] select222 = ByteUtil.concatenate(SELECT_PREFIX, AID_PREFIX, versionByte, AID_SUFFIX_222);
-                    ResponseAPDU selectResp = cardManager.send(select222);
-                    if ((short) selectResp.getSW() != ISO7816.SW_NO_ERROR) {
-                        byte[] select221 = ByteUtil.concatenate(SELECT_PREFIX, AID_PREFIX, versionByte, AID_SUFFIX_221);
-                        selectResp = cardManager.send(select221);
-                        if ((short) selectResp.getSW() == ISO7816.SW_NO_ERROR) {
-                            cardManager.setChunking(true);
-                            selected = true;
-                            break;
-                        }
-                    } else {
-                        selected = true;
-                        break;
+                    if (!cardManager.connectToCardSelect()) {
+                        System.err.println(Colors.error("Failed to connect to card."));
+                        System.exit(1);
                     }
-                    // Count down by versions
-                    if (versionByte[2] == 0x30) {
-                        if (versionByte[1] == 0x30) {
-                            if (versionByte[0] == 0x30) {
-                                break;
-                            } else {
-                                versionByte[0]--;
-                                versionByte[1] = 0x39;
-                                versionByte[2] = 0x39;
-                            }
-                        } else {
-                            versionByte[1]--;
-                            versionByte[2] = 0x39;
-                        }
-                    } else {
-                        versionByte[2]--;
+                    if (!selectApplet(cardManager)) {
+                        System.err.println(Colors.error("Failed to select ECTester applet, is it installed?"));
+                        cardManager.disconnectFromCard();
+                        System.exit(1);
                     }
                 }
-                if (!selected) {
-                    System.err.println(Colors.error("Failed to select ECTester applet, is it installed?"));
-                    cardManager.disconnectFromCard();
-                    System.exit(1);
-                }
             }
 
             // Setup logger and respWriter
@@ -212,7 +188,11 @@ public class ECTesterReader {
             } else if (cli.hasOption("generate")) {
                 generate();
             } else if (cli.hasOption("test")) {
-                test();
+                if (cfg.cards < 0) {
+                    test();
+                } else {
+                    testCards();
+                }
             } else if (cli.hasOption("ecdh") || cli.hasOption("ecdhc")) {
                 ecdh();
             } else if (cli.hasOption("ecdsa")) {
@@ -222,7 +202,9 @@ public class ECTesterReader {
             }
 
             //disconnect
-            cardManager.disconnectFromCard();
+            if (cardManager != null) {
+                cardManager.disconnectFromCard();
+            }
             logger.close();
 
         } catch (MissingOptionException moex) {
@@ -265,7 +247,7 @@ public class ECTesterReader {
             if (logger != null)
                 logger.println(ex.getMessage());
             ex.printStackTrace();
-        } catch (ParserConfigurationException e) {
+        } catch (XMLStreamException e) {
             e.printStackTrace();
         } finally {
             if (logger != null)
@@ -273,6 +255,127 @@ public class ECTesterReader {
         }
     }
 
+    /**
+     * Install the applet into a new simulated card.
+     *
+     * @param cardManager
+     * @param isolated    Whether to load the applet classes anew for this card, so that their static state
+     *                    is not shared with the other simulated cards, as it would not be on real cards.
+     * @return Whether the simulator was established.
+     */
+    private static boolean simulateCard(CardMngr cardManager, boolean isolated) {
+        Class<? extends Applet> applet = ECTesterAppletExtended.class;
+        if (isolated) {
+            try {
+                applet = new AppletClassLoader().loadClass(ECTesterAppletExtended.class.getName()).asSubclass(Applet.class);
+            } catch (ClassNotFoundException e) {
+                return false;
+            }
+        }
+        if (!cardManager.prepareLocalSimulatorApplet(ByteUtil.concatenate(AID_PREFIX, AID_CURRENT_VERSION, AID_SUFFIX_222), INSTALL_DATA, applet)) {
+            return false;
+        }
+        negotiateExtended(cardManager);
+        return true;
+    }
+
+    /**
+     * Loads its own copy of the applet classes, everything else is loaded by the parent.
+     */
+    private static class AppletClassLoader extends URLClassLoader {
+        private static final String APPLET_PACKAGE = ECTesterApplet.class.getPackage().getName() + ".";
+
+        private AppletClassLoader() {
+            super(new URL[]{ECTesterApplet.class.getProtectionDomain().getCodeSource().getLocation()}, ECTesterReader.class.getClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(APPLET_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> c = findLoadedClass(name);
+                if (c == null) {
+                    c = findClass(name);
+                }
+                if (resolve) {
+                    resolveClass(c);
+                }
+                return c;
+            }
+        }
+    }
+
+    /**
+     * Select the ECTester applet on the connected card, trying the versions from the current one down.
+     *
+     * @param cardManager
+     * @return Whether the applet was selected.
+     * @throws CardException
+     */
+    private static boolean selectApplet(CardMngr cardManager) throws CardException {
+        //Try the highest known version first
+        byte[] versionByte = AID_CURRENT_VERSION.clone();
+        boolean selected = false;
+        for (int i = 0; i < TRY_VERSIONS; ++i) {
+            byte[] select222 = ByteUtil.concatenate(SELECT_PREFIX, AID_PREFIX, versionByte, AID_SUFFIX_222);
+            ResponseAPDU selectResp = cardManager.send(select222);
+            if ((short) selectResp.getSW() != ISO7816.SW_NO_ERROR) {
+                byte[] select221 = ByteUtil.concatenate(SELECT_PREFIX, AID_PREFIX, versionByte, AID_SUFFIX_221);
+                selectResp = cardManager.send(select221);
+                if ((short) selectResp.getSW() == ISO7816.SW_NO_ERROR) {
+                    cardManager.setChunking(true);
+                    selected = true;
+                    break;
+                }
+            } else {
+                negotiateExtended(cardManager);
+                selected = true;
+                break;
+            }
+            // Count down by versions
+            if (versionByte[2] == 0x30) {
+                if (versionByte[1] == 0x30) {
+                    if (versionByte[0] == 0x30) {
+                        break;
+                    } else {
+                        versionByte[0]--;
+                        versionByte[1] = 0x39;
+                        versionByte[2] = 0x39;
+                    }
+                } else {
+                    versionByte[1]--;
+                    versionByte[2] = 0x39;
+                }
+            } else {
+                versionByte[2]--;
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * Check whether extended length APDUs get through to the selected extended length applet, by sending it
+     * an INS_GET_INFO with more data than fits a short APDU. If they do not (the reader or the card does not
+     * support them) fall back to chunking the long commands into short APDUs.
+     *
+     * @param cardManager
+     */
+    private static void negotiateExtended(CardMngr cardManager) {
+        if (cardManager.isChunking()) {
+            return;
+        }
+        boolean extended;
+        try {
+            ResponseAPDU resp = cardManager.send(new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_GET_INFO, 0x00, 0x00, new byte[CardMngr.CHUNK_LENGTH + 1]));
+            extended = (short) resp.getSW() == ISO7816.SW_NO_ERROR;
+        } catch (CardException | RuntimeException e) {
+            extended = false;
+        }
+        cardManager.setChunking(!extended);
+    }
+
     /**
      * Parses command-line options.
      *
@@ -322,10 +425,11 @@ public class ECTesterReader {
         opts.addOptionGroup(key);
 
         opts.addOption(Option.builder("i").longOpt("input").desc("Input from file <input_file>, for ECDSA signing.").hasArg().argName("input_file").build());
-        opts.addOption(Option.builder("o").longOpt("output").desc("Output into file <output_file>. The file can be prefixed by the format (one of text,yml,xml), such as: xml:<output_file>.").hasArgs().argName("output_file").build());
+        opts.addOption(Option.builder("o").longOpt("output").desc("Output into file <output_file>. The file can be prefixed by the format (one of text,yml,xml,jsonl), such as: xml:<output_file>.").hasArgs().argName("output_file").build());
+        opts.addOption(Option.builder().longOpt("data").desc("Load additional curves, keys and results from directory <dir>, can be repeated.").hasArg().argName("dir").build());
         opts.addOption(Option.builder("l").longOpt("log").desc("Log output into file [log_file].").hasArg().argName("log_file").optionalArg(true).build());
         opts.addOption(Option.builder("v").longOpt("verbose").desc("Turn on verbose logging.").build());
-        opts.addOption(Option.builder().longOpt("format").desc("Output format to use. One of: text,yml,xml.").hasArg().argName("format").build());
+        opts.addOption(Option.builder().longOpt("format").desc("Output format to use. One of: text,yml,xml,jsonl for tests, csv,bin for key generation, ECDH and ECDSA.").hasArg().argName("format").build());
 
         opts.addOption(Option.builder("kb").longOpt("key-builder").desc("Allocate KeyPair using KeyBuilder.").build());
         opts.addOption(Option.builder().longOpt("fixed").desc("Generate key(s) only once, keep them for later operations.").build());
@@ -333,10 +437,16 @@ public class ECTesterReader {
         opts.addOption(Option.builder().longOpt("fixed-public").desc("Generate public key only once, keep it for later ECDH.").build());
         opts.addOption(Option.builder("f").longOpt("fresh").desc("Generate fresh keys (set domain parameters before every generation).").build());
         opts.addOption(Option.builder().longOpt("time").desc("Output better timing values, by running command in dry run mode and normal mode, and subtracting the two.").build());
+        opts.addOption(Option.builder().longOpt("batch").desc("Run the key generation, ECDH or ECDSA on the card in batches of <n> rounds (1 - 255), one command each. The operations are not timed then, the output times are -1.").hasArg().argName("n").build());
         opts.addOption(Option.builder().longOpt("time-unit").desc("Use given time unit in measurement, one of: milli, micro, nano.").hasArg().argName("unit").build());
         opts.addOption(Option.builder().longOpt("cleanup").desc("Send the cleanup command trigerring JCSystem.requestObjectDeletion() after some operations.").build());
         opts.addOption(Option.builder("s").longOpt("simulate").desc("Simulate a card with jcardsim instead of using a terminal.").build());
         opts.addOption(Option.builder("y").longOpt("yes").desc("Accept all warnings and prompts.").build());
+        opts.addOption(Option.builder().longOpt("checkpoint").desc("Journal the completed tests into <file>, so that the test run can be resumed.").hasArg().argName("file").build());
+        opts.addOption(Option.builder().longOpt("shard").desc("Only run the shard <i/n> of the test suite, the tests with index % n == i, 0 <= i < n.").hasArg().argName("i/n").build());
+        opts.addOption(Option.builder().longOpt("cards").desc("Run the test suite on all cards with the ECTester applet, or at most [n] of them, concurrently. Each card writes into its own copy of the --output files, such as out.card0.xml. With --simulate, run it on [n] simulated cards.").hasArg().argName("n").optionalArg(true).build());
+        opts.addOption(Option.builder().longOpt("split").desc("Split the test suite into shards, one per card, for --cards. The outputs of the cards are then merged.").build());
+        opts.addOption(Option.builder().longOpt("resume").desc("Resume the test run from the checkpoint journal, the completed tests are not run again.").build());
         opts.addOption(Option.builder("to").longOpt("test-options").desc("Test options to use:\n- preset: Use preset semi-random private keys (derived from curve) instead of generating keypairs on the cards when the test needs one.\n- random: Use fully random private keys instead of generating keypairs.").hasArg().argName("options").build());
 
         opts.addOption(Option.builder("ka").longOpt("ka-type").desc("Set KeyAgreement object [type], corresponds to JC.KeyAgreement constants.").hasArg().argName("type").optionalArg(true).build());
@@ -448,52 +558,71 @@ public class ECTesterReader {
         Response allocate = new Command.Allocate(cardManager, cfg.keyBuilder, ECTesterApplet.KEYPAIR_LOCAL, cfg.bits, keyClass).send();
         respWriter.outputResponse(allocate);
 
-        OutputStreamWriter keysFile = FileUtil.openFiles(cfg.outputs);
-        keysFile.write(String.format("index;genTime[%s];exportTime[%s];pubW;privS\n", cfg.timeUnit, cfg.timeUnit));
+        OutputStream keysFile = FileUtil.openStream(cfg.outputs);
+        BaseSampleWriter keysWriter = BaseSampleWriter.create(cfg.format != null ? cfg.format : "csv", keysFile, sampleMetadata("generate", keyClass), "index", String.format("genTime[%s]", cfg.timeUnit), String.format("exportTime[%s]", cfg.timeUnit), "pubW", "privS");
 
-        int generated = 0;
-        int retry = 0;
-        while (generated < cfg.generateAmount || cfg.generateAmount == 0) {
-            if ((cfg.fresh || generated == 0) && curve != null) {
-                Response fresh = curve.send();
-                respWriter.outputResponse(fresh);
-            }
+        try {
+            if (cfg.batch > 0) {
+                if (curve != null) {
+                    respWriter.outputResponse(curve.send());
+                }
+                batched(cfg.generateAmount, rounds -> new Command.Batch(cardManager, rounds, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_BOTH, EC_Consts.PARAMETERS_KEYPAIR, (byte) 0, EC_Consts.PARAMETERS_NONE, ECTesterApplet.BATCH_NONE, (byte) 0, ECTesterApplet.KEYPAIR_LOCAL, null), (batch, round, index) -> {
+                    Response.Generate gen = batch.getGenerate(round);
+                    Response.Export export = batch.getExport(round, ECTesterApplet.KEYPAIR_LOCAL);
+                    if (!gen.successful() || !export.successful()) {
+                        return false;
+                    }
+                    byte[] pub = export.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_W);
+                    byte[] priv = export.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S);
+                    keysWriter.write(index, -1L, -1L, pub, priv);
+                    return true;
+                }, "Keys could not be generated/exported.");
+            } else {
+                Command.Generate generate = new Command.Generate(cardManager, ECTesterApplet.KEYPAIR_LOCAL);
+                Command.Export export = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_BOTH, EC_Consts.PARAMETERS_KEYPAIR);
+                int generated = 0;
+                int retry = 0;
+                while (generated < cfg.generateAmount || cfg.generateAmount == 0) {
+                    if ((cfg.fresh || generated == 0) && curve != null) {
+                        Response fresh = curve.send();
+                        respWriter.outputResponse(fresh);
+                    }
 
-            Command.Generate generate = new Command.Generate(cardManager, ECTesterApplet.KEYPAIR_LOCAL);
-            long time = 0;
-            if (cfg.time) {
-                time = -Command.dryRunTime(cardManager, generate, 2, respWriter);
-            }
-            Response.Generate response = generate.send();
-            time += response.getDuration();
-            respWriter.outputResponse(response);
+                    long time = 0;
+                    if (cfg.time) {
+                        time = -Command.dryRunTime(cardManager, generate, 2, respWriter);
+                    }
+                    Response.Generate response = generate.send();
+                    time += response.getDuration();
+                    respWriter.outputResponse(response);
 
-            Response.Export export = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_BOTH, EC_Consts.PARAMETERS_KEYPAIR).send();
-            respWriter.outputResponse(export);
+                    Response.Export exported = export.send();
+                    respWriter.outputResponse(exported);
 
-            if (!response.successful() || !export.successful()) {
-                if (retry < 10) {
-                    retry++;
-                    continue;
-                } else {
-                    System.err.println(Colors.error("Keys could not be generated/exported."));
-                    break;
+                    if (!response.successful() || !exported.successful()) {
+                        if (retry < 10) {
+                            retry++;
+                            continue;
+                        } else {
+                            System.err.println(Colors.error("Keys could not be generated/exported."));
+                            break;
+                        }
+                    }
+
+                    byte[] pub = exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_W);
+                    byte[] priv = exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S);
+                    keysWriter.write(generated, Util.convertTime(time, cfg.timeUnit), Util.convertTime(exported.getDuration(), cfg.timeUnit), pub, priv);
+                    generated++;
                 }
             }
-
-            String pub = ByteUtil.bytesToHex(export.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_W), false);
-            String priv = ByteUtil.bytesToHex(export.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S), false);
-            String line = String.format("%d;%d;%d;%s;%s\n", generated, Util.convertTime(time, cfg.timeUnit), Util.convertTime(export.getDuration(), cfg.timeUnit), pub, priv);
-            keysFile.write(line);
-            keysFile.flush();
-            generated++;
-        }
-        if (cfg.cleanup) {
-            Response cleanup = new Command.Cleanup(cardManager).send();
-            respWriter.outputResponse(cleanup);
+            if (cfg.cleanup) {
+                Response cleanup = new Command.Cleanup(cardManager).send();
+                respWriter.outputResponse(cleanup);
+            }
+        } finally {
+            keysWriter.close();
+            keysFile.close();
         }
-
-        keysFile.close();
     }
 
     /**
@@ -501,27 +630,39 @@ public class ECTesterReader {
      *
      * @throws IOException if an IO error occurs
      */
-    private void test() throws ParserConfigurationException, IOException {
+    private void test() throws XMLStreamException, IOException {
+        if (!confirmSuite()) {
+            return;
+        }
         TestWriter writer = new FileTestWriter(cfg.format, true, cfg.outputs);
+        CardTestSuite suite = createSuite(writer, cardManager);
+        if (suite == null) {
+            System.err.println(Colors.error("Unknown test suite."));
+            return;
+        }
 
-        CardTestSuite suite;
+        if (cfg.checkpoint != null) {
+            suite.setCheckpoint(new Checkpoint(new File(cfg.checkpoint), cfg.resume, checkpointIdentity(cardManager)));
+        }
+        if (cfg.shard != null) {
+            suite.setShard(cfg.shard[0], cfg.shard[1]);
+        }
+        suite.run(cfg.testFrom, cfg.testTo);
+    }
 
+    /**
+     * Prompt before running the selected test suite, if it is one of the dangerous ones.
+     *
+     * @return Whether to run it.
+     */
+    private boolean confirmSuite() {
         switch (cfg.testSuite) {
             case "default":
-                suite = new CardDefaultSuite(writer, cfg, cardManager);
-                break;
             case "test-vectors":
-                suite = new CardTestVectorSuite(writer, cfg, cardManager);
-                break;
             case "compression":
-                suite = new CardCompressionSuite(writer, cfg, cardManager);
-                break;
             case "miscellaneous":
-                suite = new CardMiscSuite(writer, cfg, cardManager);
-                break;
             case "signature":
-                suite = new CardSignatureSuite(writer, cfg, cardManager);
-                break;
+                return true;
             default:
                 // These run are dangerous, prompt before them.
                 System.out.println("The test you selected (" + cfg.testSuite + ") is potentially dangerous.");
@@ -531,40 +672,209 @@ public class ECTesterReader {
                     Scanner in = new Scanner(System.in);
                     String confirmation = in.nextLine().toLowerCase();
                     if (!Arrays.asList("yes", "y").contains(confirmation)) {
-                        return;
+                        return false;
                     }
                     in.close();
                 }
-                switch (cfg.testSuite) {
-                    case "wrong":
-                        suite = new CardWrongSuite(writer, cfg, cardManager);
-                        break;
-                    case "composite":
-                        suite = new CardCompositeSuite(writer, cfg, cardManager);
-                        break;
-                    case "invalid":
-                        suite = new CardInvalidSuite(writer, cfg, cardManager);
-                        break;
-                    case "degenerate":
-                        suite = new CardDegenerateSuite(writer, cfg, cardManager);
-                        break;
-                    case "twist":
-                        suite = new CardTwistSuite(writer, cfg, cardManager);
-                        break;
-                    case "cofactor":
-                        suite = new CardCofactorSuite(writer, cfg, cardManager);
-                        break;
-                    case "edge-cases":
-                        suite = new CardEdgeCasesSuite(writer, cfg, cardManager);
+                return true;
+        }
+    }
+
+    /**
+     * @param writer
+     * @param card
+     * @return The selected test suite, run on the card and output to the writer, or null if it is unknown.
+     */
+    private CardTestSuite createSuite(TestWriter writer, CardMngr card) {
+        switch (cfg.testSuite) {
+            case "default":
+                return new CardDefaultSuite(writer, cfg, card);
+            case "test-vectors":
+                return new CardTestVectorSuite(writer, cfg, card);
+            case "compression":
+                return new CardCompressionSuite(writer, cfg, card);
+            case "miscellaneous":
+                return new CardMiscSuite(writer, cfg, card);
+            case "signature":
+                return new CardSignatureSuite(writer, cfg, card);
+            case "wrong":
+                return new CardWrongSuite(writer, cfg, card);
+            case "composite":
+                return new CardCompositeSuite(writer, cfg, card);
+            case "invalid":
+                return new CardInvalidSuite(writer, cfg, card);
+            case "degenerate":
+                return new CardDegenerateSuite(writer, cfg, card);
+            case "twist":
+                return new CardTwistSuite(writer, cfg, card);
+            case "cofactor":
+                return new CardCofactorSuite(writer, cfg, card);
+            case "edge-cases":
+                return new CardEdgeCasesSuite(writer, cfg, card);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Runs the test suite on several cards concurrently, every card with its own <code>CardMngr</code>, thread
+     * and copy of the output files. Either all of the cards run the whole suite, or with <code>--split</code>
+     * each runs its own shard of it and the outputs are merged back afterwards. A summary of the cards is printed
+     * at the end.
+     *
+     * @throws CardException if connecting to the cards fails
+     * @throws IOException   if an IO error occurs when writing the outputs
+     */
+    private void testCards() throws CardException, XMLStreamException, IOException {
+        if (!confirmSuite()) {
+            return;
+        }
+
+        List<CardMngr> cards = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        if (cfg.simulate) {
+            for (int i = 0; i < cfg.cards; ++i) {
+                CardMngr card = new CardMngr(cfg.verbose, true);
+                if (!simulateCard(card, true)) {
+                    System.err.println(Colors.error("Failed to establish a simulator."));
+                    return;
+                }
+                cards.add(card);
+                names.add("simulator " + i);
+            }
+        } else {
+            List<CardTerminal> terminals = CardMngr.getReaderList();
+            if (terminals != null) {
+                for (CardTerminal terminal : terminals) {
+                    if (cfg.cards > 0 && cards.size() == cfg.cards) {
                         break;
-                    default:
-                        System.err.println(Colors.error("Unknown test suite."));
-                        return;
+                    }
+                    CardMngr card = new CardMngr(cfg.verbose, false);
+                    if (!card.connectToTerminal(terminal)) {
+                        continue;
+                    }
+                    if (!selectApplet(card)) {
+                        System.err.println(Colors.error("Skipping " + terminal.getName() + ", failed to select ECTester applet."));
+                        card.disconnectFromCard();
+                        continue;
+                    }
+                    cards.add(card);
+                    names.add(terminal.getName());
                 }
-                break;
+            }
+        }
+        if (cards.isEmpty()) {
+            System.err.println(Colors.error("No card with the ECTester applet found."));
+            return;
         }
 
-        suite.run(cfg.testFrom, cfg.testTo);
+        int n = cards.size();
+        SummaryTestWriter[] summaries = new SummaryTestWriter[n];
+        Throwable[] failures = new Throwable[n];
+        long[] durations = new long[n];
+        Thread[] threads = new Thread[n];
+        for (int i = 0; i < n; ++i) {
+            summaries[i] = new SummaryTestWriter();
+            TestWriter writer = new TeeTestWriter(new FileTestWriter(cfg.format, false, cardFiles(cfg.outputs, i)), summaries[i]);
+            CardTestSuite suite = createSuite(writer, cards.get(i));
+            if (suite == null) {
+                System.err.println(Colors.error("Unknown test suite."));
+                return;
+            }
+            if (cfg.checkpoint != null) {
+                suite.setCheckpoint(new Checkpoint(new File(cardFile(cfg.checkpoint, i)), cfg.resume, checkpointIdentity(cards.get(i))));
+            }
+            if (cfg.split) {
+                suite.setShard(i, n);
+            } else if (cfg.shard != null) {
+                suite.setShard(cfg.shard[0], cfg.shard[1]);
+            }
+            int card = i;
+            threads[i] = new Thread(() -> {
+                durations[card] = -System.nanoTime();
+                try {
+                    suite.run(cfg.testFrom, cfg.testTo);
+                } catch (RuntimeException e) {
+                    failures[card] = e;
+                }
+                durations[card] += System.nanoTime();
+            }, "card-" + i);
+        }
+
+        long elapsed = -System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        elapsed += System.nanoTime();
+
+        for (CardMngr card : cards) {
+            card.disconnectFromCard();
+        }
+
+        if (cfg.split) {
+            // The text outputs can not be merged, they stay split.
+            for (String output : cfg.outputs) {
+                String[] split = FileTestWriter.resolve(output);
+                if (split[0] == null || !Arrays.asList(TestMerger.FORMATS).contains(split[0])) {
+                    System.err.println(Colors.error("Output " + split[1] + " is text and can not be merged, it stays split into the per-card files."));
+                    continue;
+                }
+                List<File> parts = new LinkedList<>();
+                for (int i = 0; i < n; ++i) {
+                    parts.add(new File(cardFile(split[1], i)));
+                }
+                try (OutputStream out = new FileOutputStream(split[1])) {
+                    TestMerger.merge(split[0], parts, out);
+                }
+            }
+        }
+
+        int tests = 0;
+        int ok = 0;
+        int errors = 0;
+        for (int i = 0; i < n; ++i) {
+            String shard = cfg.split ? String.format(" [shard %d/%d]", i, n) : "";
+            String line = String.format("%d: %s%s: %d tests, %d ok, %d errors, %.2f s", i, names.get(i), shard,
+                    summaries[i].getTests(), summaries[i].getOk(), summaries[i].getErrors(), durations[i] / 1e9);
+            if (failures[i] != null) {
+                line += ", failed: " + failures[i].getMessage();
+            }
+            System.out.println(failures[i] == null && summaries[i].getErrors() == 0 ? line : Colors.error(line));
+            tests += summaries[i].getTests();
+            ok += summaries[i].getOk();
+            errors += summaries[i].getErrors();
+        }
+        System.out.println(Colors.bold(String.format("Total: %d cards, %d tests, %d ok, %d errors, %.2f s", n, tests, ok, errors, elapsed / 1e9)));
+    }
+
+    /**
+     * @param name An output file name, possibly prefixed by its format.
+     * @param card
+     * @return The name of the copy of the file for the card, such as <code>out.card0.xml</code> for <code>out.xml</code>.
+     */
+    private static String cardFile(String name, int card) {
+        int slash = Math.max(name.lastIndexOf('/'), name.lastIndexOf(File.separatorChar));
+        int dot = name.lastIndexOf('.');
+        if (dot <= slash + 1) {
+            return name + ".card" + card;
+        }
+        return name.substring(0, dot) + ".card" + card + name.substring(dot);
+    }
+
+    private static String[] cardFiles(String[] names, int card) {
+        String[] files = new String[names.length];
+        for (int i = 0; i < names.length; ++i) {
+            files[i] = cardFile(names[i], card);
+        }
+        return files;
     }
 
     /**
@@ -586,90 +896,112 @@ public class ECTesterReader {
             respWriter.outputResponse(r);
         }
 
-        OutputStreamWriter out = null;
+        OutputStream out = null;
+        BaseSampleWriter writer = null;
         if (cfg.outputs != null) {
-            out = FileUtil.openFiles(cfg.outputs);
-            out.write(String.format("index;time[%s];pubW;privS;secret[%s]\n", cfg.timeUnit, CardUtil.getKexHashName(cfg.ECKAType)));
-        }
-
-        Response gen = new Command.Generate(cardManager, ECTesterApplet.KEYPAIR_BOTH).send();
-        respWriter.outputResponse(gen);
-        if (cfg.anyPublicKey || cfg.anyKey) {
-            Response prep = Command.prepareKey(cardManager, EC_Store.getInstance(), cfg, ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.PARAMETER_W).send();
-            respWriter.outputResponse(prep);
-        }
-        if (cfg.anyPrivateKey || cfg.anyKey) {
-            Response prep = Command.prepareKey(cardManager, EC_Store.getInstance(), cfg, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S).send();
-            respWriter.outputResponse(prep);
+            out = FileUtil.openStream(cfg.outputs);
+            writer = BaseSampleWriter.create(cfg.format != null ? cfg.format : "csv", out, sampleMetadata("ecdh", keyClass), "index", String.format("time[%s]", cfg.timeUnit), "pubW", "privS", String.format("secret[%s]", CardUtil.getKexHashName(cfg.ECKAType)));
         }
 
-        byte kp = ECTesterApplet.KEYPAIR_BOTH;
-        if (cfg.fixedPrivate || cfg.anyPrivateKey) {
-            kp ^= ECTesterApplet.KEYPAIR_LOCAL;
-        }
-        if (cfg.fixedPublic || cfg.anyPublicKey) {
-            kp ^= ECTesterApplet.KEYPAIR_REMOTE;
-        }
-        if (cfg.fixedKey || cfg.anyKey) {
-            kp = 0;
-        }
+        try {
+            Response gen = new Command.Generate(cardManager, ECTesterApplet.KEYPAIR_BOTH).send();
+            respWriter.outputResponse(gen);
+            if (cfg.anyPublicKey || cfg.anyKey) {
+                Response prep = Command.prepareKey(cardManager, EC_Store.getInstance(), cfg, ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.PARAMETER_W).send();
+                respWriter.outputResponse(prep);
+            }
+            if (cfg.anyPrivateKey || cfg.anyKey) {
+                Response prep = Command.prepareKey(cardManager, EC_Store.getInstance(), cfg, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S).send();
+                respWriter.outputResponse(prep);
+            }
 
-        Command generate = null;
-        if (kp != 0) {
-            generate = new Command.Generate(cardManager, kp);
-        }
+            byte kp = ECTesterApplet.KEYPAIR_BOTH;
+            if (cfg.fixedPrivate || cfg.anyPrivateKey) {
+                kp ^= ECTesterApplet.KEYPAIR_LOCAL;
+            }
+            if (cfg.fixedPublic || cfg.anyPublicKey) {
+                kp ^= ECTesterApplet.KEYPAIR_REMOTE;
+            }
+            if (cfg.fixedKey || cfg.anyKey) {
+                kp = 0;
+            }
 
-        int retry = 0;
-        int done = 0;
-        while (done < cfg.ECKACount || cfg.ECKACount == 0) {
-            if (generate != null) {
-                Response regen = generate.send();
-                respWriter.outputResponse(regen);
+            Command generate = null;
+            if (kp != 0) {
+                generate = new Command.Generate(cardManager, kp);
             }
 
-            Response.Export exportRemote = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.KEY_PUBLIC, EC_Consts.PARAMETER_W).send();
-            respWriter.outputResponse(exportRemote);
-            Response.Export exportLocal = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_PRIVATE, EC_Consts.PARAMETER_S).send();
-            respWriter.outputResponse(exportLocal);
-            byte[] pubkey_bytes = exportRemote.getParameter(ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.PARAMETER_W);
-            byte[] privkey_bytes = exportLocal.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S);
+            if (cfg.batch > 0) {
+                BaseSampleWriter samples = writer;
+                byte regenerate = kp;
+                batched(cfg.ECKACount, rounds -> new Command.Batch(cardManager, rounds, regenerate, EC_Consts.KEY_PRIVATE, EC_Consts.PARAMETER_S, EC_Consts.KEY_PUBLIC, EC_Consts.PARAMETER_W, ECTesterApplet.BATCH_ECDH, cfg.ECKAType, ECTesterApplet.KEYPAIR_LOCAL, null), (batch, round, index) -> {
+                    Response.ECDH result = batch.getECDH(round);
+                    if (!result.successful() || !result.hasSecret()) {
+                        return false;
+                    }
+                    if (samples != null) {
+                        byte[] pubkey_bytes = batch.getExport(round, ECTesterApplet.KEYPAIR_REMOTE).getParameter(ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.PARAMETER_W);
+                        byte[] privkey_bytes = batch.getExport(round, ECTesterApplet.KEYPAIR_LOCAL).getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S);
+                        samples.write(index, -1L, pubkey_bytes, privkey_bytes, result.getSecret());
+                    }
+                    return true;
+                }, "Couldn't obtain ECDH secret from card response.");
+            } else {
+                Command.Export exportPublic = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.KEY_PUBLIC, EC_Consts.PARAMETER_W);
+                Command.Export exportPrivate = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_PRIVATE, EC_Consts.PARAMETER_S);
+                Command.ECDH perform = new Command.ECDH(cardManager, ECTesterApplet.KEYPAIR_REMOTE, ECTesterApplet.KEYPAIR_LOCAL, ECTesterApplet.EXPORT_TRUE, EC_Consts.TRANSFORMATION_NONE, cfg.ECKAType);
+                int retry = 0;
+                int done = 0;
+                while (done < cfg.ECKACount || cfg.ECKACount == 0) {
+                    if (generate != null) {
+                        Response regen = generate.send();
+                        respWriter.outputResponse(regen);
+                    }
 
-            Command.ECDH perform = new Command.ECDH(cardManager, ECTesterApplet.KEYPAIR_REMOTE, ECTesterApplet.KEYPAIR_LOCAL, ECTesterApplet.EXPORT_TRUE, EC_Consts.TRANSFORMATION_NONE, cfg.ECKAType);
+                    Response.Export exportRemote = exportPublic.send();
+                    respWriter.outputResponse(exportRemote);
+                    Response.Export exportLocal = exportPrivate.send();
+                    respWriter.outputResponse(exportLocal);
+                    byte[] pubkey_bytes = exportRemote.getParameter(ECTesterApplet.KEYPAIR_REMOTE, EC_Consts.PARAMETER_W);
+                    byte[] privkey_bytes = exportLocal.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S);
 
-            long time = 0;
-            if (cfg.time) {
-                time = -Command.dryRunTime(cardManager, perform, 2, respWriter);
-            }
+                    long time = 0;
+                    if (cfg.time) {
+                        time = -Command.dryRunTime(cardManager, perform, 2, respWriter);
+                    }
 
-            Response.ECDH result = perform.send();
-            respWriter.outputResponse(result);
+                    Response.ECDH result = perform.send();
+                    respWriter.outputResponse(result);
 
-            if (!result.successful() || !result.hasSecret()) {
-                if (retry < 10) {
-                    ++retry;
-                    continue;
-                } else {
-                    System.err.println(Colors.error("Couldn't obtain ECDH secret from card response."));
-                    break;
+                    if (!result.successful() || !result.hasSecret()) {
+                        if (retry < 10) {
+                            ++retry;
+                            continue;
+                        } else {
+                            System.err.println(Colors.error("Couldn't obtain ECDH secret from card response."));
+                            break;
+                        }
+                    }
+
+                    if (writer != null) {
+                        time += result.getDuration();
+
+                        writer.write(done, Util.convertTime(time, cfg.timeUnit), pubkey_bytes, privkey_bytes, result.getSecret());
+                    }
+
+                    ++done;
                 }
             }
-
+            if (cfg.cleanup) {
+                Response cleanup = new Command.Cleanup(cardManager).send();
+                respWriter.outputResponse(cleanup);
+            }
+        } finally {
             if (out != null) {
-                time += result.getDuration();
-
-                out.write(String.format("%d;%d;%s;%s;%s\n", done, Util.convertTime(time, cfg.timeUnit), ByteUtil.bytesToHex(pubkey_bytes, false), ByteUtil.bytesToHex(privkey_bytes, false), ByteUtil.bytesToHex(result.getSecret(), false)));
-                out.flush();
+                writer.close();
+                out.close();
             }
-
-            ++done;
         }
-        if (cfg.cleanup) {
-            Response cleanup = new Command.Cleanup(cardManager).send();
-            respWriter.outputResponse(cleanup);
-        }
-
-        if (out != null)
-            out.close();
     }
 
     /**
@@ -713,93 +1045,242 @@ public class ECTesterReader {
             respWriter.outputResponse(r);
         }
 
-        OutputStreamWriter out = FileUtil.openFiles(cfg.outputs);
+        OutputStream out = FileUtil.openStream(cfg.outputs);
+        BaseSampleWriter writer = null;
         if (out != null) {
-            out.write(String.format("index;signTime[%s];verifyTime[%s];data;pubW;privS;signature[%s];nonce;valid\n", cfg.timeUnit, cfg.timeUnit, CardUtil.getSigHashAlgo(cfg.ECDSAType)));
-        }
-
-        Command.Export export = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_BOTH, EC_Consts.PARAMETERS_KEYPAIR);
-        Response.Export exported = null;
-        if (cfg.fixedKey) {
-            respWriter.outputResponse(generate.send());
-            exported = export.send();
-            respWriter.outputResponse(exported);
+            writer = BaseSampleWriter.create(cfg.format != null ? cfg.format : "csv", out, sampleMetadata("ecdsa", keyClass), "index", String.format("signTime[%s]", cfg.timeUnit), String.format("verifyTime[%s]", cfg.timeUnit), "data", "pubW", "privS", String.format("signature[%s]", CardUtil.getSigHashAlgo(cfg.ECDSAType)), "nonce", "valid");
         }
 
-        int retry = 0;
-        int done = 0;
-        while (done < cfg.ECDSACount || cfg.ECDSACount == 0) {
-            if (!cfg.fixedKey) {
+        try {
+            Command.Export export = new Command.Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.KEY_BOTH, EC_Consts.PARAMETERS_KEYPAIR);
+            Response.Export exported = null;
+            // A batch can only generate keys on the card, set keys are fixed.
+            boolean fixed = cfg.fixedKey || (cfg.batch > 0 && cfg.anyKeypart);
+            if (fixed) {
                 respWriter.outputResponse(generate.send());
                 exported = export.send();
                 respWriter.outputResponse(exported);
             }
 
-            Command.ECDSA_sign sign = new Command.ECDSA_sign(cardManager, ECTesterApplet.KEYPAIR_LOCAL, cfg.ECDSAType, ECTesterApplet.EXPORT_TRUE, data);
+            if (cfg.batch > 0) {
+                BaseSampleWriter samples = writer;
+                Response.Export keys = exported;
+                batched(cfg.ECDSACount, rounds -> new Command.Batch(cardManager, rounds, fixed ? 0 : ECTesterApplet.KEYPAIR_LOCAL, fixed ? 0 : EC_Consts.KEY_BOTH, EC_Consts.PARAMETERS_KEYPAIR, (byte) 0, EC_Consts.PARAMETERS_NONE, ECTesterApplet.BATCH_ECDSA, cfg.ECDSAType, ECTesterApplet.KEYPAIR_LOCAL, data), (batch, round, index) -> {
+                    Response.ECDSA result = batch.getECDSA(round);
+                    // The round signs and then verifies the signature on-card, a failed verification is a valid sample.
+                    boolean verified = result.successful();
+                    if (!result.hasSignature() || (!verified && result.getSW(0) != ECTesterApplet.SW_SIG_VERIFY_FAIL)) {
+                        return false;
+                    }
+                    if (samples != null) {
+                        writeSignature(samples, index, -1L, -1L, data, fixed ? keys : batch.getExport(round, ECTesterApplet.KEYPAIR_LOCAL), result.getSignature(), verified, keyClass);
+                    }
+                    return true;
+                }, "Couldn't obtain ECDSA signature from card response.");
+            } else {
+                Command.ECDSA_sign sign = new Command.ECDSA_sign(cardManager, ECTesterApplet.KEYPAIR_LOCAL, cfg.ECDSAType, ECTesterApplet.EXPORT_TRUE, data);
+                int retry = 0;
+                int done = 0;
+                while (done < cfg.ECDSACount || cfg.ECDSACount == 0) {
+                    if (!fixed) {
+                        respWriter.outputResponse(generate.send());
+                        exported = export.send();
+                        respWriter.outputResponse(exported);
+                    }
+
+                    long signTime = 0;
+                    if (cfg.time) {
+                        signTime = -Command.dryRunTime(cardManager, sign, 2, respWriter);
+                    }
 
-            long signTime = 0;
-            if (cfg.time) {
-                signTime = -Command.dryRunTime(cardManager, sign, 2, respWriter);
-            }
+                    Response.ECDSA signResp = sign.send();
+                    signTime += signResp.getDuration();
+                    respWriter.outputResponse(signResp);
+                    if (!signResp.successful() || !signResp.hasSignature()) {
+                        if (retry < 10) {
+                            ++retry;
+                            continue;
+                        } else {
+                            System.err.println(Colors.error("Couldn't obtain ECDSA signature from card response."));
+                            break;
+                        }
+                    }
+                    byte[] signature = signResp.getSignature();
+                    Command.ECDSA_verify verify = new Command.ECDSA_verify(cardManager, ECTesterApplet.KEYPAIR_LOCAL, cfg.ECDSAType, data, signature);
+                    long verifyTime = 0;
+                    if (cfg.time) {
+                        verifyTime = -Command.dryRunTime(cardManager, verify, 2, respWriter);
+                    }
+                    Response.ECDSA verifyResp = verify.send();
+                    verifyTime += verifyResp.getDuration();
+                    respWriter.outputResponse(verifyResp);
+
+                    if (verifyResp.error()) {
+                        if (retry < 10) {
+                            ++retry;
+                            continue;
+                        } else {
+                            System.err.println(Colors.error("Couldn't obtain ECDSA signature from card response."));
+                            break;
+                        }
+                    }
 
-            Response.ECDSA signResp = sign.send();
-            signTime += signResp.getDuration();
-            respWriter.outputResponse(signResp);
-            if (!signResp.successful() || !signResp.hasSignature()) {
-                if (retry < 10) {
-                    ++retry;
-                    continue;
-                } else {
-                    System.err.println(Colors.error("Couldn't obtain ECDSA signature from card response."));
-                    break;
+                    if (writer != null) {
+                        writeSignature(writer, done, Util.convertTime(signTime, cfg.timeUnit), Util.convertTime(verifyTime, cfg.timeUnit), data, exported, signature, verifyResp.successful(), keyClass);
+                    }
+
+                    ++done;
                 }
             }
-            byte[] signature = signResp.getSignature();
-            Command.ECDSA_verify verify = new Command.ECDSA_verify(cardManager, ECTesterApplet.KEYPAIR_LOCAL, cfg.ECDSAType, data, signature);
-            long verifyTime = 0;
-            if (cfg.time) {
-                verifyTime = -Command.dryRunTime(cardManager, verify, 2, respWriter);
+            if (cfg.cleanup) {
+                Response cleanup = new Command.Cleanup(cardManager).send();
+                respWriter.outputResponse(cleanup);
+            }
+        } finally {
+            if (out != null) {
+                writer.close();
+                out.close();
+            }
+        }
+    }
+
+    private void writeSignature(BaseSampleWriter writer, int index, long signTime, long verifyTime, byte[] data, Response.Export exported, byte[] signature, boolean valid, byte keyClass) throws IOException {
+        byte[] pub = exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_W);
+        byte[] priv = exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S);
+        Object dataValue = (cfg.input != null) ? "" : data;
+        BigInteger privkey = new BigInteger(1, priv);
+        EC_Curve actualCurve = Command.findCurve(cfg, cfg.bits, keyClass);
+        byte[] k = new byte[0];
+        if (actualCurve != null) {
+            ECParameterSpec params = actualCurve.toSpec();
+            BigInteger kValue = ECUtil.recoverSignatureNonce(signature, data, privkey, params, CardUtil.getSigHashName(cfg.ECDSAType));
+            if (kValue != null) {
+                k = kValue.toByteArray();
+            }
+        }
+        writer.write(index, signTime, verifyTime, dataValue, pub, priv, signature, k, valid);
+    }
+
+    /**
+     * Handles one round of a batch.
+     */
+    @FunctionalInterface
+    private interface BatchRound {
+        /**
+         * @param batch The response of the batch.
+         * @param round The round in the batch.
+         * @param index The index of the round in the whole collection.
+         * @return Whether the round succeeded.
+         * @throws IOException
+         */
+        boolean handle(Response.Batch batch, int round, int index) throws IOException;
+    }
+
+    /**
+     * Runs <code>count</code> rounds (or rounds indefinitely if <code>count</code> is zero) on the card, in batches
+     * of the configured size, retries failed rounds at most 10 times in total.
+     *
+     * @param count   The number of rounds.
+     * @param command Creates the batch command for the given number of rounds.
+     * @param round   Handles every round of the batches.
+     * @param error   The error to print if the retries run out.
+     * @throws CardException if APDU transmission fails
+     * @throws IOException   if the round handling fails to write the output.
+     */
+    private void batched(int count, IntFunction<Command.Batch> command, BatchRound round, String error) throws CardException, IOException {
+        Command.Batch full = command.apply(cfg.batch);
+        int retry = 0;
+        int done = 0;
+        while (done < count || count == 0) {
+            int rounds = count == 0 ? cfg.batch : Math.min(cfg.batch, count - done);
+            Response.Batch response = (rounds == cfg.batch ? full : command.apply(rounds)).send();
+            respWriter.outputResponse(response);
+            if (response.getNaturalSW() == ISO7816.SW_INS_NOT_SUPPORTED) {
+                System.err.println(Colors.error("The applet does not support batches, install the current version of it."));
+                return;
             }
-            Response.ECDSA verifyResp = verify.send();
-            verifyTime += verifyResp.getDuration();
-            respWriter.outputResponse(verifyResp);
 
-            if (verifyResp.error()) {
+            if (response.getRounds() == 0) {
+                // The card did not fit a single round into the response, the whole batch failed.
                 if (retry < 10) {
                     ++retry;
                     continue;
                 } else {
-                    System.err.println(Colors.error("Couldn't obtain ECDSA signature from card response."));
-                    break;
+                    System.err.println(Colors.error(error));
+                    return;
                 }
             }
 
-            if (out != null) {
-                String pub = ByteUtil.bytesToHex(exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_W), false);
-                String priv = ByteUtil.bytesToHex(exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S), false);
-                String dataString = (cfg.input != null) ? "" : ByteUtil.bytesToHex(data, false);
-                BigInteger privkey = new BigInteger(1, exported.getParameter(ECTesterApplet.KEYPAIR_LOCAL, EC_Consts.PARAMETER_S));
-                EC_Curve actualCurve = Command.findCurve(cfg, cfg.bits, keyClass);
-                String k = "";
-                if (actualCurve != null) {
-                    ECParameterSpec params = actualCurve.toSpec();
-                    BigInteger kValue = ECUtil.recoverSignatureNonce(signature, data, privkey, params, CardUtil.getSigHashName(cfg.ECDSAType));
-                    if (kValue != null) {
-                        k = ByteUtil.bytesToHex(kValue.toByteArray(), false);
-                    }
+            for (int i = 0; i < response.getRounds(); ++i) {
+                if (round.handle(response, i, done)) {
+                    ++done;
+                } else if (retry < 10) {
+                    ++retry;
+                } else {
+                    System.err.println(Colors.error(error));
+                    return;
                 }
-                out.write(String.format("%d;%d;%d;%s;%s;%s;%s;%s;%d\n", done, Util.convertTime(signTime, cfg.timeUnit), Util.convertTime(verifyTime, cfg.timeUnit), dataString, pub, priv, ByteUtil.bytesToHex(signature, false), k, verifyResp.successful() ? 1 : 0));
-                out.flush();
             }
+        }
+    }
 
-            ++done;
+    /**
+     * Describe the measurement for the header of the binary sample format.
+     */
+    private Map<String, String> sampleMetadata(String command, byte keyClass) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("tool", "ECTesterReader " + VERSION);
+        metadata.put("command", command);
+        if (cfg.simulate) {
+            metadata.put("library", "jcardsim");
+        } else {
+            metadata.put("library", "card " + ByteUtil.bytesToHex(cardManager.getATR().getBytes(), false));
         }
-        if (cfg.cleanup) {
-            Response cleanup = new Command.Cleanup(cardManager).send();
-            respWriter.outputResponse(cleanup);
+        if (cfg.namedCurve != null) {
+            metadata.put("curve", cfg.namedCurve);
+        } else if (cfg.curveFile != null) {
+            metadata.put("curve", cfg.curveFile);
+        } else {
+            String field = keyClass == KeyPair.ALG_EC_FP ? "fp" : "f2m";
+            metadata.put("curve", (cfg.customCurve ? "custom " : "default ") + field + " " + cfg.bits + "b");
+        }
+        metadata.put("time-unit", cfg.timeUnit);
+        return metadata;
+    }
+
+    /**
+     * Describe the card and the options of a test run for the header of its checkpoint journal.
+     */
+    private Map<String, String> checkpointIdentity(CardMngr card) {
+        Map<String, String> identity = new LinkedHashMap<>();
+        identity.put("tool", "ECTesterReader " + VERSION);
+        if (cfg.simulate) {
+            identity.put("card", "jcardsim");
+        } else {
+            identity.put("card", ByteUtil.bytesToHex(card.getATR().getBytes(), false));
+        }
+        List<String> fields = new LinkedList<>();
+        if (cfg.primeField) {
+            fields.add("fp");
         }
-        if (out != null)
-            out.close();
+        if (cfg.binaryField) {
+            fields.add("f2m");
+        }
+        identity.put("field", String.join(",", fields));
+        identity.put("bits", cfg.all ? "all" : String.valueOf(cfg.bits));
+        if (cfg.namedCurve != null) {
+            identity.put("curve", cfg.namedCurve);
+        } else if (cfg.curveFile != null) {
+            identity.put("curve", cfg.curveFile);
+        } else {
+            identity.put("curve", cfg.customCurve ? "custom" : "default");
+        }
+        identity.put("key-builder", String.valueOf(cfg.keyBuilder == ECTesterApplet.BUILD_KEYBUILDER));
+        identity.put("ka-type", CardUtil.getKATypeString(cfg.ECKAType));
+        identity.put("sig-type", CardUtil.getSigTypeString(cfg.ECDSAType));
+        identity.put("cleanup", String.valueOf(cfg.cleanup));
+        identity.put("test-options", cfg.testOptions == null ? "" : String.join(",", new TreeSet<>(cfg.testOptions)));
+        return identity;
     }
 
     public static void main(String[] args) {
@@ -846,11 +1327,17 @@ public class ECTesterReader {
         public boolean fresh = false;
         public boolean time = false;
         public String timeUnit;
+        public int batch;
         public boolean cleanup = false;
         public boolean simulate = false;
         public boolean yes = false;
         public String format;
         public boolean color;
+        public String checkpoint;
+        public boolean resume;
+        public int[] shard;
+        public int cards = -1;
+        public boolean split;
 
         //Action-related options
         public String listNamed;
@@ -911,6 +1398,8 @@ public class ECTesterReader {
             simulate = cli.hasOption("simulate");
             yes = cli.hasOption("yes");
             color = cli.hasOption("color");
+            checkpoint = cli.getOptionValue("checkpoint");
+            resume = cli.hasOption("resume");
             Colors.enabled = color;
 
             timeUnit = cli.getOptionValue("time-unit", "micro");
@@ -920,13 +1409,45 @@ public class ECTesterReader {
                 return false;
             }
 
+            if (cli.hasOption("batch")) {
+                batch = Integer.parseInt(cli.getOptionValue("batch"));
+                if (batch < 1 || batch > 255) {
+                    System.err.println(Colors.error("Batch size must be between 1 and 255."));
+                    return false;
+                }
+                if (fresh || time) {
+                    System.err.println(Colors.error("Batches can not be run with --fresh or --time."));
+                    return false;
+                }
+                if (!cli.hasOption("generate") && !cli.hasOption("ecdh") && !cli.hasOption("ecdhc") && !cli.hasOption("ecdsa")) {
+                    System.err.println(Colors.error("Batches can only be run with -g, -dh or -dsa."));
+                    return false;
+                }
+            }
+
+            if (cli.hasOption("data")) {
+                for (String dir : cli.getOptionValues("data")) {
+                    try {
+                        EC_Store.getInstance().addCategories(Paths.get(dir));
+                    } catch (IOException | InvalidPathException e) {
+                        System.err.println(Colors.error("Could not load data from " + dir + ": " + e.getMessage()));
+                        return false;
+                    }
+                }
+            }
+
             if (cli.hasOption("list-named")) {
                 listNamed = cli.getOptionValue("list-named");
                 return true;
             }
 
             format = cli.getOptionValue("format");
-            String[] formats = new String[]{"text", "xml", "yaml", "yml"};
+            String[] formats;
+            if (cli.hasOption("generate") || cli.hasOption("ecdh") || cli.hasOption("ecdsa")) {
+                formats = new String[]{"csv", "bin"};
+            } else {
+                formats = new String[]{"text", "xml", "yaml", "yml", "jsonl"};
+            }
             if (format != null && !Arrays.asList(formats).contains(format)) {
                 System.err.println(Colors.error("Wrong output format " + format + ". Should be one of " + Arrays.toString(formats)));
                 return false;
@@ -1059,6 +1580,40 @@ public class ECTesterReader {
                     System.err.println("Cannot have both preset and random option enabled.");
                     return false;
                 }
+
+                if (resume && checkpoint == null) {
+                    System.err.println(Colors.error("Resuming requires a checkpoint journal."));
+                    return false;
+                }
+
+                if (cli.hasOption("shard")) {
+                    shard = CLITools.parseShard(cli.getOptionValue("shard"));
+                    if (shard == null) {
+                        System.err.println(Colors.error("Invalid shard " + cli.getOptionValue("shard") + ", should be i/n with 0 <= i < n."));
+                        return false;
+                    }
+                }
+
+                if (cli.hasOption("cards")) {
+                    cards = Integer.parseInt(cli.getOptionValue("cards", "0"));
+                    if (cards < 0 || (simulate && cards == 0)) {
+                        System.err.println(Colors.error("Invalid number of cards, need at least one" + (simulate ? " simulated card." : ".")));
+                        return false;
+                    }
+                    if (outputs == null) {
+                        System.err.println(Colors.error("Testing several cards requires an output file, each card writes into its own copy of it."));
+                        return false;
+                    }
+                }
+                split = cli.hasOption("split");
+                if (split && cards < 0) {
+                    System.err.println(Colors.error("Splitting the test suite requires testing several cards with --cards."));
+                    return false;
+                }
+                if (split && shard != null) {
+                    System.err.println(Colors.error("Cannot split the test suite into shards of cards and also run only one shard of it."));
+                    return false;
+                }
             } else if (cli.hasOption("ecdh")) {
                 if (primeField == binaryField) {
                     System.err.print(Colors.error("Need to specify field with -fp or -f2m. (not both)"));
@@ -16,9 +16,10 @@ import javacard.security.KeyPair;
 
 import javax.smartcardio.CardException;
 import javax.smartcardio.CommandAPDU;
-import javax.smartcardio.ResponseAPDU;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -26,22 +27,70 @@ import java.util.List;
  * @author Jan Jancar johny@neuromancer.sk
  */
 public abstract class Command implements Cloneable {
-    CommandAPDU cmd;
     CardMngr cardManager;
+    private byte ins;
+    private byte p1;
+    private byte p2;
     // Workaround for a stupid Java bug that went unfixed for !12! years,
     // and for the even more stupid module system, which cannot properly work
     // with the fact that JCardSim has some java.* packages...
     final byte[] GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM = new byte[]{0};
 
 
-    Command(CardMngr cardManager) {
+    Command(CardMngr cardManager, byte ins, byte p1, byte p2) {
         this.cardManager = cardManager;
+        this.ins = ins;
+        this.p1 = p1;
+        this.p2 = p2;
     }
 
+    /**
+     * @return The APDU of this command, encoded into a new buffer, for output.
+     */
     public CommandAPDU getAPDU() {
-        return cmd;
+        return new CommandAPDU(encode(ByteBuffer.allocate(CardMngr.COMMAND_LENGTH)));
     }
 
+    /**
+     * @return The APDU of this command, encoded in place into the command buffer of the card manager,
+     * valid until the next send.
+     */
+    ByteBuffer encode() {
+        return encode(cardManager.getCommandBuffer());
+    }
+
+    /**
+     * Encode the header and the data of this command into the <code>apdu</code> buffer, as a short APDU,
+     * or an extended one if the data is longer than 255 bytes.
+     *
+     * @return The <code>apdu</code> buffer, flipped.
+     */
+    private ByteBuffer encode(ByteBuffer apdu) {
+        byte[] bytes = apdu.array();
+        ((Buffer) apdu).clear();
+        apdu.put(ECTesterApplet.CLA_ECTESTERAPPLET).put(ins).put(p1).put(p2);
+        // The data is written after the three bytes of an extended Lc and moved if a short one is enough.
+        int dataOffset = CardMngr.OFFSET_DATA + 2;
+        ((Buffer) apdu).position(dataOffset);
+        writeData(apdu);
+        int length = apdu.position() - dataOffset;
+        if (length > 0xff) {
+            bytes[CardMngr.OFFSET_LC] = 0;
+            ByteUtil.setShort(bytes, CardMngr.OFFSET_LC + 1, (short) length);
+        } else {
+            bytes[CardMngr.OFFSET_LC] = (byte) length;
+            System.arraycopy(bytes, dataOffset, bytes, CardMngr.OFFSET_DATA, length);
+            ((Buffer) apdu).position(CardMngr.OFFSET_DATA + length);
+        }
+        ((Buffer) apdu).flip();
+        return apdu;
+    }
+
+    /**
+     * Write the data of this command into the <code>apdu</code> buffer, at its position.
+     */
+    abstract void writeData(ByteBuffer apdu);
+
     public abstract Response send() throws CardException;
 
     public static List<Response> sendAll(List<Command> commands) throws CardException {
@@ -197,18 +246,22 @@ public abstract class Command implements Cloneable {
          * @param kaType      which type of KeyAgreement to use
          */
         public AllocateKeyAgreement(CardMngr cardManager, byte kaType) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ALLOCATE_KA, (byte) 0, (byte) 0);
             this.kaType = kaType;
-            byte[] data = new byte[]{kaType};
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ALLOCATE_KA, 0x00, 0x00, data);
+        }
+
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(kaType);
         }
 
         @Override
         public Response.AllocateKeyAgreement send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.AllocateKeyAgreement(response, getDescription(), elapsed, kaType);
+            return new Response.AllocateKeyAgreement(received, getDescription(), elapsed, kaType);
         }
 
         @Override
@@ -230,18 +283,22 @@ public abstract class Command implements Cloneable {
          * @param sigType     which type of Signature to use
          */
         public AllocateSignature(CardMngr cardManager, byte sigType) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ALLOCATE_SIG, (byte) 0, (byte) 0);
             this.sigType = sigType;
-            byte[] data = new byte[]{sigType};
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ALLOCATE_SIG, 0x00, 0x00, data);
+        }
+
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(sigType);
         }
 
         @Override
         public Response.AllocateSignature send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.AllocateSignature(response, getDescription(), elapsed, sigType);
+            return new Response.AllocateSignature(received, getDescription(), elapsed, sigType);
         }
 
         @Override
@@ -269,27 +326,29 @@ public abstract class Command implements Cloneable {
          * @param keyClass    key class to allocate
          */
         public Allocate(CardMngr cardManager, byte keyPair, byte build, short keyLength, byte keyClass) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ALLOCATE, keyPair, build);
             this.keyPair = keyPair;
             this.build = build;
             this.keyLength = keyLength;
             this.keyClass = keyClass;
-
-            byte[] data = new byte[]{0, 0, keyClass};
-            ByteUtil.setShort(data, 0, keyLength);
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ALLOCATE, keyPair, build, data);
         }
 
         public Allocate(CardMngr cardManager, byte keyPair, short keyLength, byte keyClass) {
             this(cardManager, keyPair, (byte) (ECTesterApplet.BUILD_KEYPAIR | ECTesterApplet.BUILD_KEYBUILDER), keyLength, keyClass);
         }
 
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort(keyLength).put(keyClass);
+        }
+
         @Override
         public Response.Allocate send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Allocate(response, getDescription(), elapsed, keyPair, keyLength, keyClass);
+            return new Response.Allocate(received, getDescription(), elapsed, keyPair, keyLength, keyClass);
         }
 
         @Override
@@ -316,18 +375,22 @@ public abstract class Command implements Cloneable {
          * @param keyPair     which keyPair clear, local/remote (KEYPAIR_* || ...)
          */
         public Clear(CardMngr cardManager, byte keyPair) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_CLEAR, keyPair, (byte) 0);
             this.keyPair = keyPair;
+        }
 
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_CLEAR, keyPair, 0x00, GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
         }
 
         @Override
         public Response.Clear send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Clear(response, getDescription(), elapsed, keyPair);
+            return new Response.Clear(received, getDescription(), elapsed, keyPair);
         }
 
         @Override
@@ -361,28 +424,28 @@ public abstract class Command implements Cloneable {
          * @param external    external curve data, can be null
          */
         public Set(CardMngr cardManager, byte keyPair, byte curve, short params, byte[] external) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_SET, keyPair, curve);
             this.keyPair = keyPair;
             this.curve = curve;
             this.params = params;
             this.external = external;
+        }
 
-            int len = external != null ? 2 + external.length : 2;
-            byte[] data = new byte[len];
-            ByteUtil.setShort(data, 0, params);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort(params);
             if (external != null) {
-                System.arraycopy(external, 0, data, 2, external.length);
+                apdu.put(external);
             }
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_SET, keyPair, curve, data);
         }
 
         @Override
         public Response.Set send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Set(response, getDescription(), elapsed, keyPair, curve, params);
+            return new Response.Set(received, getDescription(), elapsed, keyPair, curve, params);
         }
 
         @Override
@@ -417,25 +480,25 @@ public abstract class Command implements Cloneable {
          * @param transformation transformation type (EC_Consts.TRANSFORMATION_*)
          */
         public Transform(CardMngr cardManager, byte keyPair, byte key, short params, short transformation) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_TRANSFORM, keyPair, key);
             this.keyPair = keyPair;
             this.key = key;
             this.params = params;
             this.transformation = transformation;
+        }
 
-            byte[] data = new byte[4];
-            ByteUtil.setShort(data, 0, params);
-            ByteUtil.setShort(data, 2, transformation);
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_TRANSFORM, keyPair, key, data);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort(params).putShort(transformation);
         }
 
         @Override
         public Response.Transform send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Transform(response, getDescription(), elapsed, keyPair, key, params, transformation);
+            return new Response.Transform(received, getDescription(), elapsed, keyPair, key, params, transformation);
         }
 
         @Override
@@ -466,18 +529,22 @@ public abstract class Command implements Cloneable {
          * @param keyPair     which keyPair to generate, local/remote (KEYPAIR_* || ...)
          */
         public Generate(CardMngr cardManager, byte keyPair) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_GENERATE, keyPair, (byte) 0);
             this.keyPair = keyPair;
+        }
 
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_GENERATE, keyPair, 0, GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
         }
 
         @Override
         public Response.Generate send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Generate(response, getDescription(), elapsed, keyPair);
+            return new Response.Generate(received, getDescription(), elapsed, keyPair);
         }
 
         @Override
@@ -509,23 +576,24 @@ public abstract class Command implements Cloneable {
          * @param params      params to export (EC_Consts.PARAMETER_* | ...)
          */
         public Export(CardMngr cardManager, byte keyPair, byte key, short params) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_EXPORT, keyPair, key);
             this.keyPair = keyPair;
             this.key = key;
             this.params = params;
+        }
 
-            byte[] data = new byte[2];
-            ByteUtil.setShort(data, 0, params);
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_EXPORT, keyPair, key, data);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort(params);
         }
 
         @Override
         public Response.Export send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Export(response, getDescription(), elapsed, keyPair, key, params);
+            return new Response.Export(received, getDescription(), elapsed, keyPair, key, params);
         }
 
         @Override
@@ -569,25 +637,26 @@ public abstract class Command implements Cloneable {
          * @param type           ECDH algorithm type (EC_Consts.KA_* | ...)
          */
         public ECDH(CardMngr cardManager, byte pubkey, byte privkey, byte export, short transformation, byte type) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ECDH, pubkey, privkey);
             this.pubkey = pubkey;
             this.privkey = privkey;
             this.export = export;
             this.transformation = transformation;
             this.type = type;
+        }
 
-            byte[] data = new byte[]{export, 0, 0, type};
-            ByteUtil.setShort(data, 1, transformation);
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ECDH, pubkey, privkey, data);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(export).putShort(transformation).put(type);
         }
 
         @Override
         public Response.ECDH send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.ECDH(response, getDescription(), elapsed, pubkey, privkey, export, transformation, type);
+            return new Response.ECDH(received, getDescription(), elapsed, pubkey, privkey, export, transformation, type);
         }
 
         @Override
@@ -628,27 +697,26 @@ public abstract class Command implements Cloneable {
          * @param pubkey         pubkey data to do ECDH with.
          */
         public ECDH_direct(CardMngr cardManager, byte privkey, byte export, short transformation, byte type, byte[] pubkey) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ECDH_DIRECT, privkey, export);
             this.privkey = privkey;
             this.export = export;
             this.transformation = transformation;
             this.type = type;
             this.pubkey = pubkey;
+        }
 
-            byte[] data = new byte[3 + pubkey.length];
-            ByteUtil.setShort(data, 0, transformation);
-            data[2] = type;
-            System.arraycopy(pubkey, 0, data, 3, pubkey.length);
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ECDH_DIRECT, privkey, export, data);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort(transformation).put(type).put(pubkey);
         }
 
         @Override
         public Response.ECDH send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.ECDH(response, getDescription(), elapsed, ECTesterApplet.KEYPAIR_REMOTE, privkey, export, transformation, type);
+            return new Response.ECDH(received, getDescription(), elapsed, ECTesterApplet.KEYPAIR_REMOTE, privkey, export, transformation, type);
         }
 
         @Override
@@ -683,7 +751,7 @@ public abstract class Command implements Cloneable {
          * @param raw         data to sign, can be null, in which case random data is signed.
          */
         public ECDSA(CardMngr cardManager, byte keyPair, byte sigType, byte export, byte[] raw) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ECDSA, keyPair, export);
             if (keyPair == ECTesterApplet.KEYPAIR_BOTH) {
                 throw new IllegalArgumentException();
             }
@@ -692,24 +760,25 @@ public abstract class Command implements Cloneable {
             this.sigType = sigType;
             this.export = export;
             this.raw = raw;
+        }
 
-            int len = raw != null ? raw.length : 0;
-            byte[] data = new byte[3 + len];
-            data[0] = sigType;
-            ByteUtil.setShort(data, 1, (short) len);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(sigType);
             if (raw != null) {
-                System.arraycopy(raw, 0, data, 3, len);
+                apdu.putShort((short) raw.length).put(raw);
+            } else {
+                apdu.putShort((short) 0);
             }
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ECDSA, keyPair, export, data);
         }
 
         @Override
         public Response.ECDSA send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.ECDSA(response, getDescription(), elapsed, keyPair, sigType, export, raw);
+            return new Response.ECDSA(received, getDescription(), elapsed, keyPair, sigType, export, raw);
         }
 
         @Override
@@ -737,7 +806,7 @@ public abstract class Command implements Cloneable {
          * @param raw         data to sign, can be null, in which case random data is signed.
          */
         public ECDSA_sign(CardMngr cardManager, byte keyPair, byte sigType, byte export, byte[] raw) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ECDSA_SIGN, keyPair, export);
             if (keyPair == ECTesterApplet.KEYPAIR_BOTH) {
                 throw new IllegalArgumentException();
             }
@@ -746,24 +815,25 @@ public abstract class Command implements Cloneable {
             this.sigType = sigType;
             this.export = export;
             this.raw = raw;
+        }
 
-            int len = raw != null ? raw.length : 0;
-            byte[] data = new byte[3 + len];
-            data[0] = sigType;
-            ByteUtil.setShort(data, 1, (short) len);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(sigType);
             if (raw != null) {
-                System.arraycopy(raw, 0, data, 3, len);
+                apdu.putShort((short) raw.length).put(raw);
+            } else {
+                apdu.putShort((short) 0);
             }
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ECDSA_SIGN, keyPair, export, data);
         }
 
         @Override
         public Response.ECDSA send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.ECDSA(response, getDescription(), elapsed, keyPair, sigType, export, raw);
+            return new Response.ECDSA(received, getDescription(), elapsed, keyPair, sigType, export, raw);
         }
 
         @Override
@@ -791,7 +861,7 @@ public abstract class Command implements Cloneable {
          * @param signature   signature data
          */
         public ECDSA_verify(CardMngr cardManager, byte keyPair, byte sigType, byte[] raw, byte[] signature) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_ECDSA_VERIFY, keyPair, sigType);
             if (keyPair == ECTesterApplet.KEYPAIR_BOTH) {
                 throw new IllegalArgumentException();
             }
@@ -803,22 +873,20 @@ public abstract class Command implements Cloneable {
             this.sigType = sigType;
             this.raw = raw;
             this.signature = signature;
+        }
 
-            byte[] data = new byte[4 + raw.length + signature.length];
-            ByteUtil.setShort(data, 0, (short) raw.length);
-            System.arraycopy(raw, 0, data, 2, raw.length);
-            ByteUtil.setShort(data, 2 + raw.length, (short) signature.length);
-            System.arraycopy(signature, 0, data, 2 + raw.length + 2, signature.length);
-
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_ECDSA_VERIFY, keyPair, sigType, data);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort((short) raw.length).put(raw).putShort((short) signature.length).put(signature);
         }
 
         @Override
         public Response.ECDSA send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.ECDSA(response, getDescription(), elapsed, keyPair, sigType, ECTesterApplet.EXPORT_FALSE, raw);
+            return new Response.ECDSA(received, getDescription(), elapsed, keyPair, sigType, ECTesterApplet.EXPORT_FALSE, raw);
         }
 
         @Override
@@ -839,17 +907,21 @@ public abstract class Command implements Cloneable {
          * @param cardManager cardManager to send APDU through
          */
         public Cleanup(CardMngr cardManager) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_CLEANUP, (byte) 0, (byte) 0);
+        }
 
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_CLEANUP, 0, 0, GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
         }
 
         @Override
         public Response.Cleanup send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.Cleanup(response, getDescription(), elapsed);
+            return new Response.Cleanup(received, getDescription(), elapsed);
         }
 
         @Override
@@ -867,17 +939,21 @@ public abstract class Command implements Cloneable {
          * @param cardManager cardManager to send APDU through
          */
         public GetInfo(CardMngr cardManager) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_GET_INFO, (byte) 0, (byte) 0);
+        }
 
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_GET_INFO, 0, 0, GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
         }
 
         @Override
         public Response.GetInfo send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.GetInfo(response, getDescription(), elapsed);
+            return new Response.GetInfo(received, getDescription(), elapsed);
         }
 
         @Override
@@ -897,18 +973,22 @@ public abstract class Command implements Cloneable {
          * @param dryRunMode
          */
         public SetDryRunMode(CardMngr cardManager, byte dryRunMode) {
-            super(cardManager);
+            super(cardManager, ECTesterApplet.INS_SET_DRY_RUN_MODE, dryRunMode, (byte) 0);
             this.dryRunMode = dryRunMode;
+        }
 
-            this.cmd = new CommandAPDU(ECTesterApplet.CLA_ECTESTERAPPLET, ECTesterApplet.INS_SET_DRY_RUN_MODE, dryRunMode, 0, GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(GOD_DAMN_JAVA_BUG_6474858_AND_GOD_DAMN_JAVA_12_MODULE_SYSTEM);
         }
 
         @Override
         public Response.SetDryRunMode send() throws CardException {
+            ByteBuffer apdu = encode();
             long elapsed = -System.nanoTime();
-            ResponseAPDU response = cardManager.send(cmd);
+            ByteBuffer received = cardManager.transmit(apdu);
             elapsed += System.nanoTime();
-            return new Response.SetDryRunMode(response, getDescription(), elapsed);
+            return new Response.SetDryRunMode(received, getDescription(), elapsed);
         }
 
         @Override
@@ -916,5 +996,148 @@ public abstract class Command implements Cloneable {
             return (dryRunMode == ECTesterApplet.MODE_NORMAL ? "Disable" : "Enable") + " dry run mode";
         }
     }
-}
 
+    /**
+     *
+     */
+    public static class Batch extends Command {
+        private byte generate;
+        private byte localKey;
+        private short localParams;
+        private byte remoteKey;
+        private short remoteParams;
+        private byte operation;
+        private byte type;
+        private byte keyPair;
+        private byte[] raw;
+        private int rounds;
+        private String[] descriptions;
+
+        /**
+         * Creates the INS_BATCH instruction.
+         *
+         * @param cardManager  cardManager to send APDU through
+         * @param rounds       how many rounds to run, at most 255, the card might run less of them
+         * @param generate     keyPair/s to generate every round (KEYPAIR_* | ...), 0 for none
+         * @param localKey     key/s to export from the local keyPair every round (EC_Consts.KEY_* | ...), 0 for none
+         * @param localParams  parameters to export from the local keyPair (EC_Consts.PARAMETER_* | ...)
+         * @param remoteKey    key/s to export from the remote keyPair every round (EC_Consts.KEY_* | ...), 0 for none
+         * @param remoteParams parameters to export from the remote keyPair (EC_Consts.PARAMETER_* | ...)
+         * @param operation    operation to perform every round (ECTesterApplet.BATCH_*)
+         * @param type         KeyAgreement type for ECDH, Signature type for ECDSA
+         * @param keyPair      keyPair to use for private key (KEYPAIR_LOCAL || KEYPAIR_REMOTE), ECDH uses the public key of the other one
+         * @param raw          data to sign, can be null, in which case random data is signed.
+         */
+        public Batch(CardMngr cardManager, int rounds, byte generate, byte localKey, short localParams, byte remoteKey, short remoteParams, byte operation, byte type, byte keyPair, byte[] raw) {
+            super(cardManager, ECTesterApplet.INS_BATCH, (byte) rounds, operation);
+            if (rounds < 1 || rounds > 0xff) {
+                throw new IllegalArgumentException();
+            }
+
+            this.rounds = rounds;
+            this.generate = generate;
+            this.localKey = localKey;
+            this.localParams = localParams;
+            this.remoteKey = remoteKey;
+            this.remoteParams = remoteParams;
+            this.operation = operation;
+            this.type = type;
+            this.keyPair = keyPair;
+            this.raw = raw;
+
+            List<String> descriptions = new ArrayList<>();
+            if (generate != 0) {
+                descriptions.add(new Generate(cardManager, generate).getDescription());
+            }
+            if (localKey != 0) {
+                descriptions.add(new Export(cardManager, ECTesterApplet.KEYPAIR_LOCAL, localKey, localParams).getDescription());
+            }
+            if (remoteKey != 0) {
+                descriptions.add(new Export(cardManager, ECTesterApplet.KEYPAIR_REMOTE, remoteKey, remoteParams).getDescription());
+            }
+            byte pubkey = keyPair == ECTesterApplet.KEYPAIR_LOCAL ? ECTesterApplet.KEYPAIR_REMOTE : ECTesterApplet.KEYPAIR_LOCAL;
+            if (operation == ECTesterApplet.BATCH_ECDH) {
+                descriptions.add(new ECDH(cardManager, pubkey, keyPair, ECTesterApplet.EXPORT_TRUE, EC_Consts.TRANSFORMATION_NONE, type).getDescription());
+            } else if (operation == ECTesterApplet.BATCH_ECDSA) {
+                descriptions.add(new ECDSA(cardManager, keyPair, type, ECTesterApplet.EXPORT_TRUE, raw).getDescription());
+            }
+            this.descriptions = descriptions.toArray(new String[0]);
+        }
+
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.put(generate).put(localKey).putShort(localParams).put(remoteKey).putShort(remoteParams).put(type).put(keyPair);
+            if (raw != null) {
+                apdu.putShort((short) raw.length).put(raw);
+            } else {
+                apdu.putShort((short) 0);
+            }
+        }
+
+        @Override
+        public Response.Batch send() throws CardException {
+            ByteBuffer apdu = encode();
+            long elapsed = -System.nanoTime();
+            ByteBuffer received = cardManager.transmit(apdu);
+            elapsed += System.nanoTime();
+            return new Response.Batch(received, getDescription(), elapsed, generate, localKey, localParams, remoteKey, remoteParams, operation, type, keyPair, raw, descriptions);
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("Batch of %d rounds: %s", rounds, String.join(", ", descriptions));
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Repeat extends Command {
+        private Command command;
+        private int count;
+
+        /**
+         * Creates the INS_REPEAT instruction, which repeats the <code>command</code> on-card.
+         *
+         * @param cardManager cardManager to send APDU through
+         * @param command     command to repeat, one of Generate, ECDH, ECDSA_sign or ECDSA_verify
+         * @param count       how many times to repeat the command, at most 32767
+         */
+        public Repeat(CardMngr cardManager, Command command, int count) {
+            super(cardManager, ECTesterApplet.INS_REPEAT, (byte) 0, (byte) 0);
+            if (count < 1 || count > Short.MAX_VALUE) {
+                throw new IllegalArgumentException();
+            }
+            this.command = command;
+            this.count = count;
+        }
+
+        @Override
+        void writeData(ByteBuffer apdu) {
+            apdu.putShort((short) count).put(command.ins).put(command.p1).put(command.p2);
+            command.writeData(apdu);
+        }
+
+        public Command getCommand() {
+            return command;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        @Override
+        public Response.Repeat send() throws CardException {
+            ByteBuffer apdu = encode();
+            long elapsed = -System.nanoTime();
+            ByteBuffer received = cardManager.transmit(apdu);
+            elapsed += System.nanoTime();
+            return new Response.Repeat(received, getDescription(), elapsed, count);
+        }
+
+        @Override
+        public String getDescription() {
+            return String.format("%s, repeated %d times", command.getDescription(), count);
+        }
+    }
+}
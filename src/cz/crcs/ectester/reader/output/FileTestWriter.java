@@ -1,9 +1,10 @@
 package cz.crcs.ectester.reader.output;
 
 import cz.crcs.ectester.common.output.TeeTestWriter;
+import cz.crcs.ectester.common.output.TestMerger;
 import cz.crcs.ectester.common.output.TestWriter;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.PrintStream;
@@ -14,27 +15,34 @@ import java.util.regex.Pattern;
  */
 public class FileTestWriter extends TeeTestWriter {
 
-    private static final Pattern PREFIX = Pattern.compile("(text|xml|yaml|yml):.+");
+    private static final Pattern PREFIX = Pattern.compile("(text|xml|yaml|yml|jsonl):.+");
 
-    public FileTestWriter(String defaultFormat, boolean systemOut, String[] files) throws ParserConfigurationException, FileNotFoundException {
+    public FileTestWriter(String defaultFormat, boolean systemOut, String[] files) throws XMLStreamException, FileNotFoundException {
         int fLength = files == null ? 0 : files.length;
-        writers = new TestWriter[systemOut ? fLength + 1 : fLength];
+        int offset = systemOut ? 1 : 0;
+        writers = new TestWriter[fLength + offset];
         if (systemOut) {
             writers[0] = createWriter(defaultFormat, System.out);
         }
         for (int i = 0; i < fLength; ++i) {
-            String fName = files[i];
-            String format = null;
-            if (PREFIX.matcher(fName).matches()) {
-                String[] split = fName.split(":", 2);
-                format = split[0];
-                fName = split[1];
-            }
-            writers[i + 1] = createWriter(format, new PrintStream(new FileOutputStream(fName)));
+            String[] output = resolve(files[i]);
+            writers[i + offset] = createWriter(output[0], new PrintStream(new FileOutputStream(output[1])));
         }
     }
 
-    private TestWriter createWriter(String format, PrintStream out) throws ParserConfigurationException {
+    /**
+     * @param file An output file name, possibly prefixed by its format, as in <code>xml:out.xml</code>.
+     * @return The format of the output and the file name. The format is the prefix if there is one, else it is
+     * guessed from the file extension, and is null (text) if that is not known.
+     */
+    public static String[] resolve(String file) {
+        if (PREFIX.matcher(file).matches()) {
+            return file.split(":", 2);
+        }
+        return new String[]{TestMerger.formatOf(file), file};
+    }
+
+    private TestWriter createWriter(String format, PrintStream out) throws XMLStreamException {
         if (format == null) {
             return new TextTestWriter(out);
         }
@@ -46,6 +54,8 @@ public class FileTestWriter extends TeeTestWriter {
             case "yaml":
             case "yml":
                 return new YAMLTestWriter(out);
+            case "jsonl":
+                return new JSONLTestWriter(out);
             default:
                 return null;
         }
@@ -0,0 +1,120 @@
+package cz.crcs.ectester.reader.output;
+
+import cz.crcs.ectester.common.output.BaseJSONLTestWriter;
+import cz.crcs.ectester.common.test.TestSuite;
+import cz.crcs.ectester.common.test.Testable;
+import cz.crcs.ectester.common.util.ByteUtil;
+import cz.crcs.ectester.reader.CardMngr;
+import cz.crcs.ectester.reader.ECTesterReader;
+import cz.crcs.ectester.reader.command.Command;
+import cz.crcs.ectester.reader.response.Response;
+import cz.crcs.ectester.reader.test.CardTestSuite;
+import cz.crcs.ectester.reader.test.CommandTestable;
+
+import javax.smartcardio.CardException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class JSONLTestWriter extends BaseJSONLTestWriter {
+    public JSONLTestWriter(OutputStream output) {
+        super(output);
+    }
+
+    private void writeCommand(Command c) throws IOException {
+        name("command");
+        if (c == null) {
+            nullValue();
+            return;
+        }
+        beginObject();
+        field("apdu", ByteUtil.bytesToHex(c.getAPDU().getBytes()));
+        field("desc", c.getDescription());
+        endObject();
+    }
+
+    private void writeResponse(Response r) throws IOException {
+        name("response");
+        if (r == null) {
+            nullValue();
+            return;
+        }
+        beginObject();
+        field("successful", r.successful());
+        field("apdu", ByteUtil.bytesToHex(r.getAPDU().getBytes()));
+        field("natural_sw", Short.toUnsignedInt(r.getNaturalSW()));
+        name("sws");
+        beginArray();
+        for (int i = 0; i < r.getNumSW(); ++i) {
+            value(Short.toUnsignedInt(r.getSW(i)));
+        }
+        endArray();
+        field("duration", r.getDuration());
+        field("desc", r.getDescription());
+        endObject();
+    }
+
+    @Override
+    protected void writeTestable(Testable t) throws IOException {
+        if (t instanceof CommandTestable) {
+            CommandTestable cmd = (CommandTestable) t;
+            field("type", "command");
+            writeCommand(cmd.getCommand());
+            writeResponse(cmd.getResponse());
+        }
+    }
+
+    private void writeCPLC(CardMngr card) throws IOException {
+        name("cplc");
+        beginObject();
+        try {
+            CardMngr.CPLC cplc = card.getCPLC();
+            for (Map.Entry<CardMngr.CPLC.Field, byte[]> entry : cplc.values().entrySet()) {
+                field(entry.getKey().name(), ByteUtil.bytesToHex(entry.getValue(), false));
+            }
+        } catch (CardException ignored) {
+        }
+        endObject();
+    }
+
+    private void writeApplet(CardMngr card) throws IOException {
+        name("applet");
+        try {
+            Response.GetInfo info = new Command.GetInfo(card).send();
+            beginObject();
+            field("version", info.getVersion());
+            field("javacard", Double.parseDouble(Float.toString(info.getJavaCardVersion())));
+            field("base", info.getBase());
+            field("cleanup", info.getCleanupSupport());
+            name("arrays");
+            beginObject();
+            field("apduBuf", info.getApduBufferLength());
+            field("ramArray", info.getRamArrayLength());
+            field("ramArray2", info.getRamArray2Length());
+            field("apduArray", info.getApduArrayLength());
+            endObject();
+            endObject();
+        } catch (CardException ignored) {
+            nullValue();
+        }
+    }
+
+    @Override
+    protected void writeDevice(TestSuite suite) throws IOException {
+        if (suite instanceof CardTestSuite) {
+            CardTestSuite cardSuite = (CardTestSuite) suite;
+            beginObject();
+            field("type", "card");
+            field("ectester", ECTesterReader.VERSION + ECTesterReader.GIT_COMMIT);
+            writeCPLC(cardSuite.getCard());
+            writeApplet(cardSuite.getCard());
+            field("ATR", ByteUtil.bytesToHex(cardSuite.getCard().getATR().getBytes(), false));
+            endObject();
+        } else {
+            nullValue();
+        }
+    }
+}
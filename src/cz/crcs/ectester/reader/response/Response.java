@@ -6,12 +6,16 @@ import cz.crcs.ectester.common.util.ByteUtil;
 import javacard.framework.ISO7816;
 
 import javax.smartcardio.ResponseAPDU;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * @author Jan Jancar johny@neuromancer.sk
  */
 public abstract class Response {
-    private ResponseAPDU resp;
+    private byte[] apdu;
+    private short naturalSW;
     private long time;
     private short[] sws;
     private int numSW = 0;
@@ -20,23 +24,36 @@ public abstract class Response {
     private boolean error = false;
     private String description;
 
-    public Response(ResponseAPDU response, String description, long time) {
-        this.resp = response;
+    /**
+     * @param response The response data and status words, from the position to the limit of the buffer. It is
+     *                 parsed in place, as it can be the receive buffer of the card manager, and only its bytes
+     *                 are kept, for {@link #getAPDU()}.
+     */
+    public Response(ByteBuffer response, String description, long time) {
+        this.apdu = new byte[response.remaining()];
+        ((Buffer) response).mark();
+        response.get(apdu);
+        ((Buffer) response).reset();
+        this.naturalSW = apdu.length >= 2 ? response.getShort(response.limit() - 2) : 0;
         this.description = description;
         this.time = time;
     }
 
-    boolean parse(int numSW, int numParams) {
+    /**
+     * Parse the status words and parameters from the <code>response</code> this response was created from.
+     */
+    boolean parse(ByteBuffer response, int numSW, int numParams) {
         this.numSW = numSW;
         this.sws = new short[numSW];
 
-        byte[] data = resp.getData();
+        int start = response.position();
+        int length = getLength();
         int offset = 0;
 
         //parse SWs in response
         for (int i = 0; i < numSW; ++i) {
-            if (getLength() >= (offset + 2)) {
-                short sw = ByteUtil.getShort(data, offset);
+            if (length >= (offset + 2)) {
+                short sw = response.getShort(start + offset);
                 offset += 2;
                 sws[i] = sw;
                 if (sw != ISO7816.SW_NO_ERROR) {
@@ -48,7 +65,7 @@ public abstract class Response {
             }
         }
 
-        if ((short) resp.getSW() != ISO7816.SW_NO_ERROR) {
+        if (naturalSW != ISO7816.SW_NO_ERROR) {
             success = false;
             error = true;
         }
@@ -57,31 +74,30 @@ public abstract class Response {
         //try to parse numParams..
         params = new byte[numParams][];
         for (int i = 0; i < numParams; i++) {
-            if (data.length - offset < 2) {
+            if (length - offset < 2) {
                 success = false;
                 error = true;
                 break;
             }
-            short paramLength = ByteUtil.getShort(data, offset);
+            short paramLength = response.getShort(start + offset);
             offset += 2;
-            if (data.length < offset + paramLength) {
+            if (length < offset + paramLength) {
                 error = true;
                 success = false;
                 break;
             }
-            params[i] = new byte[paramLength];
-            System.arraycopy(data, offset, params[i], 0, paramLength);
+            params[i] = Arrays.copyOfRange(apdu, offset, offset + paramLength);
             offset += paramLength;
         }
         return success;
     }
 
     public ResponseAPDU getAPDU() {
-        return resp;
+        return new ResponseAPDU(apdu);
     }
 
     public byte[] getData() {
-        return resp.getData();
+        return Arrays.copyOf(apdu, getLength());
     }
 
     public long getDuration() {
@@ -89,7 +105,7 @@ public abstract class Response {
     }
 
     public short getNaturalSW() {
-        return (short) resp.getSW();
+        return naturalSW;
     }
 
     public short[] getSWs() {
@@ -121,7 +137,7 @@ public abstract class Response {
     }
 
     public int getLength() {
-        return resp.getNr();
+        return Math.max(0, apdu.length - 2);
     }
 
     public boolean successful() {
@@ -142,11 +158,11 @@ public abstract class Response {
     public static class AllocateKeyAgreement extends Response {
         private byte kaType;
 
-        public AllocateKeyAgreement(ResponseAPDU response, String description, long time, byte kaType) {
+        public AllocateKeyAgreement(ByteBuffer response, String description, long time, byte kaType) {
             super(response, description, time);
             this.kaType = kaType;
 
-            parse(1, 0);
+            parse(response, 1, 0);
         }
     }
 
@@ -156,11 +172,11 @@ public abstract class Response {
     public static class AllocateSignature extends Response {
         private byte sigType;
 
-        public AllocateSignature(ResponseAPDU response, String description, long time, byte sigType) {
+        public AllocateSignature(ByteBuffer response, String description, long time, byte sigType) {
             super(response, description, time);
             this.sigType = sigType;
 
-            parse(1, 0);
+            parse(response, 1, 0);
         }
     }
 
@@ -172,7 +188,7 @@ public abstract class Response {
         private short keyLength;
         private byte keyClass;
 
-        public Allocate(ResponseAPDU response, String description, long time, byte keyPair, short keyLength, byte keyClass) {
+        public Allocate(ByteBuffer response, String description, long time, byte keyPair, short keyLength, byte keyClass) {
             super(response, description, time);
             this.keyPair = keyPair;
             this.keyLength = keyLength;
@@ -181,7 +197,7 @@ public abstract class Response {
             int pairs = 0;
             if ((keyPair & ECTesterApplet.KEYPAIR_LOCAL) != 0) pairs++;
             if ((keyPair & ECTesterApplet.KEYPAIR_REMOTE) != 0) pairs++;
-            parse(pairs, 0);
+            parse(response, pairs, 0);
         }
     }
 
@@ -191,14 +207,14 @@ public abstract class Response {
     public static class Clear extends Response {
         private byte keyPair;
 
-        public Clear(ResponseAPDU response, String description, long time, byte keyPair) {
+        public Clear(ByteBuffer response, String description, long time, byte keyPair) {
             super(response, description, time);
             this.keyPair = keyPair;
 
             int pairs = 0;
             if ((keyPair & ECTesterApplet.KEYPAIR_LOCAL) != 0) pairs++;
             if ((keyPair & ECTesterApplet.KEYPAIR_REMOTE) != 0) pairs++;
-            parse(pairs, 0);
+            parse(response, pairs, 0);
         }
     }
 
@@ -210,7 +226,7 @@ public abstract class Response {
         private byte curve;
         private short parameters;
 
-        public Set(ResponseAPDU response, String description, long time, byte keyPair, byte curve, short parameters) {
+        public Set(ByteBuffer response, String description, long time, byte keyPair, byte curve, short parameters) {
             super(response, description, time);
             this.keyPair = keyPair;
             this.curve = curve;
@@ -220,7 +236,7 @@ public abstract class Response {
             if ((keyPair & ECTesterApplet.KEYPAIR_LOCAL) != 0) pairs++;
             if ((keyPair & ECTesterApplet.KEYPAIR_REMOTE) != 0) pairs++;
 
-            parse(pairs, 0);
+            parse(response, pairs, 0);
         }
     }
 
@@ -233,7 +249,7 @@ public abstract class Response {
         private short params;
         private short transformation;
 
-        public Transform(ResponseAPDU response, String description, long time, byte keyPair, byte key, short params, short transformation) {
+        public Transform(ByteBuffer response, String description, long time, byte keyPair, byte key, short params, short transformation) {
             super(response, description, time);
             this.keyPair = keyPair;
             this.key = key;
@@ -244,7 +260,7 @@ public abstract class Response {
             if ((keyPair & ECTesterApplet.KEYPAIR_LOCAL) != 0) pairs++;
             if ((keyPair & ECTesterApplet.KEYPAIR_REMOTE) != 0) pairs++;
 
-            parse(pairs, 0);
+            parse(response, pairs, 0);
         }
     }
 
@@ -254,14 +270,14 @@ public abstract class Response {
     public static class Generate extends Response {
         private byte keyPair;
 
-        public Generate(ResponseAPDU response, String description, long time, byte keyPair) {
+        public Generate(ByteBuffer response, String description, long time, byte keyPair) {
             super(response, description, time);
             this.keyPair = keyPair;
 
             int generated = 0;
             if ((keyPair & ECTesterApplet.KEYPAIR_LOCAL) != 0) generated++;
             if ((keyPair & ECTesterApplet.KEYPAIR_REMOTE) != 0) generated++;
-            parse(generated, 0);
+            parse(response, generated, 0);
         }
     }
 
@@ -273,7 +289,7 @@ public abstract class Response {
         private byte key;
         private short parameters;
 
-        public Export(ResponseAPDU response, String description, long time, byte keyPair, byte key, short parameters) {
+        public Export(ByteBuffer response, String description, long time, byte keyPair, byte key, short parameters) {
             super(response, description, time);
             this.keyPair = keyPair;
             this.key = key;
@@ -297,7 +313,7 @@ public abstract class Response {
             if ((key & EC_Consts.KEY_PUBLIC) != 0 && (parameters & EC_Consts.PARAMETER_W) != 0) other++;
             if ((key & EC_Consts.KEY_PRIVATE) != 0 && (parameters & EC_Consts.PARAMETER_S) != 0) other++;
 
-            parse(exported, exported * keys * paramCount + exported * other);
+            parse(response, exported, exported * keys * paramCount + exported * other);
         }
 
         private int getIndex(byte keyPair, short param) {
@@ -366,7 +382,7 @@ public abstract class Response {
         private short transformation;
         private byte type;
 
-        public ECDH(ResponseAPDU response, String description, long time, byte pubkey, byte privkey, byte export, short transformation, byte type) {
+        public ECDH(ByteBuffer response, String description, long time, byte pubkey, byte privkey, byte export, short transformation, byte type) {
             super(response, description, time);
             this.pubkey = pubkey;
             this.privkey = privkey;
@@ -374,7 +390,7 @@ public abstract class Response {
             this.transformation = transformation;
             this.type = type;
 
-            parse(1, (export == ECTesterApplet.EXPORT_TRUE) ? 1 : 0);
+            parse(response, 1, (export == ECTesterApplet.EXPORT_TRUE) ? 1 : 0);
         }
 
         public short getTransformation() {
@@ -407,14 +423,14 @@ public abstract class Response {
         private byte export;
         private byte[] raw;
 
-        public ECDSA(ResponseAPDU response, String description, long time, byte keyPair, byte sigType, byte export, byte[] raw) {
+        public ECDSA(ByteBuffer response, String description, long time, byte keyPair, byte sigType, byte export, byte[] raw) {
             super(response, description, time);
             this.keyPair = keyPair;
             this.sigType = sigType;
             this.export = export;
             this.raw = raw;
 
-            parse(1, (export == ECTesterApplet.EXPORT_TRUE) ? 1 : 0);
+            parse(response, 1, (export == ECTesterApplet.EXPORT_TRUE) ? 1 : 0);
         }
 
         public boolean hasSignature() {
@@ -431,10 +447,10 @@ public abstract class Response {
      */
     public static class Cleanup extends Response {
 
-        public Cleanup(ResponseAPDU response, String description, long time) {
+        public Cleanup(ByteBuffer response, String description, long time) {
             super(response, description, time);
 
-            parse(1, 0);
+            parse(response, 1, 0);
         }
     }
 
@@ -450,25 +466,24 @@ public abstract class Response {
         private short ramArray2Length;
         private short apduArrayLength;
 
-        public GetInfo(ResponseAPDU response, String description, long time) {
+        public GetInfo(ByteBuffer response, String description, long time) {
             super(response, description, time);
 
-            parse(1, 1);
-            int offset = 2 + 2 + getParamLength(0);
-            byte[] data = getData();
-            base = ByteUtil.getShort(data, offset);
+            parse(response, 1, 1);
+            int offset = response.position() + 2 + 2 + getParamLength(0);
+            base = response.getShort(offset);
             offset += 2;
-            jcVersion = ByteUtil.getShort(data, offset);
+            jcVersion = response.getShort(offset);
             offset += 2;
-            cleanupSupport = ByteUtil.getShort(data, offset);
+            cleanupSupport = response.getShort(offset);
             offset += 2;
-            apduBufferLength = ByteUtil.getShort(data, offset);
+            apduBufferLength = response.getShort(offset);
             offset += 2;
-            ramArrayLength = ByteUtil.getShort(data, offset);
+            ramArrayLength = response.getShort(offset);
             offset += 2;
-            ramArray2Length = ByteUtil.getShort(data, offset);
+            ramArray2Length = response.getShort(offset);
             offset += 2;
-            apduArrayLength = ByteUtil.getShort(data, offset);
+            apduArrayLength = response.getShort(offset);
         }
 
         public String getVersion() {
@@ -517,10 +532,147 @@ public abstract class Response {
      */
     public static class SetDryRunMode extends Response {
 
-        public SetDryRunMode(ResponseAPDU response, String description, long time) {
+        public SetDryRunMode(ByteBuffer response, String description, long time) {
+            super(response, description, time);
+
+            parse(response, 1, 0);
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Batch extends Response {
+        private Generate[] generates;
+        private Export[] localExports;
+        private Export[] remoteExports;
+        private ECDH[] ecdhs;
+        private ECDSA[] ecdsas;
+        private int rounds;
+        private int offset;
+
+        public Batch(ByteBuffer response, String description, long time, byte generate, byte localKey, short localParams, byte remoteKey, short remoteParams, byte operation, byte type, byte keyPair, byte[] raw, String[] descriptions) {
             super(response, description, time);
 
-            parse(1, 0);
+            int ran = 0;
+            byte[] data = getData();
+            if (parse(response, 1, 0) && data.length >= 4) {
+                ran = response.getShort(response.position() + 2) & 0xffff;
+            }
+            generates = new Generate[ran];
+            localExports = new Export[ran];
+            remoteExports = new Export[ran];
+            ecdhs = new ECDH[ran];
+            ecdsas = new ECDSA[ran];
+
+            byte pubkey = keyPair == ECTesterApplet.KEYPAIR_LOCAL ? ECTesterApplet.KEYPAIR_REMOTE : ECTesterApplet.KEYPAIR_LOCAL;
+            offset = 4;
+            while (rounds < ran) {
+                int op = 0;
+                ByteBuffer next;
+                if (generate != 0) {
+                    if ((next = next(data)) == null) break;
+                    generates[rounds] = new Generate(next, descriptions[op++], 0, generate);
+                }
+                if (localKey != 0) {
+                    if ((next = next(data)) == null) break;
+                    localExports[rounds] = new Export(next, descriptions[op++], 0, ECTesterApplet.KEYPAIR_LOCAL, localKey, localParams);
+                }
+                if (remoteKey != 0) {
+                    if ((next = next(data)) == null) break;
+                    remoteExports[rounds] = new Export(next, descriptions[op++], 0, ECTesterApplet.KEYPAIR_REMOTE, remoteKey, remoteParams);
+                }
+                if (operation == ECTesterApplet.BATCH_ECDH) {
+                    if ((next = next(data)) == null) break;
+                    ecdhs[rounds] = new ECDH(next, descriptions[op], 0, pubkey, keyPair, ECTesterApplet.EXPORT_TRUE, EC_Consts.TRANSFORMATION_NONE, type);
+                } else if (operation == ECTesterApplet.BATCH_ECDSA) {
+                    if ((next = next(data)) == null) break;
+                    ecdsas[rounds] = new ECDSA(next, descriptions[op], 0, keyPair, type, ECTesterApplet.EXPORT_TRUE, raw);
+                }
+                rounds++;
+            }
+        }
+
+        /**
+         * @return The response of the next operation, as if it was sent by its own instruction,
+         * or null if the batch response is truncated.
+         */
+        private ByteBuffer next(byte[] data) {
+            if (data.length - offset < 2) {
+                return null;
+            }
+            int length = ByteUtil.getShort(data, offset) & 0xffff;
+            offset += 2;
+            if (data.length - offset < length) {
+                return null;
+            }
+            byte[] apdu = new byte[length + 2];
+            System.arraycopy(data, offset, apdu, 0, length);
+            ByteUtil.setShort(apdu, length, ISO7816.SW_NO_ERROR);
+            offset += length;
+            return ByteBuffer.wrap(apdu);
+        }
+
+        /**
+         * @return The number of rounds the card ran, can be less than requested.
+         */
+        public int getRounds() {
+            return rounds;
+        }
+
+        public Generate getGenerate(int round) {
+            return generates[round];
+        }
+
+        public Export getExport(int round, byte keyPair) {
+            return keyPair == ECTesterApplet.KEYPAIR_LOCAL ? localExports[round] : remoteExports[round];
+        }
+
+        public ECDH getECDH(int round) {
+            return ecdhs[round];
+        }
+
+        public ECDSA getECDSA(int round) {
+            return ecdsas[round];
+        }
+    }
+
+    /**
+     *
+     */
+    public static class Repeat extends Response {
+        private int count;
+        private int rounds;
+
+        public Repeat(ByteBuffer response, String description, long time, int count) {
+            super(response, description, time);
+            this.count = count;
+
+            parse(response, 1, 0);
+            if (getLength() >= 4) {
+                rounds = response.getShort(response.position() + 2) & 0xffff;
+            }
+        }
+
+        /**
+         * @return How many times the card was asked to repeat the command.
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return How many rounds succeeded, the card stops at the first failing one.
+         */
+        public int getRounds() {
+            return rounds;
+        }
+
+        /**
+         * @return The duration of one round, averaged over the rounds that ran, including the failed one.
+         */
+        public long getRoundDuration() {
+            return getDuration() / Math.max(1, Math.min(count, rounds + (successful() ? 0 : 1)));
         }
     }
 }
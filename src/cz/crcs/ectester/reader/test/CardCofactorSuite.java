@@ -31,8 +31,7 @@ public class CardCofactorSuite extends CardTestSuite {
 
     @Override
     protected void runTests() throws Exception {
-        Map<String, EC_Key.Public> pubkeys = EC_Store.getInstance().getObjects(EC_Key.Public.class, "cofactor");
-        Map<EC_Curve, List<EC_Key.Public>> curveList = EC_Store.mapKeyToCurve(pubkeys.values());
+        Map<EC_Curve, List<EC_Key.Public>> curveList = EC_Store.getInstance().getObjectsByCurve(EC_Key.Public.class, "cofactor");
         for (Map.Entry<EC_Curve, List<EC_Key.Public>> e : curveList.entrySet()) {
             EC_Curve curve = e.getKey();
             List<EC_Key.Public> keys = e.getValue();
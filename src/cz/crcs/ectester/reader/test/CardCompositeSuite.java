@@ -31,8 +31,7 @@ public class CardCompositeSuite extends CardTestSuite {
 
     @Override
     protected void runTests() throws Exception {
-        Map<String, EC_Key> keys = EC_Store.getInstance().getObjects(EC_Key.class, "composite");
-        Map<EC_Curve, List<EC_Key>> mappedKeys = EC_Store.mapKeyToCurve(keys.values());
+        Map<EC_Curve, List<EC_Key>> mappedKeys = EC_Store.getInstance().getObjectsByCurve(EC_Key.class, "composite");
         for (Map.Entry<EC_Curve, List<EC_Key>> curveKeys : mappedKeys.entrySet()) {
             EC_Curve curve = curveKeys.getKey();
             List<Test> tests = new LinkedList<>();
@@ -60,8 +59,7 @@ public class CardCompositeSuite extends CardTestSuite {
         }
 
 
-        Map<String, EC_Curve> results = EC_Store.getInstance().getObjects(EC_Curve.class, "composite");
-        Map<String, List<EC_Curve>> groups = EC_Store.mapToPrefix(results.values());
+        Map<String, List<EC_Curve>> groups = EC_Store.getInstance().getObjectsByPrefix(EC_Curve.class, "composite");
         /* Test the whole curves with both keypairs generated on card(no small-order public points provided).
          */
         List<EC_Curve> wholeCurves = groups.entrySet().stream().filter((e) -> e.getKey().equals("whole")).findFirst().get().getValue();
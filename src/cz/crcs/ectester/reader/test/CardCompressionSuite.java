@@ -21,7 +21,6 @@ import javacard.security.KeyPair;
 import java.security.spec.ECPoint;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
 
 /**
  * @author Jan Jancar johny@neuromancer.sk
@@ -132,8 +131,7 @@ public class CardCompressionSuite extends CardTestSuite {
     }
 
     private void runNonResidue() {
-        Map<String, EC_Key.Public> otherKeys = EC_Store.getInstance().getObjects(EC_Key.Public.class, "misc");
-        List<EC_Key.Public> compressionKeys = EC_Store.mapToPrefix(otherKeys.values()).get("compression");
+        List<EC_Key.Public> compressionKeys = EC_Store.getInstance().getObjectsWithPrefix(EC_Key.Public.class, "misc", "compression");
 
         for (EC_Key.Public key : compressionKeys) {
             EC_Curve curve = EC_Store.getInstance().getObject(EC_Curve.class, key.getCurve());
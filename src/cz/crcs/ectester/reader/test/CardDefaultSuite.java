@@ -82,7 +82,7 @@ public class CardDefaultSuite extends CardTestSuite {
 
                     Test compound;
                     if (ka.ok()) {
-                        Test perfTest = runTest(PerformanceTest.repeat(this.card, ecdh, 10));
+                        Test perfTest = runTest(PerformanceTest.repeatOnCard(this.card, ecdh, 3, 10));
                         compound = runTest(CompoundTest.function(kaCallback, kaDesc, allocate, ka, kaCompressed, perfTest));
                     } else {
                         compound = runTest(CompoundTest.function(kaCallback, kaDesc, allocate, ka, kaCompressed));
@@ -30,8 +30,7 @@ public class CardDegenerateSuite extends CardTestSuite {
 
     @Override
     protected void runTests() throws Exception {
-        Map<String, EC_Key.Public> pubkeys = EC_Store.getInstance().getObjects(EC_Key.Public.class, "degenerate");
-        Map<EC_Curve, List<EC_Key.Public>> curveList = EC_Store.mapKeyToCurve(pubkeys.values());
+        Map<EC_Curve, List<EC_Key.Public>> curveList = EC_Store.getInstance().getObjectsByCurve(EC_Key.Public.class, "degenerate");
         for (Map.Entry<EC_Curve, List<EC_Key.Public>> e : curveList.entrySet()) {
             EC_Curve curve = e.getKey();
             List<EC_Key.Public> keys = e.getValue();
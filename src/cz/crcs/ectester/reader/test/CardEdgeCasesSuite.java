@@ -39,8 +39,7 @@ public class CardEdgeCasesSuite extends CardTestSuite {
 
     @Override
     protected void runTests() throws Exception {
-        Map<String, EC_KAResult> results = EC_Store.getInstance().getObjects(EC_KAResult.class, "wycheproof");
-        Map<String, List<EC_KAResult>> groups = EC_Store.mapToPrefix(results.values());
+        Map<String, List<EC_KAResult>> groups = EC_Store.getInstance().getObjectsByPrefix(EC_KAResult.class, "wycheproof");
         for (Map.Entry<String, List<EC_KAResult>> e : groups.entrySet()) {
             String description = null;
             switch (e.getKey()) {
@@ -34,8 +34,7 @@ public class CardInvalidSuite extends CardTestSuite {
         /* Set original curves (secg/nist/brainpool). Generate local.
          * Try ECDH with invalid public keys of increasing order.
          */
-        Map<String, EC_Key.Public> pubkeys = EC_Store.getInstance().getObjects(EC_Key.Public.class, "invalid");
-        Map<EC_Curve, List<EC_Key.Public>> curveList = EC_Store.mapKeyToCurve(pubkeys.values());
+        Map<EC_Curve, List<EC_Key.Public>> curveList = EC_Store.getInstance().getObjectsByCurve(EC_Key.Public.class, "invalid");
         for (Map.Entry<EC_Curve, List<EC_Key.Public>> e : curveList.entrySet()) {
             EC_Curve curve = e.getKey();
             List<EC_Key.Public> keys = e.getValue();
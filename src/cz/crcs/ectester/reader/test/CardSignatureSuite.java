@@ -27,8 +27,7 @@ public class CardSignatureSuite extends CardTestSuite {
 
     @Override
     protected void runTests() throws Exception {
-        Map<String, EC_SigResult> results = EC_Store.getInstance().getObjects(EC_SigResult.class, "wrong");
-        Map<String, List<EC_SigResult>> groups = EC_Store.mapToPrefix(results.values());
+        Map<String, List<EC_SigResult>> groups = EC_Store.getInstance().getObjectsByPrefix(EC_SigResult.class, "wrong");
 
         List<EC_SigResult> nok = groups.entrySet().stream().filter((e) -> e.getKey().equals("nok")).findFirst().get().getValue();
 
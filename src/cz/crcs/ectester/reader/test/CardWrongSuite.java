@@ -118,7 +118,11 @@ public class CardWrongSuite extends CardTestSuite {
             Test wrongG = CompoundTest.all(ExpectedValue.SUCCESS, "Tests with corrupted G parameter.", randomG, fullRandomG, zeroG);
 
             byte[] originalR = new byte[((keyLength + 7) / 8) + 1];
-            short origRlen = EC_Consts.getCurveParameter(curve, EC_Consts.PARAMETER_R, originalR, (short) 0);
+            short origRlen;
+            // EC_Consts keeps the selected parameters in static fields, other cards might be tested concurrently.
+            synchronized (EC_Consts.class) {
+                origRlen = EC_Consts.getCurveParameter(curve, EC_Consts.PARAMETER_R, originalR, (short) 0);
+            }
             if (origRlen != originalR.length) {
                 byte[] copyR = new byte[origRlen];
                 System.arraycopy(originalR, 0, copyR, 0, origRlen);
@@ -13,6 +13,13 @@ import javax.smartcardio.CardException;
 import java.util.Arrays;
 
 /**
+ * Measures the duration of a command, over <code>count</code> APDUs, reduced by the duration of the command
+ * in the dry run mode of the applet.
+ * <p>
+ * The on-card variant ({@link #repeatOnCard(CardMngr, Command, int, int)}) repeats the command <code>rounds</code>
+ * times on the card in every APDU and divides the durations by the rounds, so that the measured time is dominated
+ * by the operation and not by the transport.
+ *
  * @author Jan Jancar johny@neuromancer.sk
  */
 public class PerformanceTest extends SimpleTest<CommandTestable> {
@@ -24,9 +31,10 @@ public class PerformanceTest extends SimpleTest<CommandTestable> {
     private long median;
     private long mode;
     private int count;
+    private int rounds;
     private String desc;
 
-    private PerformanceTest(CardMngr cardManager, CommandTestable testable, int count, String desc) {
+    private PerformanceTest(CardMngr cardManager, CommandTestable testable, int count, int rounds, String desc) {
         super(testable, new TestCallback<CommandTestable>() {
             @Override
             public Result apply(CommandTestable testable) {
@@ -35,33 +43,52 @@ public class PerformanceTest extends SimpleTest<CommandTestable> {
         });
         this.cardManager = cardManager;
         this.count = count;
+        this.rounds = rounds;
         this.desc = desc;
     }
 
     public static PerformanceTest repeat(CardMngr cardManager, Command cmd, int count) {
-        return new PerformanceTest(cardManager, new CommandTestable(cmd), count, null);
+        return new PerformanceTest(cardManager, new CommandTestable(cmd), count, 1, null);
     }
 
     public static PerformanceTest repeat(CardMngr cardManager, String desc, Command cmd, int count) {
-        return new PerformanceTest(cardManager, new CommandTestable(cmd), count, desc);
+        return new PerformanceTest(cardManager, new CommandTestable(cmd), count, 1, desc);
+    }
+
+    public static PerformanceTest repeatOnCard(CardMngr cardManager, Command cmd, int count, int rounds) {
+        return new PerformanceTest(cardManager, new CommandTestable(new Command.Repeat(cardManager, cmd, rounds)), count, rounds, null);
+    }
+
+    public static PerformanceTest repeatOnCard(CardMngr cardManager, String desc, Command cmd, int count, int rounds) {
+        return new PerformanceTest(cardManager, new CommandTestable(new Command.Repeat(cardManager, cmd, rounds)), count, rounds, desc);
     }
 
     @Override
     public String getDescription() {
         String rest = String.format("Mean = %d ns, Median = %d ns, Mode = %d ns", mean, median, mode);
+        if (rounds > 1) {
+            rest += String.format(", %d rounds on-card", rounds);
+        }
         return (desc == null ? rest : desc + " (" + rest + ")");
     }
 
+    private static long duration(Response response) {
+        if (response instanceof Response.Repeat) {
+            return ((Response.Repeat) response).getRoundDuration();
+        }
+        return response.getDuration();
+    }
+
     @Override
     protected void runSelf() {
         long baseTime;
         try {
             new Command.SetDryRunMode(cardManager, ECTesterApplet.MODE_DRY_RUN).send();
             testable.run();
-            baseTime = testable.getResponse().getDuration();
+            baseTime = duration(testable.getResponse());
             testable.reset();
             testable.run();
-            baseTime += testable.getResponse().getDuration();
+            baseTime += duration(testable.getResponse());
             testable.reset();
             baseTime /= 2;
             new Command.SetDryRunMode(cardManager, ECTesterApplet.MODE_NORMAL).send();
@@ -75,7 +102,7 @@ public class PerformanceTest extends SimpleTest<CommandTestable> {
         for (int i = 0; i < count; ++i) {
             testable.run();
             responses[i] = testable.getResponse();
-            times[i] = responses[i].getDuration();
+            times[i] = duration(responses[i]);
             reducedTimes[i] = times[i] - baseTime;
             testable.reset();
         }
@@ -111,8 +138,16 @@ public class PerformanceTest extends SimpleTest<CommandTestable> {
         return count;
     }
 
+    public int getRounds() {
+        return rounds;
+    }
+
     public Command getCommand() {
-        return testable.getCommand();
+        Command cmd = testable.getCommand();
+        if (cmd instanceof Command.Repeat) {
+            return ((Command.Repeat) cmd).getCommand();
+        }
+        return cmd;
     }
 
     public Response[] getResponses() {
@@ -0,0 +1,450 @@
+package cz.crcs.ectester.standalone;
+
+import cz.crcs.ectester.common.cli.Colors;
+import cz.crcs.ectester.common.ec.EC_Curve;
+import cz.crcs.ectester.standalone.consts.Ident;
+import cz.crcs.ectester.standalone.consts.KeyAgreementIdent;
+import cz.crcs.ectester.standalone.consts.KeyPairGeneratorIdent;
+import cz.crcs.ectester.standalone.consts.SignatureIdent;
+import cz.crcs.ectester.standalone.libs.NativeECLibrary;
+import cz.crcs.ectester.standalone.libs.ProviderECLibrary;
+
+import javax.crypto.KeyAgreement;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.security.*;
+import java.security.spec.ECParameterSpec;
+import java.util.*;
+
+/**
+ * A benchmark harness of the KeyPairGenerators, KeyAgreements and Signatures of the libraries over curves
+ * from the EC_Store, measuring throughput and latency percentiles in the style of JMH.
+ * <p>
+ * Every benchmark (library, operation, type, curve) runs a number of timed warmup iterations, whose results
+ * are discarded, followed by timed measurement iterations. The throughput is the mean of the per-iteration
+ * throughputs with its standard deviation, the latency percentiles are computed over all operations measured.
+ * Results of the operations are consumed by a {@link Blackhole} so the JIT can not eliminate them. By default,
+ * every benchmark runs in a fresh forked JVM so that the JIT profile and the native state of one library
+ * does not affect another.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class Benchmark {
+    public static final String[] OPERATIONS = new String[]{"generate", "ecdh", "ecdsa"};
+    private static final String CSV_HEADER = "library;operation;type;curve;score[ops/s];error[ops/s];mean[ns];p50[ns];p90[ns];p99[ns];p99.9[ns];max[ns];samples";
+
+    private ProviderECLibrary[] libs;
+    private Map<String, EC_Curve> curves;
+    private List<String> operations;
+    private String type;
+    private int warmup;
+    private int iterations;
+    private long time;
+
+    private boolean fork = false;
+    private List<String> forkArgs;
+
+    private long[] samples = new long[1 << 16];
+    private int sampleCount;
+
+    /**
+     * @param libs       libraries to benchmark
+     * @param curves     curves to benchmark on, by their EC_Store query
+     * @param operations operations to benchmark, a subset of {@link #OPERATIONS}
+     * @param type       name of the only KeyPairGenerator/KeyAgreement/Signature type to benchmark, or null for all
+     * @param warmup     number of warmup iterations
+     * @param iterations number of measurement iterations
+     * @param time       duration of one iteration in milliseconds
+     */
+    public Benchmark(ProviderECLibrary[] libs, Map<String, EC_Curve> curves, List<String> operations, String type, int warmup, int iterations, long time) {
+        this.libs = libs;
+        this.curves = curves;
+        this.operations = operations;
+        this.type = type;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.time = time;
+    }
+
+    /**
+     * Run every benchmark in a forked JVM, with the same JVM arguments and classpath.
+     *
+     * @param globalArgs the global ECTesterStandalone arguments to pass to the forked JVMs
+     */
+    public void setFork(List<String> globalArgs) {
+        this.fork = true;
+        this.forkArgs = globalArgs;
+    }
+
+    /**
+     * Run all of the benchmarks.
+     *
+     * @param out
+     * @param csv whether to output the results as CSV, or as text
+     * @throws IOException
+     */
+    public void run(PrintStream out, boolean csv) throws IOException {
+        if (csv) {
+            out.println(CSV_HEADER);
+        }
+        for (ProviderECLibrary lib : libs) {
+            for (String operation : operations) {
+                for (Ident ident : idents(lib, operation)) {
+                    for (Map.Entry<String, EC_Curve> curve : curves.entrySet()) {
+                        List<Result> results;
+                        if (fork) {
+                            results = runForked(lib, operation, ident, curve.getKey());
+                        } else {
+                            results = runBenchmark(lib, operation, ident, curve.getKey(), curve.getValue());
+                        }
+                        for (Result result : results) {
+                            out.println(csv ? result.toCSV() : result.toString());
+                        }
+                        out.flush();
+                    }
+                }
+            }
+        }
+    }
+
+    private Collection<? extends Ident> idents(ProviderECLibrary lib, String operation) {
+        Collection<? extends Ident> all;
+        switch (operation) {
+            case "generate":
+                all = lib.getKPGs();
+                break;
+            case "ecdh":
+                all = lib.getKAs();
+                break;
+            case "ecdsa":
+                all = lib.getSigs();
+                break;
+            default:
+                return Collections.emptyList();
+        }
+        List<Ident> result = new LinkedList<>();
+        for (Ident ident : all) {
+            if (type == null || ident.contains(type)) {
+                result.add(ident);
+            }
+        }
+        return result;
+    }
+
+    private List<Result> runForked(ProviderECLibrary lib, String operation, Ident ident, String curve) throws IOException {
+        List<String> command = new LinkedList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ECTesterStandalone.class.getName());
+        command.addAll(forkArgs);
+        command.addAll(Arrays.asList("bench", "--no-fork", "--format", "csv", "--ops", operation, "-t", ident.getName(), "--curves", curve,
+                "--warmup", String.valueOf(warmup), "--iterations", String.valueOf(iterations), "--time", String.valueOf(time), lib.name()));
+
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        List<Result> results = new LinkedList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty() && !line.equals(CSV_HEADER)) {
+                    results.add(Result.fromCSV(line));
+                }
+            }
+        }
+        try {
+            int exit = process.waitFor();
+            if (exit != 0 || results.isEmpty()) {
+                results.add(new Result(lib.name(), operation, ident.getName(), curve, "forked JVM exited with " + exit));
+            }
+        } catch (InterruptedException e) {
+            process.destroy();
+            Thread.currentThread().interrupt();
+        }
+        return results;
+    }
+
+    private List<Result> runBenchmark(ProviderECLibrary lib, String operation, Ident ident, String curveName, EC_Curve curve) {
+        List<Result> results = new LinkedList<>();
+        try {
+            ECParameterSpec spec = curve.toSpec();
+            Provider provider = lib.getProvider();
+            switch (operation) {
+                case "generate": {
+                    KeyPairGenerator kpg = ((KeyPairGeneratorIdent) ident).getInstance(provider);
+                    kpg.initialize(spec);
+                    results.add(measure(lib, operation, ident, curveName, (bh) -> bh.consume(kpg.generateKeyPair())));
+                    break;
+                }
+                case "ecdh": {
+                    KeyAgreementIdent kaIdent = (KeyAgreementIdent) ident;
+                    String algo = kaIdent.getName();
+                    KeyPairGenerator kpg = keyPairGenerator(lib, spec, algo, algo.contains("with") ? algo.split("with")[0] : algo, "ECDH");
+                    KeyPair one = kpg.generateKeyPair();
+                    KeyPair other = kpg.generateKeyPair();
+                    KeyAgreement ka = kaIdent.getInstance(provider);
+                    boolean withSpec = lib instanceof NativeECLibrary;
+                    results.add(measure(lib, operation, ident, curveName, (bh) -> {
+                        if (withSpec) {
+                            ka.init(one.getPrivate(), spec);
+                        } else {
+                            ka.init(one.getPrivate());
+                        }
+                        ka.doPhase(other.getPublic(), true);
+                        if (kaIdent.requiresKeyAlgo()) {
+                            bh.consume(ka.generateSecret("AES").getEncoded());
+                        } else {
+                            bh.consume(ka.generateSecret());
+                        }
+                    }));
+                    break;
+                }
+                case "ecdsa": {
+                    SignatureIdent sigIdent = (SignatureIdent) ident;
+                    String algo = sigIdent.getName();
+                    KeyPairGenerator kpg = keyPairGenerator(lib, spec, algo, algo.contains("with") ? algo.split("with")[1] : algo, "ECDSA");
+                    KeyPair one = kpg.generateKeyPair();
+                    Signature sig = sigIdent.getInstance(provider);
+                    byte[] data = new byte[32];
+                    new Random().nextBytes(data);
+                    sig.initSign(one.getPrivate());
+                    sig.update(data);
+                    byte[] signature = sig.sign();
+                    results.add(measure(lib, "sign", ident, curveName, (bh) -> {
+                        sig.initSign(one.getPrivate());
+                        sig.update(data);
+                        bh.consume(sig.sign());
+                    }));
+                    results.add(measure(lib, "verify", ident, curveName, (bh) -> {
+                        sig.initVerify(one.getPublic());
+                        sig.update(data);
+                        if (!sig.verify(signature)) {
+                            throw new SignatureException("Signature did not verify.");
+                        }
+                    }));
+                    break;
+                }
+            }
+        } catch (GeneralSecurityException | RuntimeException e) {
+            results.add(new Result(lib.name(), operation, ident.getName(), curveName, e.toString()));
+        }
+        return results;
+    }
+
+    /**
+     * Find the KeyPairGenerator type of the library matching the first of <code>algos</code> and falling back to
+     * "EC", like the ecdh and ecdsa commands do.
+     */
+    private static KeyPairGenerator keyPairGenerator(ProviderECLibrary lib, ECParameterSpec spec, String... algos) throws GeneralSecurityException {
+        for (String algo : algos) {
+            for (KeyPairGeneratorIdent kpIdent : lib.getKPGs()) {
+                if (kpIdent.contains(algo)) {
+                    KeyPairGenerator kpg = kpIdent.getInstance(lib.getProvider());
+                    kpg.initialize(spec);
+                    return kpg;
+                }
+            }
+        }
+        for (KeyPairGeneratorIdent kpIdent : lib.getKPGs()) {
+            if (kpIdent.contains("EC")) {
+                KeyPairGenerator kpg = kpIdent.getInstance(lib.getProvider());
+                kpg.initialize(spec);
+                return kpg;
+            }
+        }
+        throw new NoSuchAlgorithmException(algos[0]);
+    }
+
+    private Result measure(ProviderECLibrary lib, String operation, Ident ident, String curve, Operation op) throws GeneralSecurityException {
+        Blackhole bh = new Blackhole();
+        for (int i = 0; i < warmup; ++i) {
+            iteration(op, bh, false);
+        }
+        sampleCount = 0;
+        double[] scores = new double[iterations];
+        for (int i = 0; i < iterations; ++i) {
+            scores[i] = iteration(op, bh, true);
+        }
+        bh.publish();
+        return new Result(lib.name(), operation, ident.getName(), curve, scores, Arrays.copyOf(samples, sampleCount));
+    }
+
+    /**
+     * Run the operation repeatedly for one iteration period.
+     *
+     * @return the throughput in operations per second
+     */
+    private double iteration(Operation op, Blackhole bh, boolean record) throws GeneralSecurityException {
+        long start = System.nanoTime();
+        long end = start + time * 1000000L;
+        long now = start;
+        long ops = 0;
+        while (now < end) {
+            op.run(bh);
+            long after = System.nanoTime();
+            if (record) {
+                if (sampleCount == samples.length) {
+                    samples = Arrays.copyOf(samples, samples.length * 2);
+                }
+                samples[sampleCount++] = after - now;
+            }
+            now = after;
+            ops++;
+        }
+        return ops * 1e9 / (now - start);
+    }
+
+    /**
+     * A single benchmarked operation.
+     */
+    @FunctionalInterface
+    private interface Operation {
+        void run(Blackhole bh) throws GeneralSecurityException;
+    }
+
+    /**
+     * Consumes the results of the benchmarked operations, so that their computation can not be optimized out.
+     */
+    private static class Blackhole {
+        private static volatile int sink;
+        private int state;
+
+        void consume(byte[] value) {
+            state = 31 * state + value.length + (value.length > 0 ? value[0] : 0);
+        }
+
+        void consume(Object value) {
+            state = 31 * state + System.identityHashCode(value);
+        }
+
+        void publish() {
+            sink += state;
+        }
+    }
+
+    /**
+     * The result of one benchmark.
+     */
+    public static class Result {
+        private String library;
+        private String operation;
+        private String type;
+        private String curve;
+        private String error;
+
+        private double score;
+        private double scoreError;
+        private double mean;
+        private long[] percentiles = new long[5];
+        private long samples;
+
+        private Result(String library, String operation, String type, String curve) {
+            this.library = library;
+            this.operation = operation;
+            this.type = type;
+            this.curve = curve;
+        }
+
+        Result(String library, String operation, String type, String curve, String error) {
+            this(library, operation, type, curve);
+            this.error = error;
+        }
+
+        Result(String library, String operation, String type, String curve, double[] scores, long[] latencies) {
+            this(library, operation, type, curve);
+            for (double s : scores) {
+                score += s;
+            }
+            score /= scores.length;
+            if (scores.length > 1) {
+                double variance = 0;
+                for (double s : scores) {
+                    variance += (s - score) * (s - score);
+                }
+                scoreError = Math.sqrt(variance / (scores.length - 1));
+            }
+            Arrays.sort(latencies);
+            samples = latencies.length;
+            if (samples > 0) {
+                double sum = 0;
+                for (long latency : latencies) {
+                    sum += latency;
+                }
+                mean = sum / samples;
+                double[] quantiles = new double[]{0.5, 0.9, 0.99, 0.999, 1};
+                for (int i = 0; i < quantiles.length; ++i) {
+                    int index = (int) Math.ceil(quantiles[i] * samples) - 1;
+                    percentiles[i] = latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+                }
+            }
+        }
+
+        public boolean isError() {
+            return error != null;
+        }
+
+        public double getScore() {
+            return score;
+        }
+
+        public double getScoreError() {
+            return scoreError;
+        }
+
+        /**
+         * @return the 50th, 90th, 99th, 99.9th and 100th latency percentile in nanoseconds
+         */
+        public long[] getPercentiles() {
+            return percentiles.clone();
+        }
+
+        String toCSV() {
+            if (error != null) {
+                return String.join(";", library, operation, type, curve, "error", error.replace(';', ','));
+            }
+            return String.format(Locale.ROOT, "%s;%s;%s;%s;%.3f;%.3f;%.1f;%d;%d;%d;%d;%d;%d", library, operation, type, curve,
+                    score, scoreError, mean, percentiles[0], percentiles[1], percentiles[2], percentiles[3], percentiles[4], samples);
+        }
+
+        static Result fromCSV(String line) throws IOException {
+            String[] parts = line.split(";", -1);
+            if (parts.length < 6) {
+                throw new IOException("Invalid benchmark result: " + line);
+            }
+            Result result = new Result(parts[0], parts[1], parts[2], parts[3]);
+            if (parts[4].equals("error")) {
+                result.error = parts[5];
+                return result;
+            }
+            if (parts.length != 13) {
+                throw new IOException("Invalid benchmark result: " + line);
+            }
+            try {
+                result.score = Double.parseDouble(parts[4]);
+                result.scoreError = Double.parseDouble(parts[5]);
+                result.mean = Double.parseDouble(parts[6]);
+                for (int i = 0; i < result.percentiles.length; ++i) {
+                    result.percentiles[i] = Long.parseLong(parts[7 + i]);
+                }
+                result.samples = Long.parseLong(parts[12]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid benchmark result: " + line);
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            String name = String.format("%-12s %-8s %-24s %-24s", library, operation, type, curve);
+            if (error != null) {
+                return name + " " + Colors.error("failed: " + error);
+            }
+            return name + String.format(Locale.ROOT, " %12.2f ± %9.2f ops/s   p50 %9.1f   p90 %9.1f   p99 %9.1f   p99.9 %9.1f   max %9.1f us",
+                    score, scoreError, percentiles[0] / 1000.0, percentiles[1] / 1000.0, percentiles[2] / 1000.0, percentiles[3] / 1000.0, percentiles[4] / 1000.0);
+        }
+    }
+}
@@ -26,16 +26,22 @@ package cz.crcs.ectester.standalone;
 import cz.crcs.ectester.applet.EC_Consts;
 import cz.crcs.ectester.common.cli.*;
 import cz.crcs.ectester.common.ec.EC_Curve;
+import cz.crcs.ectester.common.output.BaseSampleWriter;
+import cz.crcs.ectester.common.output.BinarySampleReader;
+import cz.crcs.ectester.common.output.MappedSampleReader;
+import cz.crcs.ectester.common.output.TestMerger;
 import cz.crcs.ectester.common.output.TestWriter;
+import cz.crcs.ectester.common.test.Checkpoint;
 import cz.crcs.ectester.common.test.TestException;
-import cz.crcs.ectester.common.util.ByteUtil;
 import cz.crcs.ectester.common.util.ECUtil;
 import cz.crcs.ectester.common.util.FileUtil;
+import cz.crcs.ectester.common.util.SampleStats;
 import cz.crcs.ectester.data.EC_Store;
 import cz.crcs.ectester.standalone.consts.KeyAgreementIdent;
 import cz.crcs.ectester.standalone.consts.KeyPairGeneratorIdent;
 import cz.crcs.ectester.standalone.consts.SignatureIdent;
 import cz.crcs.ectester.standalone.libs.*;
+import cz.crcs.ectester.standalone.output.JSONLTestWriter;
 import cz.crcs.ectester.standalone.output.TextTestWriter;
 import cz.crcs.ectester.standalone.output.XMLTestWriter;
 import cz.crcs.ectester.standalone.output.YAMLTestWriter;
@@ -45,14 +51,22 @@ import org.apache.commons.cli.*;
 
 import javax.crypto.KeyAgreement;
 import javax.crypto.SecretKey;
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
 import java.math.BigInteger;
 import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.security.*;
 import java.security.interfaces.ECPrivateKey;
 import java.security.interfaces.ECPublicKey;
@@ -60,6 +74,8 @@ import java.security.spec.AlgorithmParameterSpec;
 import java.security.spec.ECGenParameterSpec;
 import java.security.spec.ECParameterSpec;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.stream.Collectors;
 
 /**
@@ -90,6 +106,8 @@ public class ECTesterStandalone {
     private Options opts = new Options();
     private TreeParser optParser;
     private TreeCommandLine cli;
+    private OutputStream workerOutput;
+    private byte[] workerData;
     public static final String VERSION = "v0.3.3";
     private static final String DESCRIPTION = "ECTesterStandalone " + VERSION + ", an Elliptic Curve Cryptography support tester/utility.";
     private static final String LICENSE = "MIT Licensed\nCopyright © 2016-2019 Petr Svenda <petr@svenda.com>\nCopyright © 2016-2019 Jan Jancar  <johny@neuromancer.sk>";
@@ -115,6 +133,13 @@ public class ECTesterStandalone {
                 return;
             }
 
+            if (cli.getNext() != null && cli.hasOption(cli.getNext().getName() + ".worker")) {
+                // The stdout of a worker carries the protocol, keep anything else, the libraries too, from writing to it.
+                workerOutput = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out));
+                System.setOut(new PrintStream(NULL_OUTPUT));
+                workerData = SampleWorker.receive(System.in);
+            }
+
             Path reqs = FileUtil.getRequirementsDir();
             reqs.toFile().mkdirs();
 
@@ -153,9 +178,17 @@ public class ECTesterStandalone {
                 test();
             } else if (cli.isNext("export")) {
                 export();
+            } else if (cli.isNext("convert")) {
+                convert();
+            } else if (cli.isNext("analyze")) {
+                analyze();
+            } else if (cli.isNext("merge")) {
+                merge();
+            } else if (cli.isNext("bench")) {
+                bench();
             }
 
-        } catch (ParseException | ParserConfigurationException | IOException ex) {
+        } catch (ParseException | XMLStreamException | IOException ex) {
             System.err.println(ex.getMessage());
         } catch (InvalidAlgorithmParameterException | InvalidParameterException e) {
             System.err.println("Invalid algorithm parameter: " + e.getMessage());
@@ -163,6 +196,8 @@ public class ECTesterStandalone {
             System.err.println("Algorithm not supported by the selected library: " + nsaex.getMessage());
         } catch (InvalidKeyException | SignatureException e) {
             e.printStackTrace();
+        } catch (GeneralSecurityException e) {
+            e.printStackTrace();
         }
     }
 
@@ -184,6 +219,10 @@ public class ECTesterStandalone {
         Option bits = Option.builder("b").longOpt("bits").hasArg().argName("n").optionalArg(false).desc("What size of curve to use.").numberOfArgs(1).build();
         Option output = Option.builder("o").longOpt("output").desc("Output into file <output_file>.").hasArgs().argName("output_file").optionalArg(false).numberOfArgs(1).build();
         Option timeSource = Option.builder("ts").longOpt("time-source").desc("Use a given native timing source: {rdtsc, monotonic, monotonic-raw, cputime-process, cputime-thread, perfcount}").hasArgs().argName("source").optionalArg(false).numberOfArgs(1).build();
+        Option format = Option.builder().longOpt("format").desc("Output format to use. One of: csv, bin.").hasArg().argName("format").optionalArg(false).build();
+        Option threads = Option.builder().longOpt("threads").desc("Collect samples using [n] threads, each with its own primitive instances (default 1).").hasArg().argName("n").optionalArg(false).build();
+        Option isolate = Option.builder().longOpt("isolate").desc("Collect samples in worker processes, one per thread, so that a crash of the library does not end the run.").build();
+        Option worker = Option.builder().longOpt("worker").desc("Run as a worker process of --isolate, reading requests from stdin and writing samples to stdout.").build();
 
         Options testOpts = new Options();
         testOpts.addOption(bits);
@@ -192,8 +231,12 @@ public class ECTesterStandalone {
         testOpts.addOption(Option.builder("gt").longOpt("kpg-type").desc("Set the KeyPairGenerator object [type].").hasArg().argName("type").optionalArg(false).build());
         testOpts.addOption(Option.builder("kt").longOpt("ka-type").desc("Set the KeyAgreement object [type].").hasArg().argName("type").optionalArg(false).build());
         testOpts.addOption(Option.builder("st").longOpt("sig-type").desc("Set the Signature object [type].").hasArg().argName("type").optionalArg(false).build());
-        testOpts.addOption(Option.builder("f").longOpt("format").desc("Set the output format, one of text,yaml,xml.").hasArg().argName("format").optionalArg(false).build());
+        testOpts.addOption(Option.builder("f").longOpt("format").desc("Set the output format, one of text,yaml,xml,jsonl.").hasArg().argName("format").optionalArg(false).build());
         testOpts.addOption(Option.builder().longOpt("key-type").desc("Set the key [algorithm] for which the key should be derived in KeyAgreements with KDF. Default is \"AES\".").hasArg().argName("algorithm").optionalArg(false).build());
+        testOpts.addOption(Option.builder().longOpt("threads").desc("Run independent tests on [n] threads, the output stays in order (default 1).").hasArg().argName("n").optionalArg(false).build());
+        testOpts.addOption(Option.builder().longOpt("checkpoint").desc("Journal the completed tests into [file], so that the run can be resumed.").hasArg().argName("file").optionalArg(false).build());
+        testOpts.addOption(Option.builder().longOpt("shard").desc("Only run the shard [i/n] of the test suite, the tests with index % n == i, 0 <= i < n.").hasArg().argName("i/n").optionalArg(false).build());
+        testOpts.addOption(Option.builder().longOpt("resume").desc("Resume the run from the checkpoint journal, the completed tests are not run again.").build());
         List<Argument> testArgs = new LinkedList<>();
         testArgs.add(new Argument("test-suite", "The test suite to run.", true));
         ParserOptions test = new ParserOptions(new TreeParser(Collections.emptyMap(), true, testArgs), testOpts, "Test a library.");
@@ -205,6 +248,10 @@ public class ECTesterStandalone {
         ecdhOpts.addOption(curveName);
         ecdhOpts.addOption(output);
         ecdhOpts.addOption(timeSource);
+        ecdhOpts.addOption(threads);
+        ecdhOpts.addOption(isolate);
+        ecdhOpts.addOption(worker);
+        ecdhOpts.addOption(format);
         ecdhOpts.addOption(Option.builder("t").longOpt("type").desc("Set KeyAgreement object [type].").hasArg().argName("type").optionalArg(false).build());
         ecdhOpts.addOption(Option.builder().longOpt("key-type").desc("Set the key [algorithm] for which the key should be derived in KeyAgreements with KDF. Default is \"AES\".").hasArg().argName("algorithm").optionalArg(false).build());
         ecdhOpts.addOption(Option.builder("n").longOpt("amount").hasArg().argName("amount").optionalArg(false).desc("Do ECDH [amount] times.").build());
@@ -221,6 +268,10 @@ public class ECTesterStandalone {
         ecdsaOpts.addOption(curveName);
         ecdsaOpts.addOption(output);
         ecdsaOpts.addOption(timeSource);
+        ecdsaOpts.addOption(threads);
+        ecdsaOpts.addOption(isolate);
+        ecdsaOpts.addOption(worker);
+        ecdsaOpts.addOption(format);
         ecdsaOpts.addOptionGroup(privateKey);
         ecdsaOpts.addOptionGroup(publicKey);
         ecdsaOpts.addOption(Option.builder().longOpt("fixed").desc("Perform all ECDSA with fixed keypair.").build());
@@ -236,6 +287,10 @@ public class ECTesterStandalone {
         generateOpts.addOption(curveName);
         generateOpts.addOption(output);
         generateOpts.addOption(timeSource);
+        generateOpts.addOption(threads);
+        generateOpts.addOption(isolate);
+        generateOpts.addOption(worker);
+        generateOpts.addOption(format);
         generateOpts.addOption(Option.builder("n").longOpt("amount").hasArg().argName("amount").optionalArg(false).desc("Generate [amount] of EC keys.").build());
         generateOpts.addOption(Option.builder("t").longOpt("type").hasArg().argName("type").optionalArg(false).desc("Set KeyPairGenerator object [type].").build());
         ParserOptions generate = new ParserOptions(new DefaultParser(), generateOpts, "Generate EC keypairs.");
@@ -248,6 +303,42 @@ public class ECTesterStandalone {
         ParserOptions export = new ParserOptions(new DefaultParser(), exportOpts, "Export default curve parameters.");
         actions.put("export", export);
 
+        Options convertOpts = new Options();
+        convertOpts.addOption(output);
+        List<Argument> convertArgs = new LinkedList<>();
+        convertArgs.add(new Argument("file", "binary sample file to convert.", true));
+        ParserOptions convert = new ParserOptions(new TreeParser(Collections.emptyMap(), false, convertArgs), convertOpts, "Convert a binary sample file (--format bin) to CSV.");
+        actions.put("convert", convert);
+
+        Options mergeOpts = new Options();
+        mergeOpts.addOption(output);
+        mergeOpts.addOption(Option.builder("f").longOpt("format").desc("The format of the test outputs, one of yaml,xml,jsonl (default by the file extension).").hasArg().argName("format").optionalArg(false).build());
+        List<Argument> mergeArgs = new LinkedList<>();
+        mergeArgs.add(new Argument("files", "test output files to merge.", true));
+        ParserOptions merge = new ParserOptions(new TreeParser(Collections.emptyMap(), false, mergeArgs), mergeOpts, "Merge the test outputs of the shards of a test suite, in index order.");
+        actions.put("merge", merge);
+
+        Options analyzeOpts = new Options();
+        analyzeOpts.addOption(output);
+        analyzeOpts.addOption(Option.builder().longOpt("bins").desc("Use [n] histogram bins (default 20).").hasArg().argName("n").optionalArg(false).build());
+        List<Argument> analyzeArgs = new LinkedList<>();
+        analyzeArgs.add(new Argument("file", "CSV or binary sample file to analyze.", true));
+        ParserOptions analyze = new ParserOptions(new TreeParser(Collections.emptyMap(), false, analyzeArgs), analyzeOpts, "Compute statistics of the timing columns of an ecdh/ecdsa/generate output file.");
+        actions.put("analyze", analyze);
+
+        Options benchOpts = new Options();
+        benchOpts.addOption(output);
+        benchOpts.addOption(Option.builder().longOpt("curves").desc("Benchmark on the comma separated curves <cat/id> or whole categories <cat> from CurveDB (default secg/secp256r1).").hasArg().argName("curves").optionalArg(false).build());
+        benchOpts.addOption(Option.builder().longOpt("ops").desc("Benchmark the comma separated operations, of: generate, ecdh, ecdsa (default all).").hasArg().argName("ops").optionalArg(false).build());
+        benchOpts.addOption(Option.builder("t").longOpt("type").desc("Only benchmark the KeyPairGenerator/KeyAgreement/Signature object [type].").hasArg().argName("type").optionalArg(false).build());
+        benchOpts.addOption(Option.builder().longOpt("warmup").desc("Do [n] warmup iterations (default 3).").hasArg().argName("n").optionalArg(false).build());
+        benchOpts.addOption(Option.builder().longOpt("iterations").desc("Do [n] measurement iterations (default 5).").hasArg().argName("n").optionalArg(false).build());
+        benchOpts.addOption(Option.builder().longOpt("time").desc("Run every iteration for [ms] milliseconds (default 1000).").hasArg().argName("ms").optionalArg(false).build());
+        benchOpts.addOption(Option.builder().longOpt("no-fork").desc("Run the benchmarks in this JVM, instead of forking a new one for each.").build());
+        benchOpts.addOption(Option.builder().longOpt("format").desc("Output format to use. One of: text, csv.").hasArg().argName("format").optionalArg(false).build());
+        ParserOptions bench = new ParserOptions(new DefaultParser(), benchOpts, "Benchmark the throughput and latency of keygen, ECDH and ECDSA of a library, or all libraries.");
+        actions.put("bench", bench);
+
         Options listDataOpts = new Options();
         List<Argument> listDataArgs = new LinkedList<>();
         listDataArgs.add(new Argument("what", "what to list.", false));
@@ -273,6 +364,7 @@ public class ECTesterStandalone {
         opts.addOption(Option.builder("V").longOpt("version").desc("Print version info.").build());
         opts.addOption(Option.builder("h").longOpt("help").desc("Print help(about <command>).").hasArg().argName("command").optionalArg(true).build());
         opts.addOption(Option.builder("C").longOpt("color").desc("Print stuff with color, requires ANSI terminal.").build());
+        opts.addOption(Option.builder().longOpt("data").desc("Load additional curves, keys and results from directory <dir>, can be repeated.").hasArg().argName("dir").build());
 
         return optParser.parse(opts, args);
     }
@@ -341,7 +433,7 @@ public class ECTesterStandalone {
     /**
      *
      */
-    private void ecdh() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, IOException {
+    private void ecdh() throws GeneralSecurityException, IOException {
         ProviderECLibrary lib = cfg.selected;
 
         String algo = cli.getOptionValue("ecdh.type", "ECDH");
@@ -376,12 +468,10 @@ public class ECTesterStandalone {
             throw new NoSuchAlgorithmException(algo);
         }
 
-        KeyAgreement ka = kaIdent.getInstance(lib.getProvider());
-        KeyPairGenerator kpg = kpIdent.getInstance(lib.getProvider());
+        int bits = 0;
         AlgorithmParameterSpec spec = null;
         if (cli.hasOption("ecdh.bits")) {
-            int bits = Integer.parseInt(cli.getOptionValue("ecdh.bits"));
-            kpg.initialize(bits);
+            bits = Integer.parseInt(cli.getOptionValue("ecdh.bits"));
         } else if (cli.hasOption("ecdh.named-curve")) {
             String curveName = cli.getOptionValue("ecdh.named-curve");
             EC_Curve curve = EC_Store.getInstance().getObject(EC_Curve.class, curveName);
@@ -390,12 +480,11 @@ public class ECTesterStandalone {
                 return;
             }
             spec = curve.toSpec();
-            kpg.initialize(spec);
         } else if (cli.hasOption("ecdh.curve-name")) {
             String curveName = cli.getOptionValue("ecdh.curve-name");
             spec = new ECGenParameterSpec(curveName);
-            kpg.initialize(spec);
         }
+        KeyPairGenerator kpg = initKPG(kpIdent.getInstance(lib.getProvider()), bits, spec);
 
         if (cli.hasOption("ecdh.time-source")) {
             if (!lib.setNativeTimingType(cli.getOptionValue("ecdh.time-source"))) {
@@ -404,12 +493,7 @@ public class ECTesterStandalone {
             }
         }
 
-        PrintStream out;
-        if (cli.hasOption("ecdh.output")) {
-            out = new PrintStream(FileUtil.openStream(cli.getOptionValues("ecdh.output")));
-        } else {
-            out = System.out;
-        }
+        OutputStream out = sampleOutput("ecdh");
 
         String timeUnit = "nano";
         if (!lib.getNativeTimingSupport().isEmpty()) {
@@ -417,77 +501,83 @@ public class ECTesterStandalone {
         }
 
         String hashAlgo = kaIdent.getBaseAlgo() != null ? String.format("[%s]", kaIdent.getBaseAlgo()) : "[NONE]";
-        out.println(String.format("index;time[%s];pubW;privS;secret%s", timeUnit, hashAlgo));
-
-        KeyPair one = null;
-        if (cli.hasOption("ecdh.fixed-private") && !cli.hasOption("ecdh.named-private") && !cli.hasOption("ecdh.private")) {
-            one = kpg.genKeyPair();
-        }
-        KeyPair other = null;
-        if (cli.hasOption("ecdh.fixed-public") && !cli.hasOption("ecdh.named-public") && !cli.hasOption("ecdh.public")) {
-            other = kpg.genKeyPair();
-        }
+        Map<String, String> metadata = sampleMetadata("ecdh", lib, kaIdent.getName(), timeUnit);
+        BaseSampleWriter writer = BaseSampleWriter.create(cli.getOptionValue("ecdh.format", "csv"), out, metadata, "index", String.format("time[%s]", timeUnit), "pubW", "privS", "secret" + hashAlgo);
+        try {
 
-        ECPrivateKey privkey = (ECPrivateKey) ECUtil.loadKey(EC_Consts.PARAMETER_S, cli.getOptionValue("ecdh.named-private"), cli.getOptionValue("ecdh.private"), spec);
-        ECPublicKey pubkey = (ECPublicKey) ECUtil.loadKey(EC_Consts.PARAMETER_W, cli.getOptionValue("ecdh.named-public"), cli.getOptionValue("ecdh.public"), spec);
+            boolean loadedPrivate = cli.hasOption("ecdh.named-private") || cli.hasOption("ecdh.private");
+            boolean loadedPublic = cli.hasOption("ecdh.named-public") || cli.hasOption("ecdh.public");
+            boolean fixedPrivate = cli.hasOption("ecdh.fixed-private");
+            boolean fixedPublic = cli.hasOption("ecdh.fixed-public");
 
-        int amount = Integer.parseInt(cli.getOptionValue("ecdh.amount", "1"));
-        for (int i = 0; i < amount || amount == 0; ++i) {
-            if (!cli.hasOption("ecdh.fixed-private") && !cli.hasOption("ecdh.named-private") && !cli.hasOption("ecdh.private")) {
-                one = kpg.genKeyPair();
+            KeyPair fixedOne = null;
+            if (fixedPrivate && !loadedPrivate) {
+                fixedOne = kpg.genKeyPair();
             }
-            if (!cli.hasOption("ecdh.fixed-public") && !cli.hasOption("ecdh.named-public") && !cli.hasOption("ecdh.public")) {
-                other = kpg.genKeyPair();
+            KeyPair fixedOther = null;
+            if (fixedPublic && !loadedPublic) {
+                fixedOther = kpg.genKeyPair();
             }
 
-            if (!cli.hasOption("ecdh.named-private") && !cli.hasOption("ecdh.private")) {
-                privkey = (ECPrivateKey) one.getPrivate();
-            }
+            ECPrivateKey loadedPrivkey = (ECPrivateKey) ECUtil.loadKey(EC_Consts.PARAMETER_S, cli.getOptionValue("ecdh.named-private"), cli.getOptionValue("ecdh.private"), spec);
+            ECPublicKey loadedPubkey = (ECPublicKey) ECUtil.loadKey(EC_Consts.PARAMETER_W, cli.getOptionValue("ecdh.named-public"), cli.getOptionValue("ecdh.public"), spec);
+
+            KeyPair one = fixedOne;
+            KeyPair other = fixedOther;
+            AlgorithmParameterSpec kaSpec = spec;
+            int kpgBits = bits;
+            int amount = Integer.parseInt(cli.getOptionValue("ecdh.amount", "1"));
+            int threads = Integer.parseInt(cli.getOptionValue("ecdh.threads", "1"));
+            collect("ecdh", () -> {
+                KeyPairGenerator workerKpg = threads == 1 ? kpg : initKPG(kpIdent.getInstance(lib.getProvider()), kpgBits, kaSpec);
+                return (index) -> {
+                    KeyAgreement ka = kaIdent.getInstance(lib.getProvider());
+                    KeyPair privPair = (fixedPrivate || loadedPrivate) ? one : workerKpg.genKeyPair();
+                    KeyPair pubPair = (fixedPublic || loadedPublic) ? other : workerKpg.genKeyPair();
+                    ECPrivateKey privkey = loadedPrivate ? loadedPrivkey : (ECPrivateKey) privPair.getPrivate();
+                    ECPublicKey pubkey = loadedPublic ? loadedPubkey : (ECPublicKey) pubPair.getPublic();
+
+                    long elapsed = -System.nanoTime();
+                    if (kaSpec instanceof ECParameterSpec && lib instanceof NativeECLibrary) {
+                        ka.init(privkey, kaSpec);
+                    } else {
+                        ka.init(privkey);
+                    }
+                    ka.doPhase(pubkey, true);
+                    elapsed += System.nanoTime();
+                    SecretKey derived;
+                    byte[] result;
+                    elapsed -= System.nanoTime();
+                    if (kaIdent.requiresKeyAlgo()) {
+                        derived = ka.generateSecret(keyAlgo);
+                        result = derived.getEncoded();
+                    } else {
+                        result = ka.generateSecret();
+                    }
+                    elapsed += System.nanoTime();
+                    if (!lib.getNativeTimingSupport().isEmpty()) {
+                        elapsed = lib.getLastNativeTiming();
+                    }
 
-            if (!cli.hasOption("ecdh.named-public") && !cli.hasOption("ecdh.public")) {
-                pubkey = (ECPublicKey) other.getPublic();
+                    byte[] pub = ECUtil.toX962Uncompressed(pubkey.getW(), pubkey.getParams());
+                    byte[] priv = privkey.getS().toByteArray();
+                    return new Object[]{index, elapsed, pub, priv, result};
+                };
+            }, amount, threads, writer);
+        } finally {
+            writer.close();
+            if (cli.hasOption("ecdh.output")) {
+                out.close();
             }
-
-            long elapsed = -System.nanoTime();
-            if (spec instanceof ECParameterSpec && lib instanceof NativeECLibrary) {
-                ka.init(privkey, spec);
-            } else {
-                ka.init(privkey);
-            }
-            ka.doPhase(pubkey, true);
-            elapsed += System.nanoTime();
-            SecretKey derived;
-            byte[] result;
-            elapsed -= System.nanoTime();
-            if (kaIdent.requiresKeyAlgo()) {
-                derived = ka.generateSecret(keyAlgo);
-                result = derived.getEncoded();
-            } else {
-                result = ka.generateSecret();
-            }
-            elapsed += System.nanoTime();
-            if (!lib.getNativeTimingSupport().isEmpty()) {
-                elapsed = lib.getLastNativeTiming();
-            }
-            ka = kaIdent.getInstance(lib.getProvider());
-
-            String pub = ByteUtil.bytesToHex(ECUtil.toX962Uncompressed(pubkey.getW(), pubkey.getParams()), false);
-            String priv = ByteUtil.bytesToHex(privkey.getS().toByteArray(), false);
-            String dh = ByteUtil.bytesToHex(result, false);
-            out.println(String.format("%d;%d;%s;%s;%s", i, elapsed, pub, priv, dh));
-        }
-
-        if (cli.hasOption("ecdh.output")) {
-            out.close();
         }
     }
 
     /**
      *
      */
-    private void ecdsa() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException, InvalidKeyException, IOException, SignatureException {
+    private void ecdsa() throws GeneralSecurityException, IOException {
         byte[] data;
-        String dataString;
+        Object dataValue;
         if (cli.hasOption("ecdsa.file")) {
             String fileName = cli.getOptionValue("ecdsa.file");
             File in = new File(fileName);
@@ -496,12 +586,17 @@ public class ECTesterStandalone {
                 throw new FileNotFoundException(fileName);
             }
             data = Files.readAllBytes(in.toPath());
-            dataString = "";
+            dataValue = "";
+        } else if (workerOutput != null) {
+            // Sign the same random data as the parent and its other workers.
+            data = workerData;
+            dataValue = data;
         } else {
             Random random = new Random();
             data = new byte[32];
             random.nextBytes(data);
-            dataString = ByteUtil.bytesToHex(data, false);
+            dataValue = data;
+            workerData = data;
         }
         ProviderECLibrary lib = cfg.selected;
         String algo = cli.getOptionValue("ecdsa.type", "ECDSA");
@@ -533,12 +628,12 @@ public class ECTesterStandalone {
         if (sigIdent == null || kpIdent == null) {
             throw new NoSuchAlgorithmException(algo);
         }
-        Signature sig = sigIdent.getInstance(lib.getProvider());
-        KeyPairGenerator kpg = kpIdent.getInstance(lib.getProvider());
+
+        int bits = 0;
         ECParameterSpec spec = null;
+        AlgorithmParameterSpec genSpec = null;
         if (cli.hasOption("ecdsa.bits")) {
-            int bits = Integer.parseInt(cli.getOptionValue("ecdsa.bits"));
-            kpg.initialize(bits);
+            bits = Integer.parseInt(cli.getOptionValue("ecdsa.bits"));
         } else if (cli.hasOption("ecdsa.named-curve")) {
             String curveName = cli.getOptionValue("ecdsa.named-curve");
             EC_Curve curve = EC_Store.getInstance().getObject(EC_Curve.class, curveName);
@@ -547,11 +642,12 @@ public class ECTesterStandalone {
                 return;
             }
             spec = curve.toSpec();
-            kpg.initialize(spec);
+            genSpec = spec;
         } else if (cli.hasOption("ecdsa.curve-name")) {
             String curveName = cli.getOptionValue("ecdsa.curve-name");
-            kpg.initialize(new ECGenParameterSpec(curveName));
+            genSpec = new ECGenParameterSpec(curveName);
         }
+        KeyPairGenerator kpg = initKPG(kpIdent.getInstance(lib.getProvider()), bits, genSpec);
 
         if (cli.hasOption("ecdsa.time-source")) {
             if (!lib.setNativeTimingType(cli.getOptionValue("ecdsa.time-source"))) {
@@ -560,12 +656,7 @@ public class ECTesterStandalone {
             }
         }
 
-        PrintStream out;
-        if (cli.hasOption("ecdsa.output")) {
-            out = new PrintStream(FileUtil.openStream(cli.getOptionValues("ecdsa.output")));
-        } else {
-            out = System.out;
-        }
+        OutputStream out = sampleOutput("ecdsa");
 
         String timeUnit = "nano";
         if (!lib.getNativeTimingSupport().isEmpty()) {
@@ -573,78 +664,95 @@ public class ECTesterStandalone {
         }
 
         String hashAlgo = sigIdent.getHashAlgo() != null ? String.format("[%s]", sigIdent.getHashAlgo()) : "";
-        out.println(String.format("index;signTime[%s];verifyTime[%s];data;pubW;privS;signature%s;nonce;verified", timeUnit, timeUnit, hashAlgo));
-
-        ECPrivateKey privkey = (ECPrivateKey) ECUtil.loadKey(EC_Consts.PARAMETER_S, cli.getOptionValue("ecdsa.named-private"), cli.getOptionValue("ecdsa.private"), spec);
-        ECPublicKey pubkey = (ECPublicKey) ECUtil.loadKey(EC_Consts.PARAMETER_W, cli.getOptionValue("ecdsa.named-public"), cli.getOptionValue("ecdsa.public"), spec);
-
-		KeyPair one;
-        if (cli.hasOption("ecdsa.fixed")) {
-        	one = kpg.genKeyPair();
-            if (!cli.hasOption("ecdsa.named-private")) {
-                privkey = (ECPrivateKey) one.getPrivate();
-            }
-            if (!cli.hasOption("ecdsa.named-public")) {
-                pubkey = (ECPublicKey) one.getPublic();
-            }
-        }
+        Map<String, String> metadata = sampleMetadata("ecdsa", lib, sigIdent.getName(), timeUnit);
+        BaseSampleWriter writer = BaseSampleWriter.create(cli.getOptionValue("ecdsa.format", "csv"), out, metadata, "index", String.format("signTime[%s]", timeUnit), String.format("verifyTime[%s]", timeUnit), "data", "pubW", "privS", "signature" + hashAlgo, "nonce", "verified");
+        try {
 
+            boolean namedPrivate = cli.hasOption("ecdsa.named-private");
+            boolean namedPublic = cli.hasOption("ecdsa.named-public");
+            boolean fixed = cli.hasOption("ecdsa.fixed");
 
-        int amount = Integer.parseInt(cli.getOptionValue("ecdsa.amount", "1"));
-        for (int i = 0; i < amount || amount == 0; ++i) {
-            if ((!cli.hasOption("ecdsa.named-private") || !cli.hasOption("ecdsa.named-public")) && !cli.hasOption("ecdsa.fixed")) {
-                one = kpg.genKeyPair();
+            ECPrivateKey loadedPrivkey = (ECPrivateKey) ECUtil.loadKey(EC_Consts.PARAMETER_S, cli.getOptionValue("ecdsa.named-private"), cli.getOptionValue("ecdsa.private"), spec);
+            ECPublicKey loadedPubkey = (ECPublicKey) ECUtil.loadKey(EC_Consts.PARAMETER_W, cli.getOptionValue("ecdsa.named-public"), cli.getOptionValue("ecdsa.public"), spec);
 
-                if (!cli.hasOption("ecdsa.named-private")) {
-                    privkey = (ECPrivateKey) one.getPrivate();
+            if (fixed) {
+                KeyPair one = kpg.genKeyPair();
+                if (!namedPrivate) {
+                    loadedPrivkey = (ECPrivateKey) one.getPrivate();
                 }
-                if (!cli.hasOption("ecdsa.named-public")) {
-                    pubkey = (ECPublicKey) one.getPublic();
+                if (!namedPublic) {
+                    loadedPubkey = (ECPublicKey) one.getPublic();
                 }
             }
 
-            sig.initSign(privkey);
-            sig.update(data);
+            ECPrivateKey fixedPrivkey = loadedPrivkey;
+            ECPublicKey fixedPubkey = loadedPubkey;
+            ECParameterSpec nonceSpec = spec;
+            AlgorithmParameterSpec workerSpec = genSpec;
+            int workerBits = bits;
+            int amount = Integer.parseInt(cli.getOptionValue("ecdsa.amount", "1"));
+            int threads = Integer.parseInt(cli.getOptionValue("ecdsa.threads", "1"));
+            collect("ecdsa", () -> {
+                Signature sig = sigIdent.getInstance(lib.getProvider());
+                KeyPairGenerator workerKpg = threads == 1 ? kpg : initKPG(kpIdent.getInstance(lib.getProvider()), workerBits, workerSpec);
+                return (index) -> {
+                    ECPrivateKey privkey = fixedPrivkey;
+                    ECPublicKey pubkey = fixedPubkey;
+                    if ((!namedPrivate || !namedPublic) && !fixed) {
+                        KeyPair one = workerKpg.genKeyPair();
+
+                        if (!namedPrivate) {
+                            privkey = (ECPrivateKey) one.getPrivate();
+                        }
+                        if (!namedPublic) {
+                            pubkey = (ECPublicKey) one.getPublic();
+                        }
+                    }
+
+                    sig.initSign(privkey);
+                    sig.update(data);
 
-            long signTime = -System.nanoTime();
-            byte[] signature = sig.sign();
-            signTime += System.nanoTime();
-            if (!lib.getNativeTimingSupport().isEmpty()) {
-                signTime = lib.getLastNativeTiming();
-            }
+                    long signTime = -System.nanoTime();
+                    byte[] signature = sig.sign();
+                    signTime += System.nanoTime();
+                    if (!lib.getNativeTimingSupport().isEmpty()) {
+                        signTime = lib.getLastNativeTiming();
+                    }
 
-            sig.initVerify(pubkey);
-            sig.update(data);
+                    sig.initVerify(pubkey);
+                    sig.update(data);
 
-            long verifyTime = -System.nanoTime();
-            boolean verified = sig.verify(signature);
-            verifyTime += System.nanoTime();
-            if (!lib.getNativeTimingSupport().isEmpty()) {
-                verifyTime = lib.getLastNativeTiming();
-            }
+                    long verifyTime = -System.nanoTime();
+                    boolean verified = sig.verify(signature);
+                    verifyTime += System.nanoTime();
+                    if (!lib.getNativeTimingSupport().isEmpty()) {
+                        verifyTime = lib.getLastNativeTiming();
+                    }
 
-            String pub = ByteUtil.bytesToHex(ECUtil.toX962Uncompressed(pubkey.getW(), pubkey.getParams()), false);
-            String priv = ByteUtil.bytesToHex(privkey.getS().toByteArray(), false);
-            String sign = ByteUtil.bytesToHex(signature, false);
-            String k = "";
-            if (spec != null) {
-                BigInteger kValue = ECUtil.recoverSignatureNonce(signature, data, privkey.getS(), spec, sigIdent.getHashAlgo());
-                if (kValue != null) {
-                    k = ByteUtil.bytesToHex(kValue.toByteArray(), false);
-                }
+                    byte[] pub = ECUtil.toX962Uncompressed(pubkey.getW(), pubkey.getParams());
+                    byte[] priv = privkey.getS().toByteArray();
+                    byte[] k = new byte[0];
+                    if (nonceSpec != null) {
+                        BigInteger kValue = ECUtil.recoverSignatureNonce(signature, data, privkey.getS(), nonceSpec, sigIdent.getHashAlgo());
+                        if (kValue != null) {
+                            k = kValue.toByteArray();
+                        }
+                    }
+                    return new Object[]{index, signTime, verifyTime, dataValue, pub, priv, signature, k, verified};
+                };
+            }, amount, threads, writer);
+        } finally {
+            writer.close();
+            if (cli.hasOption("ecdsa.output")) {
+                out.close();
             }
-            out.println(String.format("%d;%d;%d;%s;%s;%s;%s;%s;%d", i, signTime, verifyTime, dataString, pub, priv, sign, k, verified ? 1 : 0));
-        }
-
-        if (cli.hasOption("ecdsa.output")) {
-            out.close();
         }
     }
 
     /**
      *
      */
-    private void generate() throws NoSuchAlgorithmException, InvalidAlgorithmParameterException, FileNotFoundException {
+    private void generate() throws GeneralSecurityException, IOException {
         ProviderECLibrary lib = cfg.selected;
         KeyPairGeneratorIdent ident = null;
         String algo = cli.getOptionValue("generate.type", "EC");
@@ -657,10 +765,10 @@ public class ECTesterStandalone {
         if (ident == null) {
             throw new NoSuchAlgorithmException(algo);
         }
-        KeyPairGenerator kpg = ident.getInstance(lib.getProvider());
+        int bits = 0;
+        AlgorithmParameterSpec spec = null;
         if (cli.hasOption("generate.bits")) {
-            int bits = Integer.parseInt(cli.getOptionValue("generate.bits"));
-            kpg.initialize(bits);
+            bits = Integer.parseInt(cli.getOptionValue("generate.bits"));
         } else if (cli.hasOption("generate.named-curve")) {
             String curveName = cli.getOptionValue("generate.named-curve");
             EC_Curve curve = EC_Store.getInstance().getObject(EC_Curve.class, curveName);
@@ -668,11 +776,12 @@ public class ECTesterStandalone {
                 System.err.println("Curve not found: " + curveName);
                 return;
             }
-            kpg.initialize(curve.toSpec());
+            spec = curve.toSpec();
         } else if (cli.hasOption("generate.curve-name")) {
             String curveName = cli.getOptionValue("generate.curve-name");
-            kpg.initialize(new ECGenParameterSpec(curveName));
+            spec = new ECGenParameterSpec(curveName);
         }
+        KeyPairGenerator kpg = initKPG(ident.getInstance(lib.getProvider()), bits, spec);
 
         if (cli.hasOption("generate.time-source")) {
             if (!lib.setNativeTimingType(cli.getOptionValue("generate.time-source"))) {
@@ -686,40 +795,408 @@ public class ECTesterStandalone {
             timeUnit = lib.getNativeTimingUnit();
         }
 
+        OutputStream out = sampleOutput("generate");
+
+        Map<String, String> metadata = sampleMetadata("generate", lib, ident.getName(), timeUnit);
+        BaseSampleWriter writer = BaseSampleWriter.create(cli.getOptionValue("generate.format", "csv"), out, metadata, "index", String.format("time[%s]", timeUnit), "pubW", "privS");
+        try {
+
+            KeyPairGeneratorIdent kpIdent = ident;
+            int workerBits = bits;
+            AlgorithmParameterSpec workerSpec = spec;
+            int amount = Integer.parseInt(cli.getOptionValue("generate.amount", "1"));
+            int threads = Integer.parseInt(cli.getOptionValue("generate.threads", "1"));
+            collect("generate", () -> {
+                KeyPairGenerator workerKpg = threads == 1 ? kpg : initKPG(kpIdent.getInstance(lib.getProvider()), workerBits, workerSpec);
+                return (index) -> {
+                    long elapsed = -System.nanoTime();
+                    KeyPair kp = workerKpg.genKeyPair();
+                    elapsed += System.nanoTime();
+                    if (!lib.getNativeTimingSupport().isEmpty()) {
+                        elapsed = lib.getLastNativeTiming();
+                    }
+                    ECPublicKey publicKey = (ECPublicKey) kp.getPublic();
+                    ECPrivateKey privateKey = (ECPrivateKey) kp.getPrivate();
+
+                    byte[] pub = ECUtil.toX962Uncompressed(publicKey.getW(), publicKey.getParams());
+                    byte[] priv = privateKey.getS().toByteArray();
+                    return new Object[]{index, elapsed, pub, priv};
+                };
+            }, amount, threads, writer);
+        } finally {
+            writer.close();
+            if (cli.hasOption("generate.output")) {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Describe the measurement for the header of the binary sample format.
+     */
+    private Map<String, String> sampleMetadata(String action, ProviderECLibrary lib, String type, String timeUnit) {
+        Map<String, String> metadata = new LinkedHashMap<>();
+        metadata.put("tool", "ECTesterStandalone " + VERSION);
+        metadata.put("command", action);
+        metadata.put("library", lib.name());
+        metadata.put("type", type);
+        if (cli.hasOption(action + ".bits")) {
+            metadata.put("curve", cli.getOptionValue(action + ".bits") + "b");
+        } else if (cli.hasOption(action + ".named-curve")) {
+            metadata.put("curve", cli.getOptionValue(action + ".named-curve"));
+        } else if (cli.hasOption(action + ".curve-name")) {
+            metadata.put("curve", cli.getOptionValue(action + ".curve-name"));
+        } else {
+            metadata.put("curve", "default");
+        }
+        metadata.put("time-unit", timeUnit);
+        return metadata;
+    }
+
+    /**
+     * Describe the library and the options of a test run for the header of its checkpoint journal.
+     */
+    private Map<String, String> checkpointIdentity() {
+        Map<String, String> identity = new LinkedHashMap<>();
+        identity.put("tool", "ECTesterStandalone " + VERSION);
+        identity.put("library", cfg.selected.name());
+        for (String option : new String[]{"bits", "named-curve", "curve-name", "kpg-type", "ka-type", "sig-type", "key-type"}) {
+            identity.put(option, cli.getOptionValue("test." + option, ""));
+        }
+        return identity;
+    }
+
+    /**
+     *
+     */
+    private void convert() throws IOException {
+        String fileName = cli.getNext().getArg(0);
+        OutputStream out;
+        if (cli.hasOption("convert.output")) {
+            out = FileUtil.openStream(cli.getOptionValues("convert.output"));
+        } else {
+            out = System.out;
+        }
+        try (BinarySampleReader reader = new BinarySampleReader(new FileInputStream(fileName))) {
+            reader.toCSV(out);
+        }
+        if (cli.hasOption("convert.output")) {
+            out.close();
+        }
+    }
+
+    /**
+     *
+     */
+    private void merge() throws IOException {
+        String[] fileNames = cli.getNext().getArgs();
+        String format = cli.getOptionValue("merge.format", TestMerger.formatOf(fileNames[0]));
+        List<File> files = Arrays.stream(fileNames).map(File::new).collect(Collectors.toList());
+        OutputStream out;
+        if (cli.hasOption("merge.output")) {
+            out = FileUtil.openStream(cli.getOptionValues("merge.output"));
+        } else {
+            out = System.out;
+        }
+        TestMerger.merge(format, files, out);
+        if (cli.hasOption("merge.output")) {
+            out.close();
+        }
+    }
+
+    /**
+     *
+     */
+    private void analyze() throws IOException {
+        String fileName = cli.getNext().getArg(0);
+        int bins = Integer.parseInt(cli.getOptionValue("analyze.bins", "20"));
         PrintStream out;
-        if (cli.hasOption("generate.output")) {
-            out = new PrintStream(FileUtil.openStream(cli.getOptionValues("generate.output")));
+        if (cli.hasOption("analyze.output")) {
+            out = new PrintStream(FileUtil.openStream(cli.getOptionValues("analyze.output")));
         } else {
             out = System.out;
         }
 
-        out.println(String.format("index;time[%s];pubW;privS", timeUnit));
+        try (MappedSampleReader reader = new MappedSampleReader(Paths.get(fileName))) {
+            String[] columns = reader.getColumns();
+            SampleStats[] stats = new SampleStats[columns.length];
+            for (int i = 0; i < columns.length; ++i) {
+                if (reader.isNumeric(i)) {
+                    stats[i] = new SampleStats();
+                }
+            }
+            long rows = reader.scan((column, value) -> stats[column].add(value));
+            for (SampleStats stat : stats) {
+                if (stat != null) {
+                    stat.prepareSecond(bins);
+                }
+            }
+            reader.scan((column, value) -> stats[column].addSecond(value));
+
+            out.println(Colors.bold("File: ") + fileName + " (" + (reader.isBinary() ? "binary" : "CSV") + ", " + rows + " rows)");
+            for (Map.Entry<String, String> entry : reader.getMetadata().entrySet()) {
+                out.println("\t" + Colors.bold(entry.getKey() + ": ") + entry.getValue());
+            }
+            for (int i = 0; i < columns.length; ++i) {
+                SampleStats stat = stats[i];
+                if (stat == null) {
+                    continue;
+                }
+                out.println(Colors.bold(columns[i]) + ":");
+                out.println(String.format("\tcount:  %d", stat.getCount()));
+                if (stat.getCount() == 0) {
+                    continue;
+                }
+                Map.Entry<Long, Long> mode = stat.getMode();
+                out.println(String.format("\tmin:    %d", stat.getMin()));
+                out.println(String.format("\tmax:    %d", stat.getMax()));
+                out.println(String.format("\tmean:   %.2f", stat.getMean()));
+                out.println(String.format("\tstddev: %.2f", stat.getStdDev()));
+                out.println(String.format("\tmedian: %.2f", stat.getMedian()));
+                out.println(String.format("\tmode:   %d (%d times)", mode.getKey(), mode.getValue()));
+                out.println("\thistogram:");
+                long[] histogram = stat.getHistogram();
+                long highest = Arrays.stream(histogram).max().orElse(1);
+                for (int j = 0; j < histogram.length; ++j) {
+                    int bar = (int) (histogram[j] * 50 / Math.max(highest, 1));
+                    out.println(String.format("\t\t%20d %12d %s", stat.getBinStart(j), histogram[j], new String(new char[bar]).replace("\0", "#")));
+                }
+            }
+        }
+
+        if (cli.hasOption("analyze.output")) {
+            out.close();
+        }
+    }
+
+    /**
+     *
+     */
+    private void bench() throws IOException {
+        ProviderECLibrary[] benchLibs;
+        if (cfg.selected != null) {
+            benchLibs = new ProviderECLibrary[]{cfg.selected};
+        } else {
+            benchLibs = Arrays.stream(libs).filter(ProviderECLibrary::isInitialized).toArray(ProviderECLibrary[]::new);
+        }
 
-        int amount = Integer.parseInt(cli.getOptionValue("generate.amount", "1"));
-        for (int i = 0; i < amount || amount == 0; ++i) {
-            long elapsed = -System.nanoTime();
-            KeyPair kp = kpg.genKeyPair();
-            elapsed += System.nanoTime();
-            if (!lib.getNativeTimingSupport().isEmpty()) {
-                elapsed = lib.getLastNativeTiming();
+        Map<String, EC_Curve> curves = new LinkedHashMap<>();
+        for (String query : cli.getOptionValue("bench.curves", "secg/secp256r1").split(",")) {
+            if (query.contains("/")) {
+                EC_Curve curve = EC_Store.getInstance().getObject(EC_Curve.class, query);
+                if (curve == null) {
+                    System.err.println("Curve not found: " + query);
+                    return;
+                }
+                curves.put(query, curve);
+            } else {
+                Map<String, EC_Curve> category = EC_Store.getInstance().getObjects(EC_Curve.class, query);
+                if (category == null || category.isEmpty()) {
+                    System.err.println("Category not found: " + query);
+                    return;
+                }
+                for (EC_Curve curve : category.values()) {
+                    curves.put(query + "/" + curve.getId(), curve);
+                }
             }
-            ECPublicKey publicKey = (ECPublicKey) kp.getPublic();
-            ECPrivateKey privateKey = (ECPrivateKey) kp.getPrivate();
+        }
 
-            String pub = ByteUtil.bytesToHex(ECUtil.toX962Uncompressed(publicKey.getW(), publicKey.getParams()), false);
-            String priv = ByteUtil.bytesToHex(privateKey.getS().toByteArray(), false);
-            out.println(String.format("%d;%d;%s;%s", i, elapsed, pub, priv));
+        List<String> operations = Arrays.asList(cli.getOptionValue("bench.ops", String.join(",", Benchmark.OPERATIONS)).split(","));
+        int warmup = Integer.parseInt(cli.getOptionValue("bench.warmup", "3"));
+        int iterations = Integer.parseInt(cli.getOptionValue("bench.iterations", "5"));
+        long time = Long.parseLong(cli.getOptionValue("bench.time", "1000"));
+        Benchmark benchmark = new Benchmark(benchLibs, curves, operations, cli.getOptionValue("bench.type"), warmup, iterations, time);
+        if (!cli.hasOption("bench.no-fork")) {
+            List<String> globalArgs = new LinkedList<>();
+            if (cli.hasOption("data")) {
+                for (String dir : cli.getOptionValues("data")) {
+                    globalArgs.add("--data");
+                    globalArgs.add(dir);
+                }
+            }
+            benchmark.setFork(globalArgs);
         }
 
-        if (cli.hasOption("generate.output")) {
+        PrintStream out;
+        if (cli.hasOption("bench.output")) {
+            out = new PrintStream(FileUtil.openStream(cli.getOptionValues("bench.output")));
+        } else {
+            out = System.out;
+        }
+        benchmark.run(out, cli.getOptionValue("bench.format", "text").equalsIgnoreCase("csv"));
+        if (cli.hasOption("bench.output")) {
             out.close();
         }
     }
 
+    private static KeyPairGenerator initKPG(KeyPairGenerator kpg, int bits, AlgorithmParameterSpec spec) throws InvalidAlgorithmParameterException {
+        if (spec != null) {
+            kpg.initialize(spec);
+        } else if (bits != 0) {
+            kpg.initialize(bits);
+        }
+        return kpg;
+    }
+
+    /**
+     * Collect <code>amount</code> samples (or samples indefinitely if <code>amount</code> is zero) and output them
+     * in index order. With more than one thread, every worker gets its own <code>Sampler</code> from the
+     * <code>factory</code> and computes every <code>threads</code>-th sample, the rows are then merged back
+     * in order of their indices.
+     */
+    private static void sample(SamplerFactory factory, int amount, int threads, BaseSampleWriter out) throws GeneralSecurityException, IOException {
+        if (threads <= 1) {
+            Sampler sampler = factory.create();
+            for (int i = 0; i < amount || amount == 0; ++i) {
+                out.write(sampler.sample(i));
+            }
+            return;
+        }
+
+        List<BlockingQueue<Object>> queues = new ArrayList<>(threads);
+        Thread[] workers = new Thread[threads];
+        for (int w = 0; w < threads; ++w) {
+            Sampler sampler = factory.create();
+            BlockingQueue<Object> queue = new ArrayBlockingQueue<>(SAMPLE_QUEUE_SIZE);
+            int first = w;
+            workers[w] = new Thread(() -> {
+                try {
+                    for (int i = first; i < amount || amount == 0; i += threads) {
+                        Object row;
+                        try {
+                            row = sampler.sample(i);
+                        } catch (GeneralSecurityException | RuntimeException e) {
+                            row = e;
+                        }
+                        queue.put(row);
+                        if (row instanceof Exception) {
+                            break;
+                        }
+                    }
+                } catch (InterruptedException ignored) {
+                }
+            }, "sampler-" + w);
+            workers[w].setDaemon(true);
+            queues.add(queue);
+        }
+
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            for (int i = 0; i < amount || amount == 0; ++i) {
+                Object row = queues.get(i % threads).take();
+                if (row instanceof GeneralSecurityException) {
+                    throw (GeneralSecurityException) row;
+                } else if (row instanceof RuntimeException) {
+                    throw (RuntimeException) row;
+                }
+                out.write((Object[]) row);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (Thread worker : workers) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    private static final int SAMPLE_QUEUE_SIZE = 1024;
+
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    /**
+     * Open the output of the samples of the action, the file given or stdout. A worker process does not output
+     * its samples there, it sends them to its parent.
+     */
+    private OutputStream sampleOutput(String action) throws IOException {
+        if (workerOutput != null) {
+            return NULL_OUTPUT;
+        } else if (cli.hasOption(action + ".output")) {
+            return FileUtil.openStream(cli.getOptionValues(action + ".output"));
+        } else {
+            return System.out;
+        }
+    }
+
+    /**
+     * Collect the samples of the action, either in this process or, with <code>--isolate</code>, in worker
+     * processes running this same command, see {@link SampleWorker}.
+     */
+    private void collect(String action, SamplerFactory factory, int amount, int threads, BaseSampleWriter out) throws GeneralSecurityException, IOException {
+        if (workerOutput != null) {
+            SampleWorker.serve(factory.create(), System.in, workerOutput);
+        } else if (cli.hasOption(action + ".isolate")) {
+            SampleWorker.sample(workerCommand(cli.getArg(-1)), workerData, amount, threads, out);
+        } else {
+            sample(factory, amount, threads, out);
+        }
+    }
+
+    /**
+     * @param library The library argument of the command.
+     * @return The command to start a worker process with, this JVM with the parsed options of this command,
+     * plus <code>--worker</code>, and the library.
+     */
+    private List<String> workerCommand(String library) {
+        List<String> command = new LinkedList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ECTesterStandalone.class.getName());
+        addOptions(command, cli.getOptions());
+        command.add(cli.getNextName());
+        addOptions(command, cli.getNext().getOptions());
+        command.add("--worker");
+        command.add(library);
+        return command;
+    }
+
+    private static void addOptions(List<String> command, Option[] options) {
+        for (Option option : options) {
+            String name = option.getLongOpt() != null ? "--" + option.getLongOpt() : "-" + option.getOpt();
+            String[] values = option.getValues();
+            if (values == null) {
+                command.add(name);
+            } else {
+                for (String value : values) {
+                    command.add(name);
+                    command.add(value);
+                }
+            }
+        }
+    }
+
+    /**
+     * A worker-local measurement of a single sample, producing one row of raw column values.
+     */
+    @FunctionalInterface
+    interface Sampler {
+        Object[] sample(int index) throws GeneralSecurityException;
+    }
+
+    /**
+     * Creates a <code>Sampler</code> with its own KeyAgreement/Signature/KeyPairGenerator instances.
+     */
+    @FunctionalInterface
+    private interface SamplerFactory {
+        Sampler create() throws GeneralSecurityException;
+    }
+
     /**
      *
      */
-    private void test() throws TestException, ParserConfigurationException {
+    private void test() throws TestException, XMLStreamException {
         TestWriter writer;
         switch (cli.getOptionValue("test.format", "text").toLowerCase()) {
             case "yaml":
@@ -729,6 +1206,9 @@ public class ECTesterStandalone {
             case "xml":
                 writer = new XMLTestWriter(System.out);
                 break;
+            case "jsonl":
+                writer = new JSONLTestWriter(System.out);
+                break;
             case "text":
             default:
                 writer = new TextTestWriter(System.out);
@@ -736,6 +1216,14 @@ public class ECTesterStandalone {
         }
 
         StandaloneTestSuite suite = new StandaloneDefaultSuite(writer, cfg, cli);
+        suite.setThreads(Integer.parseInt(cli.getOptionValue("test.threads", "1")));
+        if (cli.hasOption("test.checkpoint")) {
+            suite.setCheckpoint(new Checkpoint(new File(cli.getOptionValue("test.checkpoint")), cli.hasOption("test.resume"), checkpointIdentity()));
+        }
+        if (cli.hasOption("test.shard")) {
+            int[] shard = CLITools.parseShard(cli.getOptionValue("test.shard"));
+            suite.setShard(shard[0], shard[1]);
+        }
         suite.run();
     }
 
@@ -790,6 +1278,17 @@ public class ECTesterStandalone {
             color = cli.hasOption("color");
             Colors.enabled = color;
 
+            if (cli.hasOption("data")) {
+                for (String dir : cli.getOptionValues("data")) {
+                    try {
+                        EC_Store.getInstance().addCategories(Paths.get(dir));
+                    } catch (IOException | InvalidPathException e) {
+                        System.err.println("Could not load data from " + dir + ": " + e.getMessage());
+                        return false;
+                    }
+                }
+            }
+
             String next = cli.getNextName();
 
             if (cli.isNext("generate") || cli.isNext("export") || cli.isNext("ecdh") || cli.isNext("ecdsa") || cli.isNext("test")) {
@@ -812,7 +1311,7 @@ public class ECTesterStandalone {
                 }
             }
 
-            if (!cli.isNext("list-data") && !cli.isNext("list-suites") && !cli.isNext("list-types")) {
+            if (!cli.isNext("list-data") && !cli.isNext("list-suites") && !cli.isNext("list-types") && !cli.isNext("convert") && !cli.isNext("analyze") && !cli.isNext("merge")) {
                 String libraryName = cli.getArg(-1);
                 if (libraryName != null) {
                     List<ProviderECLibrary> matchedLibs = new LinkedList<>();
@@ -833,15 +1332,79 @@ public class ECTesterStandalone {
                 }
             }
 
+            if (cli.hasOption("test.resume") && !cli.hasOption("test.checkpoint")) {
+                System.err.println("Resuming requires a checkpoint journal.");
+                return false;
+            }
+
+            if (cli.hasOption("test.shard") && CLITools.parseShard(cli.getOptionValue("test.shard")) == null) {
+                System.err.println("Invalid shard " + cli.getOptionValue("test.shard") + ", should be i/n with 0 <= i < n.");
+                return false;
+            }
+
             if (cli.hasOption("test.format")) {
                 String fmt = cli.getOptionValue("test.format");
-                String[] formats = new String[]{"text", "xml", "yaml", "yml"};
+                String[] formats = new String[]{"text", "xml", "yaml", "yml", "jsonl"};
                 if (!Arrays.asList(formats).contains(fmt.toLowerCase())) {
                     System.err.println("Invalid format specified.");
                     return false;
                 }
             }
 
+            if (cli.isNext("merge")) {
+                String format = cli.getOptionValue("merge.format", TestMerger.formatOf(cli.getNext().getArg(0)));
+                if (format == null || !Arrays.asList(TestMerger.FORMATS).contains(format.toLowerCase())) {
+                    System.err.println("Invalid or unknown format of the test outputs, specify one of yaml,xml,jsonl.");
+                    return false;
+                }
+            }
+
+            if (cli.isNext("bench")) {
+                if (cli.hasOption("bench.ops")) {
+                    for (String op : cli.getOptionValue("bench.ops").split(",")) {
+                        if (!Arrays.asList(Benchmark.OPERATIONS).contains(op)) {
+                            System.err.println("Invalid operation specified: " + op);
+                            return false;
+                        }
+                    }
+                }
+                if (cli.hasOption("bench.format")) {
+                    String fmt = cli.getOptionValue("bench.format");
+                    String[] formats = new String[]{"text", "csv"};
+                    if (!Arrays.asList(formats).contains(fmt.toLowerCase())) {
+                        System.err.println("Invalid format specified.");
+                        return false;
+                    }
+                }
+                for (String opt : new String[]{"warmup", "iterations", "time"}) {
+                    if (cli.hasOption("bench." + opt)) {
+                        int value;
+                        try {
+                            value = Integer.parseInt(cli.getOptionValue("bench." + opt));
+                        } catch (NumberFormatException nfe) {
+                            value = -1;
+                        }
+                        if (value < (opt.equals("warmup") ? 0 : 1)) {
+                            System.err.println("Invalid " + opt + " value specified.");
+                            return false;
+                        }
+                    }
+                }
+            }
+
+            if (cli.isNext("analyze") && cli.hasOption("analyze.bins")) {
+                int bins;
+                try {
+                    bins = Integer.parseInt(cli.getOptionValue("analyze.bins"));
+                } catch (NumberFormatException nfe) {
+                    bins = 0;
+                }
+                if (bins < 1) {
+                    System.err.println("Invalid number of histogram bins specified.");
+                    return false;
+                }
+            }
+
             if (cli.isNext("ecdh")) {
                 if ((cli.hasOption("ecdh.public") || cli.hasOption("ecdh.private")) && !cli.hasOption("ecdh.named-curve")) {
                     System.err.println("Need to specify a named curve when specifying public/private key in file.");
@@ -856,7 +1419,39 @@ public class ECTesterStandalone {
                 }
             }
 
+            if (cli.isNext("generate") || cli.isNext("ecdh") || cli.isNext("ecdsa") || cli.isNext("test")) {
+                if (cli.hasOption(next + ".threads")) {
+                    int threads;
+                    try {
+                        threads = Integer.parseInt(cli.getOptionValue(next + ".threads"));
+                    } catch (NumberFormatException nfe) {
+                        threads = 0;
+                    }
+                    if (threads < 1) {
+                        System.err.println("Invalid number of threads specified.");
+                        return false;
+                    }
+                    if (threads > 1 && selected instanceof NativeECLibrary && !cli.hasOption(next + ".isolate")) {
+                        System.err.println(String.format("Library %s keeps global native state, cannot use more than one thread without --isolate.", selected.name()));
+                        return false;
+                    }
+                }
+            }
+
+            if (cli.hasOption(next + ".isolate") && (cli.hasOption(next + ".fixed-private") || cli.hasOption(next + ".fixed-public") || cli.hasOption(next + ".fixed"))) {
+                System.err.println("Cannot use a fixed key with --isolate, every worker would generate its own.");
+                return false;
+            }
+
             if (cli.isNext("generate") || cli.isNext("ecdh") || cli.isNext("ecdsa")) {
+                if (cli.hasOption(next + ".format")) {
+                    String fmt = cli.getOptionValue(next + ".format");
+                    String[] formats = new String[]{"csv", "bin"};
+                    if (!Arrays.asList(formats).contains(fmt.toLowerCase())) {
+                        System.err.println("Invalid format specified.");
+                        return false;
+                    }
+                }
                 if (cli.hasOption(next + ".time-source")) {
                     String source = cli.getOptionValue(next + ".time-source");
                     if (!selected.getNativeTimingSupport().contains(source)) {
@@ -0,0 +1,257 @@
+package cz.crcs.ectester.standalone;
+
+import cz.crcs.ectester.common.output.BaseSampleWriter;
+
+import java.io.*;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A worker JVM collecting samples of an ecdh/ecdsa/generate command, so that a crash of a native library
+ * does not take the parent JVM with it, and so that libraries with global native state can collect samples
+ * in several processes in parallel.
+ * <p>
+ * The parent starts the worker with the same command and a <code>--worker</code> option, and then talks to it
+ * over its stdin and stdout using a compact binary protocol, of big-endian values:
+ * <pre>
+ * data:     int length, bytes         the data fixed for the whole run, sent once first, length -1 if none
+ * request:  int first, int count       sample the indices first .. first + count - 1, count 0 ends the worker
+ * response: int count, row[count]      the sampled rows, in order
+ *           int -1, utf message        sampling failed, the worker exits
+ * row:      byte n, column[n]
+ * column:   byte tag, value            'I' int, 'J' long, 'Z' boolean, 'B' int length + bytes, 'S' utf, 'N' null
+ * </pre>
+ * Samples are requested in batches of {@link #BATCH} and every worker has two batches requested at a time, so
+ * the round trips are amortized and the worker does not wait for the parent between batches.
+ *
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class SampleWorker implements Closeable {
+    private static final int BATCH = 256;
+    private static final int BUFFER = 1 << 16;
+
+    private int id;
+    private Process process;
+    private DataOutputStream requests;
+    private DataInputStream responses;
+
+    private SampleWorker(int id, List<String> command, byte[] data) throws IOException {
+        this.id = id;
+        this.process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        this.requests = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+        this.responses = new DataInputStream(new BufferedInputStream(process.getInputStream(), BUFFER));
+        if (data == null) {
+            requests.writeInt(-1);
+        } else {
+            requests.writeInt(data.length);
+            requests.write(data);
+        }
+        requests.flush();
+    }
+
+    private void request(int first, int count) throws IOException {
+        requests.writeInt(first);
+        requests.writeInt(count);
+        requests.flush();
+    }
+
+    private Object[][] read(int done) throws IOException, GeneralSecurityException {
+        int count;
+        try {
+            count = responses.readInt();
+            if (count == -1) {
+                throw new GeneralSecurityException(responses.readUTF());
+            }
+            Object[][] rows = new Object[count][];
+            for (int i = 0; i < count; ++i) {
+                rows[i] = readRow(responses);
+            }
+            return rows;
+        } catch (EOFException e) {
+            int exit;
+            try {
+                exit = process.waitFor();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            throw new IOException(String.format("Worker %d exited with code %d, after %d samples were collected.", id, exit, done));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            request(0, 0);
+            requests.close();
+        } catch (IOException ignored) {
+        }
+        try {
+            if (!process.waitFor(5, TimeUnit.SECONDS)) {
+                process.destroyForcibly();
+            }
+        } catch (InterruptedException e) {
+            process.destroyForcibly();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Collect <code>amount</code> samples (or samples indefinitely if <code>amount</code> is zero) in
+     * <code>workers</code> worker JVMs started with the <code>command</code>, and output them in index order.
+     * The <code>data</code> fixed for the whole run, if any, is sent to every worker, see {@link #receive(InputStream)}.
+     * If a worker crashes, the samples collected before are output and the writer is closed.
+     */
+    static void sample(List<String> command, byte[] data, int amount, int workers, BaseSampleWriter out) throws GeneralSecurityException, IOException {
+        SampleWorker[] running = new SampleWorker[workers];
+        int done = 0;
+        try {
+            for (int w = 0; w < workers; ++w) {
+                running[w] = new SampleWorker(w, command, data);
+            }
+            for (int k = 0; k < 2 * workers && batchSize(k, amount) > 0; ++k) {
+                running[k % workers].request(k * BATCH, batchSize(k, amount));
+            }
+            for (int k = 0; batchSize(k, amount) > 0; ++k) {
+                SampleWorker worker = running[k % workers];
+                Object[][] rows = worker.read(done);
+                int next = k + 2 * workers;
+                if (batchSize(next, amount) > 0) {
+                    worker.request(next * BATCH, batchSize(next, amount));
+                }
+                for (Object[] row : rows) {
+                    out.write(row);
+                }
+                done += rows.length;
+            }
+        } catch (IOException | GeneralSecurityException e) {
+            out.close();
+            throw e;
+        } finally {
+            for (SampleWorker worker : running) {
+                if (worker != null) {
+                    worker.close();
+                }
+            }
+        }
+    }
+
+    private static int batchSize(int k, int amount) {
+        if (amount == 0) {
+            return BATCH;
+        }
+        return Math.max(0, Math.min(BATCH, amount - k * BATCH));
+    }
+
+    /**
+     * Receive the data fixed for the whole run from the parent, before serving its requests.
+     *
+     * @return the data, or null if the parent has none
+     */
+    static byte[] receive(InputStream input) throws IOException {
+        DataInputStream in = new DataInputStream(input);
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return data;
+    }
+
+    /**
+     * Serve the requests of the parent, sampling with the <code>sampler</code>.
+     */
+    static void serve(ECTesterStandalone.Sampler sampler, InputStream input, OutputStream output) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(input));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output, BUFFER));
+        while (true) {
+            int first;
+            int count;
+            try {
+                first = in.readInt();
+                count = in.readInt();
+            } catch (EOFException e) {
+                return;
+            }
+            if (count <= 0) {
+                return;
+            }
+            Object[][] rows = new Object[count][];
+            try {
+                for (int i = 0; i < count; ++i) {
+                    rows[i] = sampler.sample(first + i);
+                }
+            } catch (GeneralSecurityException | RuntimeException e) {
+                out.writeInt(-1);
+                out.writeUTF(String.valueOf(e.getMessage()));
+                out.flush();
+                return;
+            }
+            out.writeInt(count);
+            for (Object[] row : rows) {
+                writeRow(out, row);
+            }
+            out.flush();
+        }
+    }
+
+    private static void writeRow(DataOutputStream out, Object[] row) throws IOException {
+        out.writeByte(row.length);
+        for (Object value : row) {
+            if (value instanceof Integer) {
+                out.writeByte('I');
+                out.writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                out.writeByte('J');
+                out.writeLong((Long) value);
+            } else if (value instanceof Boolean) {
+                out.writeByte('Z');
+                out.writeBoolean((Boolean) value);
+            } else if (value instanceof byte[]) {
+                byte[] bytes = (byte[]) value;
+                out.writeByte('B');
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            } else if (value == null) {
+                out.writeByte('N');
+            } else {
+                out.writeByte('S');
+                out.writeUTF(value.toString());
+            }
+        }
+    }
+
+    private static Object[] readRow(DataInputStream in) throws IOException {
+        Object[] row = new Object[in.readUnsignedByte()];
+        for (int i = 0; i < row.length; ++i) {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case 'I':
+                    row[i] = in.readInt();
+                    break;
+                case 'J':
+                    row[i] = in.readLong();
+                    break;
+                case 'Z':
+                    row[i] = in.readBoolean();
+                    break;
+                case 'B':
+                    byte[] bytes = new byte[in.readInt()];
+                    in.readFully(bytes);
+                    row[i] = bytes;
+                    break;
+                case 'S':
+                    row[i] = in.readUTF();
+                    break;
+                case 'N':
+                    row[i] = null;
+                    break;
+                default:
+                    throw new IOException("Invalid column tag in worker response: " + tag);
+            }
+        }
+        return row;
+    }
+}
@@ -0,0 +1,118 @@
+package cz.crcs.ectester.standalone.output;
+
+import cz.crcs.ectester.common.output.BaseJSONLTestWriter;
+import cz.crcs.ectester.common.test.TestSuite;
+import cz.crcs.ectester.common.test.Testable;
+import cz.crcs.ectester.common.util.ByteUtil;
+import cz.crcs.ectester.standalone.ECTesterStandalone;
+import cz.crcs.ectester.standalone.test.base.KeyAgreementTestable;
+import cz.crcs.ectester.standalone.test.base.KeyGeneratorTestable;
+import cz.crcs.ectester.standalone.test.base.SignatureTestable;
+import cz.crcs.ectester.standalone.test.base.StandaloneTestable;
+import cz.crcs.ectester.standalone.test.suites.StandaloneTestSuite;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.Key;
+
+/**
+ * @author Jan Jancar johny@neuromancer.sk
+ */
+public class JSONLTestWriter extends BaseJSONLTestWriter {
+
+    public JSONLTestWriter(OutputStream output) {
+        super(output);
+    }
+
+    private void writeKey(String name, Key key) throws IOException {
+        name(name);
+        if (key == null) {
+            nullValue();
+            return;
+        }
+        beginObject();
+        field("algorithm", key.getAlgorithm());
+        field("format", key.getFormat());
+        field("raw", ByteUtil.bytesToHex(key.getEncoded()));
+        endObject();
+    }
+
+    private void writeKA(KeyAgreementTestable kat) throws IOException {
+        name("key-agreement");
+        beginObject();
+        field("algo", kat.getKa().getAlgorithm());
+        field("secret", ByteUtil.bytesToHex(kat.getSecret()));
+        writeKey("pubkey", kat.getPublicKey());
+        writeKey("privkey", kat.getPrivateKey());
+        endObject();
+    }
+
+    private void writeKGT(KeyGeneratorTestable kgt) throws IOException {
+        name("key-pair-generator");
+        beginObject();
+        field("algo", kgt.getKpg().getAlgorithm());
+        name("key-pair");
+        if (kgt.getKeyPair() != null) {
+            beginObject();
+            writeKey("pubkey", kgt.getKeyPair().getPublic());
+            writeKey("privkey", kgt.getKeyPair().getPrivate());
+            endObject();
+        } else {
+            nullValue();
+        }
+        endObject();
+    }
+
+    private void writeSig(SignatureTestable sig) throws IOException {
+        name("signature");
+        beginObject();
+        field("verified", sig.getVerified());
+        field("algo", sig.getSig().getAlgorithm());
+        field("raw", ByteUtil.bytesToHex(sig.getSignature()));
+        endObject();
+    }
+
+    private String causeObject(Object cause) {
+        if (cause == null) {
+            return "";
+        } else if (cause instanceof Exception) {
+            Exception ex = ((Exception) cause);
+            return ex.getClass().getCanonicalName() + " : " + ex.getMessage();
+        } else {
+            return cause.toString();
+        }
+    }
+
+    @Override
+    protected void writeTestable(Testable t) throws IOException {
+        if (t instanceof StandaloneTestable) {
+            StandaloneTestable<?> testable = (StandaloneTestable) t;
+            if (t instanceof KeyGeneratorTestable) {
+                field("type", "key-pair-generator");
+                writeKGT((KeyGeneratorTestable) t);
+            } else if (t instanceof KeyAgreementTestable) {
+                field("type", "key-agreement");
+                writeKA((KeyAgreementTestable) t);
+            } else if (t instanceof SignatureTestable) {
+                field("type", "signature");
+                writeSig((SignatureTestable) t);
+            }
+            field("stage", testable.getStage().name());
+            field("exception", causeObject(testable.getException()) + causeObject(testable.errorCause()));
+        }
+    }
+
+    @Override
+    protected void writeDevice(TestSuite suite) throws IOException {
+        if (suite instanceof StandaloneTestSuite) {
+            StandaloneTestSuite standaloneSuite = (StandaloneTestSuite) suite;
+            beginObject();
+            field("type", "library");
+            field("ectester", ECTesterStandalone.VERSION);
+            field("name", standaloneSuite.getLibrary().name());
+            endObject();
+        } else {
+            nullValue();
+        }
+    }
+}
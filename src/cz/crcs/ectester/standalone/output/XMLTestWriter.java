@@ -10,98 +10,57 @@ import cz.crcs.ectester.standalone.test.base.KeyGeneratorTestable;
 import cz.crcs.ectester.standalone.test.base.SignatureTestable;
 import cz.crcs.ectester.standalone.test.base.StandaloneTestable;
 import cz.crcs.ectester.standalone.test.suites.StandaloneTestSuite;
-import org.w3c.dom.Element;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
 import java.io.OutputStream;
-import java.security.PrivateKey;
-import java.security.PublicKey;
+import java.security.Key;
 
 /**
  * @author Jan Jancar johny@neuromancer.sk
  */
 public class XMLTestWriter extends BaseXMLTestWriter {
 
-    public XMLTestWriter(OutputStream output) throws ParserConfigurationException {
+    public XMLTestWriter(OutputStream output) throws XMLStreamException {
         super(output);
     }
 
-    private Element pkeyElement(PublicKey pkey) {
-        Element pubkey = doc.createElement("pubkey");
-        if (pkey == null) {
-            return pubkey;
+    private void writeKey(String name, Key key) throws XMLStreamException {
+        startElement(name);
+        if (key != null) {
+            attribute("algorithm", key.getAlgorithm());
+            attribute("format", key.getFormat());
+            text(ByteUtil.bytesToHex(key.getEncoded()));
         }
-        pubkey.setAttribute("algorithm", pkey.getAlgorithm());
-        pubkey.setAttribute("format", pkey.getFormat());
-        pubkey.setTextContent(ByteUtil.bytesToHex(pkey.getEncoded()));
-        return pubkey;
+        endElement();
     }
 
-    private Element skeyElement(PrivateKey skey) {
-        Element privkey = doc.createElement("privkey");
-        if (skey == null) {
-            return privkey;
-        }
-        privkey.setAttribute("algorithm", skey.getAlgorithm());
-        privkey.setAttribute("format", skey.getFormat());
-        privkey.setTextContent(ByteUtil.bytesToHex(skey.getEncoded()));
-        return privkey;
-    }
-
-    private Element kaElement(KeyAgreementTestable kat) {
-        Element katElem = doc.createElement("key-agreement");
-        katElem.setAttribute("algo", kat.getKa().getAlgorithm());
-
-        Element secret = doc.createElement("secret");
-        secret.setTextContent(ByteUtil.bytesToHex(kat.getSecret()));
-        katElem.appendChild(secret);
-
-        PublicKey pkey = kat.getPublicKey();
-        Element pubkey = pkeyElement(pkey);
-        katElem.appendChild(pubkey);
-
-        PrivateKey skey = kat.getPrivateKey();
-        Element privkey = skeyElement(skey);
-        katElem.appendChild(privkey);
-
-        return katElem;
+    private void writeKA(KeyAgreementTestable kat) throws XMLStreamException {
+        startElement("key-agreement");
+        attribute("algo", kat.getKa().getAlgorithm());
+        element("secret", ByteUtil.bytesToHex(kat.getSecret()));
+        writeKey("pubkey", kat.getPublicKey());
+        writeKey("privkey", kat.getPrivateKey());
+        endElement();
     }
 
-    private Element kgtElement(KeyGeneratorTestable kgt) {
-        Element kgtElem = doc.createElement("key-pair-generator");
-        kgtElem.setAttribute("algo", kgt.getKpg().getAlgorithm());
-
-        Element keyPair = doc.createElement("key-pair");
+    private void writeKGT(KeyGeneratorTestable kgt) throws XMLStreamException {
+        startElement("key-pair-generator");
+        attribute("algo", kgt.getKpg().getAlgorithm());
+        startElement("key-pair");
         if (kgt.getKeyPair() != null) {
-            PublicKey pkey = kgt.getKeyPair().getPublic();
-            Element pubkey = pkeyElement(pkey);
-            keyPair.appendChild(pubkey);
-
-            PrivateKey skey = kgt.getKeyPair().getPrivate();
-            Element privkey = skeyElement(skey);
-            keyPair.appendChild(privkey);
+            writeKey("pubkey", kgt.getKeyPair().getPublic());
+            writeKey("privkey", kgt.getKeyPair().getPrivate());
         }
-
-        kgtElem.appendChild(keyPair);
-        return kgtElem;
+        endElement();
+        endElement();
     }
 
-    private Element sigElement(SignatureTestable sig) {
-        Element sigElem = doc.createElement("signature");
-        sigElem.setAttribute("verified", sig.getVerified() ? "true" : "false");
-        sigElem.setAttribute("algo", sig.getSig().getAlgorithm());
-
-        Element raw = doc.createElement("raw");
-        raw.setTextContent(ByteUtil.bytesToHex(sig.getSignature()));
-        sigElem.appendChild(raw);
-
-        return sigElem;
-    }
-
-    private Element stageElement(StandaloneTestable<?> t) {
-        Element result = doc.createElement("stage");
-        result.setTextContent(t.getStage().name());
-        return result;
+    private void writeSig(SignatureTestable sig) throws XMLStreamException {
+        startElement("signature");
+        attribute("verified", sig.getVerified() ? "true" : "false");
+        attribute("algo", sig.getSig().getAlgorithm());
+        element("raw", ByteUtil.bytesToHex(sig.getSignature()));
+        endElement();
     }
 
     private String causeObject(Object cause) {
@@ -116,41 +75,33 @@ public class XMLTestWriter extends BaseXMLTestWriter {
     }
 
     @Override
-    protected Element testableElement(Testable t) {
-        Element result = doc.createElement("test");
+    protected void writeTestable(Testable t) throws XMLStreamException {
         if (t instanceof StandaloneTestable) {
             StandaloneTestable<?> testable = (StandaloneTestable) t;
             if (t instanceof KeyGeneratorTestable) {
-                result.setAttribute("type", "key-pair-generator");
-                result.appendChild(kgtElement((KeyGeneratorTestable) t));
+                attribute("type", "key-pair-generator");
+                writeKGT((KeyGeneratorTestable) t);
             } else if (t instanceof KeyAgreementTestable) {
-                result.setAttribute("type", "key-agreement");
-                result.appendChild(kaElement((KeyAgreementTestable) t));
+                attribute("type", "key-agreement");
+                writeKA((KeyAgreementTestable) t);
             } else if (t instanceof SignatureTestable) {
-                result.setAttribute("type", "signature");
-                result.appendChild(sigElement((SignatureTestable) t));
+                attribute("type", "signature");
+                writeSig((SignatureTestable) t);
             }
-            result.appendChild(stageElement(testable));
-            Element exception = doc.createElement("exception");
-            exception.setTextContent(causeObject(testable.getException()) + causeObject(testable.errorCause()));
-            result.appendChild(exception);
+            element("stage", testable.getStage().name());
+            element("exception", causeObject(testable.getException()) + causeObject(testable.errorCause()));
         }
-        return result;
     }
 
     @Override
-    protected Element deviceElement(TestSuite suite) {
+    protected void writeDevice(TestSuite suite) throws XMLStreamException {
         if (suite instanceof StandaloneTestSuite) {
             StandaloneTestSuite standaloneSuite = (StandaloneTestSuite) suite;
-            Element result = doc.createElement("device");
-            result.setAttribute("type", "library");
-            result.setAttribute("ectester", ECTesterStandalone.VERSION);
-
-            Element name = doc.createElement("name");
-            name.setTextContent(standaloneSuite.getLibrary().name());
-            result.appendChild(name);
-            return result;
+            startElement("device");
+            attribute("type", "library");
+            attribute("ectester", ECTesterStandalone.VERSION);
+            element("name", standaloneSuite.getLibrary().name());
+            endElement();
         }
-        return null;
     }
 }
@@ -95,13 +95,17 @@ public class StandaloneDefaultSuite extends StandaloneTestSuite {
                 } else {
                     testable = new KeyAgreementTestable(ka, kgtOne, kgtOther, spec);
                 }
-                doTest(KeyAgreementTest.expect(testable, Result.ExpectedValue.SUCCESS));
+                KeyAgreementTest test = KeyAgreementTest.expect(testable, Result.ExpectedValue.SUCCESS);
+                test.setIndependent(true);
+                doTest(test);
             }
         }
         for (SignatureIdent sigIdent : cfg.selected.getSigs()) {
             if (sigAlgo == null || sigIdent.contains(sigAlgo)) {
                 Signature sig = sigIdent.getInstance(cfg.selected.getProvider());
-                doTest(SignatureTest.expect(new SignatureTestable(sig, kgtOne, null), Result.ExpectedValue.SUCCESS));
+                SignatureTest test = SignatureTest.expect(new SignatureTestable(sig, kgtOne, null), Result.ExpectedValue.SUCCESS);
+                test.setIndependent(true);
+                doTest(test);
             }
         }
     }